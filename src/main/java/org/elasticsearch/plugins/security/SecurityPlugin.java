@@ -7,7 +7,9 @@ import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.plugins.security.rest.RestSecurityStatsAction;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.rest.RestModule;
 
 /**
  * 
@@ -33,6 +35,10 @@ public class SecurityPlugin extends AbstractPlugin {
 		return services;
 	}
 
+	public void onModule(final RestModule module) {
+		module.addRestAction(RestSecurityStatsAction.class);
+	}
+
 	@Override
 	public String description() {
 		return "Security Plugin";
@@ -1,13 +1,21 @@
 package org.elasticsearch.plugins.security.filter;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
-import org.elasticsearch.plugins.security.filter.authentication.util.TokenUtil;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestChannel;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatUserRoleCallback;
+import org.elasticsearch.plugins.security.service.ConfigurationSnapshot;
 import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.plugins.security.service.permission.DecisionCache;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolutionCache;
+import org.elasticsearch.plugins.security.service.resolver.HostNameResolver.HostName;
+import org.elasticsearch.plugins.security.util.RequestDescriptor;
 import org.elasticsearch.plugins.security.util.SecurityUtil;
 import org.elasticsearch.rest.RestFilterChain;
 import org.elasticsearch.rest.RestStatus;
@@ -20,8 +28,96 @@ import org.elasticsearch.rest.RestStatus;
  */
 public class ActionPathFilter extends SecureRestFilter {
 
+	private final AtomicLong compilations = new AtomicLong();
+
+	private volatile CompiledConfiguration compiledConfiguration;
+
+	private final DecisionCache<PermLevel> decisionCache;
+
 	public ActionPathFilter(final SecurityService securityService) {
 		super(securityService);
+
+		final long cacheSize = securityService.getSettings().getAsLong(
+				"security.cache.decisions.size", 10000L);
+
+		if (cacheSize > 0) {
+			decisionCache = new DecisionCache<PermLevel>(cacheSize,
+					securityService.getSettings().getAsInt(
+							"security.cache.decisions.concurrency_level",
+							4 * Runtime.getRuntime().availableProcessors()));
+			securityService.registerStats("decision_cache", decisionCache);
+		} else {
+			decisionCache = null;
+		}
+	}
+
+	/**
+	 * Returns the rules compiled from the current configuration version. The
+	 * rules are only compiled again if the configuration document or the
+	 * addresses of the host names used in it have changed.
+	 */
+	private CompiledConfiguration getCompiledConfiguration()
+			throws MalformedConfigurationException {
+		final ConfigurationSnapshot snapshot = securityService
+				.getSecurityConfiguration(getType(), getId());
+		final ForwardResolutionCache forwardResolver = securityService
+				.getForwardResolutionCache();
+		final long generation = forwardResolver == null ? 0 : forwardResolver
+				.generation();
+
+		CompiledConfiguration compiled = compiledConfiguration;
+
+		if (compiled == null || compiled.version != snapshot.getVersion()
+				|| compiled.generation != generation) {
+			compiled = new CompiledConfiguration(snapshot, forwardResolver,
+					generation, compilations.incrementAndGet());
+			compiledConfiguration = compiled;
+
+			if (decisionCache != null) {
+				decisionCache.invalidateAll();
+			}
+		}
+
+		return compiled;
+	}
+
+	protected PermLevel evaluatePerm(final TomcatHttpServerRestRequest request,
+			final List<String> indices, final List<String> types)
+			throws MalformedConfigurationException, UnknownHostException {
+		final CompiledConfiguration compiled = getCompiledConfiguration();
+		final InetAddress clientAddress = getClientHostAddress(request);
+		final TomcatUserRoleCallback callback = new TomcatUserRoleCallback(
+				request.getHttpServletRequest(), securityService
+						.getSettings().get("security.ssl.userattribute"),
+				securityService.getTokenUtil());
+
+		final PermLevelEvaluator evaluator = compiled.getEvaluator();
+		final HostName clientHostName = evaluator.requiresHostName() ? securityService
+				.getHostNameResolver().resolve(clientAddress) : null;
+		final String hostName = clientHostName == null ? null
+				: clientHostName.getName();
+
+		// a name which is refreshed or could not be resolved in time may
+		// differ on the next request, decisions made with it are not kept
+		if (decisionCache == null || clientHostName != null
+				&& !clientHostName.isCurrent()) {
+			return evaluator.evaluatePerm(indices, types, clientAddress,
+					hostName, callback);
+		}
+
+		final DecisionCache.Key key = DecisionCache.Key.of(
+				callback.getRemoteuser(), request.getUserRoles(),
+				clientAddress, hostName, indices, types);
+
+		PermLevel permLevel = decisionCache.get(key, compiled.sequence);
+
+		if (permLevel == null) {
+			permLevel = evaluator.evaluatePerm(indices, types, clientAddress,
+					hostName, callback);
+			decisionCache.put(key, compiled.sequence, permLevel);
+		}
+
+		return permLevel;
 	}
 
 	@Override
@@ -29,35 +125,29 @@ public class ActionPathFilter extends SecureRestFilter {
 			final TomcatHttpServerRestChannel channel,
 			final RestFilterChain filterChain) {
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), SecurityUtil.BUILT_IN_ADMIN_COMMANDS)) {
+		final boolean strictModeEnabled = securityService.isStrictModeEnabled();
+		final RequestDescriptor descriptor = request
+				.getRequestDescriptor(securityService
+						.getRequestDescriptorCache());
+
+		if (descriptor.isAdminCommandAsName()) {
 			log.warn("Index- or Typename should not contains admin commands like "
 					+ Arrays.toString(SecurityUtil.BUILT_IN_ADMIN_COMMANDS));
 		}
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX)) {
+		if (descriptor.isReadCommandAsName()) {
 			log.warn("Index- or Typename should not contains search commands like "
-					+ Arrays.toString(securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
+					+ Arrays.toString(strictModeEnabled?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX));
 		}
 
-		if (SecurityUtil.stringContainsItemFromListAsTypeOrIndex(
-				request.path(), securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX)) {
+		if (descriptor.isWriteCommandAsName()) {
 			log.warn("Index- or Typename should not contains write commands like "
-					+ Arrays.toString(securityService.isStrictModeEnabled()?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX));
+					+ Arrays.toString(strictModeEnabled?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX));
 		}
 
 		try {
-			final PermLevel permLevel = new PermLevelEvaluator(
-					securityService.getXContentSecurityConfiguration(
-							getType(), getId()))
-			.evaluatePerm(
-					SecurityUtil.getIndices(request),
-					SecurityUtil.getTypes(request),
-					getClientHostAddress(request),
-					new TomcatUserRoleCallback(request
-							.getHttpServletRequest(), securityService.getSettings().get("security.ssl.userattribute"),
-							new TokenUtil()));
+			final PermLevel permLevel = evaluatePerm(request,
+					descriptor.getIndices(), descriptor.getTypes());
 
 			if (permLevel == PermLevel.NONE) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
@@ -66,21 +156,21 @@ public class ActionPathFilter extends SecureRestFilter {
 			}
 
 			if (permLevel.ordinal() < PermLevel.ALL.ordinal()
-					&& SecurityUtil.isAdminRequest(request)) {
+					&& descriptor.isAdminRequest()) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
 						"No permission (for admin actions)");
 				return;
 			}
 
 			if (permLevel.ordinal() < PermLevel.READWRITE.ordinal()
-					&& SecurityUtil.isWriteRequest(request,securityService.isStrictModeEnabled())) {
+					&& descriptor.isWriteRequest()) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
 						"No permission (for write actions)");
 				return;
 			}
 
 			if (permLevel == PermLevel.READONLY
-					&& !SecurityUtil.isReadRequest(request,securityService.isStrictModeEnabled())) {
+					&& !descriptor.isReadRequest()) {
 				SecurityUtil.send(request, channel, RestStatus.FORBIDDEN,
 						"No permission (for read actions)");
 				return;
@@ -116,4 +206,48 @@ public class ActionPathFilter extends SecureRestFilter {
 		return "actionpathfilter";
 	}
 
+	private static final class CompiledConfiguration {
+
+		private final long version;
+
+		private final long generation;
+
+		/**
+		 * Increases with every compilation, cached decisions are bound to it.
+		 */
+		private final long sequence;
+
+		private final PermLevelEvaluator evaluator;
+
+		private final MalformedConfigurationException error;
+
+		private CompiledConfiguration(final ConfigurationSnapshot snapshot,
+				final ForwardResolutionCache forwardResolver,
+				final long generation, final long sequence) {
+			PermLevelEvaluator evaluator = null;
+			MalformedConfigurationException error = null;
+
+			try {
+				evaluator = new PermLevelEvaluator(snapshot.getJson(),
+						forwardResolver);
+			} catch (final MalformedConfigurationException e) {
+				error = e;
+			}
+
+			this.version = snapshot.getVersion();
+			this.generation = generation;
+			this.sequence = sequence;
+			this.evaluator = evaluator;
+			this.error = error;
+		}
+
+		private PermLevelEvaluator getEvaluator()
+				throws MalformedConfigurationException {
+			if (error != null) {
+				throw error;
+			}
+			return evaluator;
+		}
+	}
+
 }
@@ -1,6 +1,8 @@
 package org.elasticsearch.plugins.security.filter;
 
+import org.elasticsearch.plugins.security.MalformedConfigurationException;
 import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolver;
 
 /**
  * 
@@ -9,8 +11,10 @@ import org.elasticsearch.plugins.security.service.permission.PermEvaluator;
  */
 public class PermLevelEvaluator extends PermEvaluator<PermLevel> {
 
-	protected PermLevelEvaluator(final String xSecurityConfiguration) {
-		super(xSecurityConfiguration);
+	protected PermLevelEvaluator(final String xSecurityConfiguration,
+			final ForwardResolver forwardResolver)
+			throws MalformedConfigurationException {
+		super(xSecurityConfiguration, forwardResolver);
 	}
 
 	@Override
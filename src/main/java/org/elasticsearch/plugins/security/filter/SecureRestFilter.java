@@ -46,7 +46,9 @@ public abstract class SecureRestFilter extends RestFilter {
 	public final void process(final RestRequest request,
 			final RestChannel channel, final RestFilterChain filterChain) {
 
-		final List<String> indices = SecurityUtil.getIndices(request);
+		final TomcatHttpServerRestRequest tomcatRequest = (TomcatHttpServerRestRequest) request;
+		final List<String> indices = tomcatRequest.getRequestDescriptor(
+				securityService.getRequestDescriptorCache()).getIndices();
 		if (indices.contains(securityService
 				.getSecurityConfigurationIndex())) {
 
@@ -63,9 +65,7 @@ public abstract class SecureRestFilter extends RestFilter {
 			}
 		} else {
 
-			((TomcatHttpServerRestRequest) request).getUserRoles();
-
-			processSecure((TomcatHttpServerRestRequest) request,
+			processSecure(tomcatRequest,
 					(TomcatHttpServerRestChannel) channel, filterChain);
 
 		}
@@ -0,0 +1,54 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication;
+
+import java.security.Principal;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.apache.catalina.realm.GenericPrincipal;
+
+/**
+ * Request of a user authenticated by a filter rather than by the container,
+ * user principal and role checks are answered from the cached
+ * {@link GenericPrincipal}.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+class AuthenticatedRequest extends HttpServletRequestWrapper {
+
+	private final GenericPrincipal principal;
+
+	private final String authType;
+
+	AuthenticatedRequest(HttpServletRequest request,
+			GenericPrincipal principal, String authType) {
+		super(request);
+		this.principal = principal;
+		this.authType = authType;
+	}
+
+	@Override
+	public Principal getUserPrincipal() {
+		return principal;
+	}
+
+	@Override
+	public String getRemoteUser() {
+		return principal.getName();
+	}
+
+	@Override
+	public boolean isUserInRole(String role) {
+		return principal.hasRole(role);
+	}
+
+	@Override
+	public String getAuthType() {
+		return authType;
+	}
+
+}
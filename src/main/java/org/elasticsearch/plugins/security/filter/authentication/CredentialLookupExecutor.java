@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Bounded executor the {@link TokenFilter} runs credential lookups and
+ * password verifications on while the request thread is released. Tasks
+ * which do not fit into the queue are rejected rather than queued without
+ * limit.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class CredentialLookupExecutor implements ToXContent {
+
+	private final String name;
+
+	private final ThreadPoolExecutor executor;
+
+	private final int queueSize;
+
+	private final MeanMetric waitTime = new MeanMetric();
+
+	private final MeanMetric lookupTime = new MeanMetric();
+
+	private final CounterMetric rejected = new CounterMetric();
+
+	/**
+	 * @param name
+	 *            name of the executor in thread names and stats
+	 */
+	public CredentialLookupExecutor(String name, int threads, int queueSize) {
+		super();
+		this.name = name;
+		this.queueSize = queueSize;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						Math.max(queueSize, 1)),
+				EsExecutors.daemonThreadFactory("security_" + name));
+	}
+
+	/**
+	 * Runs the lookup on the executor, returns false if the queue is full.
+	 */
+	public boolean submit(final Runnable lookup) {
+		final long submitted = System.nanoTime();
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long started = System.nanoTime();
+					waitTime.inc(TimeUnit.NANOSECONDS.toMillis(started
+							- submitted));
+					try {
+						lookup.run();
+					} finally {
+						lookupTime.inc(TimeUnit.NANOSECONDS.toMillis(System
+								.nanoTime() - started));
+					}
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			rejected.inc();
+			return false;
+		}
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		builder.startObject(name + "_executor");
+		builder.field("threads", executor.getMaximumPoolSize());
+		builder.field("active", executor.getActiveCount());
+		builder.field("queue", executor.getQueue().size());
+		builder.field("queue_size", queueSize);
+		builder.field("completed", executor.getCompletedTaskCount());
+		builder.field("rejected", rejected.count());
+		builder.field("wait_time_avg_millis", waitTime.mean());
+		builder.field("lookup_time_avg_millis", lookupTime.mean());
+		builder.endObject();
+		return builder;
+	}
+
+}
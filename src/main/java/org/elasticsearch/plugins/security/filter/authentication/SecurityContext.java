@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * The authenticated caller of a request: user name, roles, client address
+ * and the expiry of the token the caller presented.
+ * <p>
+ * The {@link TokenFilter} creates the context once the token (or Basic
+ * credential) is verified and the roles are looked up, and attaches it to the
+ * request under {@link #ATTRIBUTE} before the request reaches Elasticsearch.
+ * The rest filters and user role callbacks read it with
+ * {@link #get(ServletRequest)} instead of decrypting the token and looking up
+ * the roles again. A request without context has not been authenticated by
+ * the token filter, callers then fall back to the token header.
+ * <p>
+ * Instances are immutable and may be shared between threads, e.g. when a
+ * request is dispatched again after an asynchronous lookup.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class SecurityContext {
+
+	public static final String ATTRIBUTE = "org.elasticsearch.plugins.security.security-context";
+
+	private final String userName;
+
+	private final Set<String> roles;
+
+	private final InetAddress clientAddress;
+
+	private final long tokenExpires;
+
+	public SecurityContext(final String userName,
+			final Collection<String> roles, final InetAddress clientAddress,
+			final long tokenExpires) {
+		super();
+		this.userName = userName;
+		this.roles = roles == null || roles.isEmpty() ? Collections
+				.<String> emptySet() : Collections
+				.unmodifiableSet(new HashSet<String>(roles));
+		this.clientAddress = clientAddress;
+		this.tokenExpires = tokenExpires;
+	}
+
+	/**
+	 * Returns the context of the request, or null if the request has not
+	 * been authenticated by the {@link TokenFilter}.
+	 */
+	public static SecurityContext get(final ServletRequest request) {
+		return (SecurityContext) request.getAttribute(ATTRIBUTE);
+	}
+
+	/**
+	 * Stores this context as attribute of the request, replacing an earlier
+	 * one.
+	 */
+	public void attach(final ServletRequest request) {
+		request.setAttribute(ATTRIBUTE, this);
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public Set<String> getRoles() {
+		return roles;
+	}
+
+	public boolean isUserInRole(final String role) {
+		return roles.contains(role);
+	}
+
+	/**
+	 * Returns the address of the peer which sent the request.
+	 */
+	public InetAddress getClientAddress() {
+		return clientAddress;
+	}
+
+	/**
+	 * Returns the expiry of the token the caller authenticated with, in
+	 * milliseconds since the epoch.
+	 */
+	public long getTokenExpires() {
+		return tokenExpires;
+	}
+
+	@Override
+	public String toString() {
+		return "SecurityContext [userName=" + userName + ", roles=" + roles
+				+ ", clientAddress=" + clientAddress + ", tokenExpires="
+				+ tokenExpires + "]";
+	}
+
+}
@@ -3,16 +3,24 @@
  */
 package org.elasticsearch.plugins.security.filter.authentication;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
-import java.security.Principal;
-import java.sql.Connection;
 import java.sql.Driver;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Properties;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -22,10 +30,28 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.elasticsearch.common.Base64;
 import org.elasticsearch.common.netty.handler.codec.http.HttpMethod;
-import org.elasticsearch.plugins.security.filter.authentication.principal.CustomPrincipal;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CachingCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CircuitBreakerCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CoalescingCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.SnapshotCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.Credential;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSourceException;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.ConnectionPool;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.ReplicatedConnectionPool;
+import org.elasticsearch.plugins.security.filter.authentication.util.PasswordVerifier;
+import org.elasticsearch.plugins.security.filter.authentication.util.TokenCodec;
 import org.elasticsearch.plugins.security.filter.authentication.util.TokenUtil;
+import org.elasticsearch.plugins.security.filter.authentication.util.VerifiedCredentialCache;
+import org.elasticsearch.plugins.security.http.realm.CustomJdbcRealm;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,11 +59,19 @@ import org.slf4j.LoggerFactory;
  * @author Johannes Hiemer.
  *
  */
-public class TokenFilter implements Filter {
+public class TokenFilter implements Filter, ToXContent {
 	
 	private Logger log = LoggerFactory
 			.getLogger(TokenFilter.class);
 	
+	private static final String AUTH_TYPE = "TOKEN";
+
+	private static final String LOOKUP_ATTRIBUTE = "org.elasticsearch.plugins.security.credential-lookup";
+
+	private static final String BASIC_PREFIX = "Basic ";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	private String tokenName = "X-Auth-Token";
 	
 	private String connectionName = null;
@@ -46,24 +80,127 @@ public class TokenFilter implements Filter {
 
 	private String connectionURL = null;
 
-	private Connection dbConnection = null;
+	private String driverName = null;
 
-	private Driver driver = null;
+	private int poolMinSize = 1;
 
-	private String driverName = null;
+	private int poolMaxSize = 10;
+
+	private long poolAcquireTimeout = 5000;
+
+	private long poolValidationInterval = 30000;
+
+	/**
+	 * urls of the read replicas by their configured name
+	 */
+	private final Map<String, String> replicaURLs = new LinkedHashMap<String, String>();
+
+	private long replicaHealthCheckInterval = 5000;
+
+	private ConnectionPool connectionPool = null;
+
+	private String snapshotPath = null;
+
+	private long snapshotSyncInterval = 60000;
+
+	private long snapshotFullSyncInterval = 3600000;
+
+	private long batchWindow = 2;
+
+	private int batchMaxSize = 32;
+
+	private long batchTimeout = 10000;
+
+	private long cacheSize = 10000;
+
+	private long cacheTtl = 300000;
+
+	private long cacheNegativeTtl = 30000;
+
+	private long cacheRefreshAfter = 240000;
+
+	private long cacheMaxStaleness = 3600000;
+
+	private int breakerFailureThreshold = 5;
+
+	private long breakerOpenDuration = 30000;
+
+	private boolean bloomFilterEnabled = false;
+
+	private double bloomFilterFpp = 0.01;
 
-	private PreparedStatement preparedCredentials = null;
+	private long bloomFilterRefreshInterval = 300000;
 
-	private PreparedStatement preparedRoles = null;
+	private CredentialSource credentialSource = null;
 
     private String userCredCol = null;
 
     private String userNameCol = null;
 
+    private String userModifiedCol = null;
+
+    private String userRolesCol = null;
+
+    private String roleTable = null;
+
+    private String roleUserCol = null;
+
+    private String roleNameCol = null;
+
     protected String userTable = null;
     
     private TokenUtil tokenUtil = null;
 
+    private CustomJdbcRealm realm = null;
+
+    private boolean lookupAsync = true;
+
+    private int lookupThreads;
+
+    private int lookupQueueSize = 100;
+
+    private CredentialLookupExecutor lookupExecutor = null;
+
+    private boolean basicEnabled = false;
+
+    private boolean basicAllowPlain = false;
+
+    private long basicCacheSize = 10000;
+
+    private long basicCacheTtl = 60000;
+
+    private int basicThreads = 2;
+
+    private int basicQueueSize = 50;
+
+    private PasswordVerifier passwordVerifier = null;
+
+    private VerifiedCredentialCache verifiedCredentialCache = null;
+
+    private CredentialLookupExecutor verifyExecutor = null;
+
+    public TokenFilter() {
+        super();
+    }
+
+    /**
+     * @param tokenUtil initialized token util shared with the rest filters
+     */
+    public TokenFilter(TokenUtil tokenUtil) {
+        super();
+        this.tokenUtil = tokenUtil;
+    }
+
+    /**
+     * @param tokenUtil initialized token util shared with the rest filters
+     * @param realm realm of the context, principals are looked up through its cache
+     */
+    public TokenFilter(TokenUtil tokenUtil, CustomJdbcRealm realm) {
+        super();
+        this.tokenUtil = tokenUtil;
+        this.realm = realm;
+    }
+
     public String getConnectionName() {
         return connectionName;
     }
@@ -136,17 +273,91 @@ public class TokenFilter implements Filter {
         	this.userTable = filterConfig.getInitParameter("security.jdbc.table");
         	this.userNameCol = filterConfig.getInitParameter("security.jdbc.column.username");
         	this.userCredCol = filterConfig.getInitParameter("security.jdbc.column.password"); 
+        	this.userModifiedCol = filterConfig.getInitParameter("security.jdbc.column.modified");
+        	this.userRolesCol = filterConfig.getInitParameter("security.jdbc.column.roles");
+        	this.roleTable = filterConfig.getInitParameter("security.jdbc.roles.table");
+        	this.roleUserCol = filterConfig.getInitParameter("security.jdbc.roles.column.username");
+        	this.roleNameCol = filterConfig.getInitParameter("security.jdbc.roles.column.role");
         	
         	this.connectionName = filterConfig.getInitParameter("security.jdbc.username");
         	this.connectionPassword = filterConfig.getInitParameter("security.jdbc.password");
+
+        	this.poolMinSize = getInitParameter(filterConfig, "security.jdbc.pool.min_size", poolMinSize);
+        	this.poolMaxSize = getInitParameter(filterConfig, "security.jdbc.pool.max_size", poolMaxSize);
+        	this.poolAcquireTimeout = getInitParameter(filterConfig, "security.jdbc.pool.acquire_timeout", poolAcquireTimeout);
+        	this.poolValidationInterval = getInitParameter(filterConfig, "security.jdbc.pool.validation_interval", poolValidationInterval);
+
+        	String replicas = getInitParameter(filterConfig, "security.jdbc.replicas", null);
+        	if (replicas != null) {
+        		for (String replica : replicas.split(",")) {
+        			replica = replica.trim();
+        			if (replica.isEmpty()) {
+        				continue;
+        			}
+        			// host[:port] of the primary's database, or a complete jdbc url
+        			this.replicaURLs.put(replica, replica.startsWith("jdbc:") ? replica
+        					: filterConfig.getInitParameter("security.jdbc.url")
+        					+ "://" + (replica.indexOf(':') < 0 ? replica + ":" + filterConfig.getInitParameter("security.jdbc.port") : replica)
+        					+ "/" + filterConfig.getInitParameter("security.jdbc.database"));
+        		}
+        	}
+        	this.replicaHealthCheckInterval = getInitParameter(filterConfig, "security.jdbc.replicas.health_check_interval", replicaHealthCheckInterval);
+
+        	this.snapshotPath = getInitParameter(filterConfig, "security.jdbc.snapshot.path", snapshotPath);
+        	this.snapshotSyncInterval = getInitParameter(filterConfig, "security.jdbc.snapshot.sync_interval", snapshotSyncInterval);
+        	this.snapshotFullSyncInterval = getInitParameter(filterConfig, "security.jdbc.snapshot.full_sync_interval", snapshotFullSyncInterval);
+
+        	this.batchWindow = getInitParameter(filterConfig, "security.jdbc.batch.window", batchWindow);
+        	this.batchMaxSize = getInitParameter(filterConfig, "security.jdbc.batch.max_size", batchMaxSize);
+        	this.batchTimeout = getInitParameter(filterConfig, "security.jdbc.batch.timeout", batchTimeout);
+
+        	this.cacheSize = getInitParameter(filterConfig, "security.jdbc.cache.size", cacheSize);
+        	this.cacheTtl = getInitParameter(filterConfig, "security.jdbc.cache.ttl", cacheTtl);
+        	this.cacheNegativeTtl = getInitParameter(filterConfig, "security.jdbc.cache.negative_ttl", cacheNegativeTtl);
+        	this.cacheRefreshAfter = getInitParameter(filterConfig, "security.jdbc.cache.refresh_after", cacheRefreshAfter);
+        	this.cacheMaxStaleness = getInitParameter(filterConfig, "security.jdbc.cache.max_staleness", cacheMaxStaleness);
+        	this.breakerFailureThreshold = getInitParameter(filterConfig, "security.jdbc.breaker.failure_threshold", breakerFailureThreshold);
+        	this.breakerOpenDuration = getInitParameter(filterConfig, "security.jdbc.breaker.open_duration", breakerOpenDuration);
+        	this.bloomFilterEnabled = Boolean.parseBoolean(getInitParameter(filterConfig, "security.jdbc.cache.bloom_filter.enabled", String.valueOf(bloomFilterEnabled)));
+        	this.bloomFilterFpp = Double.parseDouble(getInitParameter(filterConfig, "security.jdbc.cache.bloom_filter.fpp", String.valueOf(bloomFilterFpp)));
+        	this.bloomFilterRefreshInterval = getInitParameter(filterConfig, "security.jdbc.cache.bloom_filter.refresh_interval", bloomFilterRefreshInterval);
+
+        	this.lookupAsync = Boolean.parseBoolean(getInitParameter(filterConfig, "security.jdbc.lookup.async", String.valueOf(lookupAsync)));
+        	this.lookupThreads = getInitParameter(filterConfig, "security.jdbc.lookup.threads", poolMaxSize);
+        	this.lookupQueueSize = getInitParameter(filterConfig, "security.jdbc.lookup.queue_size", lookupQueueSize);
+
+        	this.basicEnabled = Boolean.parseBoolean(getInitParameter(filterConfig, "security.jdbc.basic.enabled", String.valueOf(basicEnabled)));
+        	this.basicAllowPlain = Boolean.parseBoolean(getInitParameter(filterConfig, "security.jdbc.basic.allow_plain", String.valueOf(basicAllowPlain)));
+        	this.basicCacheSize = getInitParameter(filterConfig, "security.jdbc.basic.cache.size", basicCacheSize);
+        	this.basicCacheTtl = getInitParameter(filterConfig, "security.jdbc.basic.cache.ttl", basicCacheTtl);
+        	this.basicThreads = getInitParameter(filterConfig, "security.jdbc.basic.threads", basicThreads);
+        	this.basicQueueSize = getInitParameter(filterConfig, "security.jdbc.basic.queue_size", basicQueueSize);
+        	if (this.basicEnabled) {
+        		this.passwordVerifier = new PasswordVerifier(basicAllowPlain);
+        		this.verifiedCredentialCache = new VerifiedCredentialCache(basicCacheSize, basicCacheTtl);
+        	}
         	
         	try {
-				this.open();
+				this.credentialSource = createCredentialSource();
+				if (this.realm != null) {
+					this.realm.setCredentialSource(this.credentialSource);
+				}
+
+				// created last, nothing is left to shut down if the source fails
+				if (this.lookupAsync) {
+					this.lookupExecutor = new CredentialLookupExecutor("lookup", lookupThreads, lookupQueueSize);
+				}
+				if (this.basicEnabled) {
+					// logins never occupy the threads of the token lookups
+					this.verifyExecutor = new CredentialLookupExecutor("verify", basicThreads, basicQueueSize);
+				}
 			} catch (SQLException e) {
 				throw new ServletException(e);
 			} finally {
-				this.tokenUtil = new TokenUtil();
-				this.tokenUtil.init();
+				if (this.tokenUtil == null) {
+					this.tokenUtil = new TokenUtil(getInitParameter(filterConfig, "security.token.key", (String) null));
+					this.tokenUtil.init();
+				}
 			}
 		}
 	}
@@ -161,35 +372,204 @@ public class TokenFilter implements Filter {
 		final HttpServletRequest request = (HttpServletRequest) sreq;
 		final HttpServletResponse response = (HttpServletResponse) sres;
 
+		if (request.getDispatcherType() == DispatcherType.ASYNC) {
+			// dispatched again once the lookup has completed
+			final Lookup lookup = (Lookup) request.getAttribute(LOOKUP_ATTRIBUTE);
+			if (lookup != null) {
+				request.removeAttribute(LOOKUP_ATTRIBUTE);
+				authenticate(request, response, chain, lookup.token, lookup.principal);
+				return;
+			}
+		}
+
 		if (!request.getMethod().equals(HttpMethod.OPTIONS.toString())) {
-			CustomPrincipal principal = (CustomPrincipal) this.getPrincipal(request);
-			if ((principal.getUsername() != null && !principal.getUsername().isEmpty()) && 
-					(principal.getPassword() != null  && !principal.getPassword().isEmpty())) {
+			final TokenCodec.Token token = tokenUtil.getToken(request);
+			if (token == null) {
+				final String[] basic = basicEnabled ? getBasicCredentials(request) : null;
+				if (basic != null) {
+					doBasic(request, response, chain, basic[0], basic[1]);
+				} else {
+					sendUnauthorized(response, false);
+				}
+				return;
+			}
+
+			GenericPrincipal principal = realm != null ? realm.getCachedPrincipal(token.getUserName()) : null;
+			if (principal != null || lookupExecutor == null || !request.isAsyncSupported()) {
+				if (principal == null) {
+					principal = this.getPrincipal(token);
+				}
+				authenticate(request, response, chain, token, principal);
+				return;
+			}
+
+			// the request thread is released while the lookup runs
+			final AsyncLookup async = new AsyncLookup(request, response);
+			boolean submitted = lookupExecutor.submit(new Runnable() {
+				@Override
+				public void run() {
+					GenericPrincipal principal = null;
+					try {
+						principal = getPrincipal(token);
+					} catch (RuntimeException e) {
+						log.error("Unable to retrieve User/Password", e);
+					} finally {
+						async.dispatch(new Lookup(token, principal));
+					}
+				}
+			});
+
+			if (!submitted) {
+				async.reject();
+			}
+			return;
+		}
+
+		sendUnauthorized(response, false);
+	}
+
+	/**
+	 * Authenticates a request without token by the password of the user, the
+	 * response carries a new token for the following requests.
+	 */
+	private void doBasic(final HttpServletRequest request, final HttpServletResponse response,
+			final FilterChain chain, final String userName, final String password) throws IOException, ServletException {
+		final GenericPrincipal cached = realm != null ? realm.getCachedPrincipal(userName) : null;
+		if (cached != null && verifiedCredentialCache.isVerified(userName, password, cached.getPassword())) {
+			authenticate(request, response, chain, null, cached);
+			return;
+		}
+
+		if (verifyExecutor == null || !request.isAsyncSupported()) {
+			authenticate(request, response, chain, null, verifyPassword(userName, password, cached));
+			return;
+		}
+
+		// hashing is slow by design, it runs on its own bounded executor
+		final AsyncLookup async = new AsyncLookup(request, response);
+		boolean submitted = verifyExecutor.submit(new Runnable() {
+			@Override
+			public void run() {
+				GenericPrincipal principal = null;
 				try {
-					response.addHeader(tokenName,
-							getTokenRenewal(principal.getUsername()));
-				} catch (GeneralSecurityException e) {
-					throw new ServletException(e);
+					principal = verifyPassword(userName, password, cached);
+				} catch (RuntimeException e) {
+					log.error("Unable to verify User/Password", e);
 				} finally {
-					chain.doFilter(request, response);
+					async.dispatch(new Lookup(null, principal));
 				}
-				return;
+			}
+		});
+
+		if (!submitted) {
+			async.reject();
+		}
+	}
+
+	/**
+	 * Returns the principal of the user if the password matches its stored
+	 * hash, otherwise null. The cache is only consulted for principals which
+	 * have just been looked up.
+	 */
+	private GenericPrincipal verifyPassword(String userName, String password, GenericPrincipal principal) {
+		if (principal == null) {
+			principal = getPrincipal(userName);
+			if (principal == null || principal.getPassword() == null) {
+				return null;
+			}
+			if (verifiedCredentialCache.isVerified(userName, password, principal.getPassword())) {
+				return principal;
 			}
 		}
 
+		boolean valid = passwordVerifier.verify(password, principal.getPassword());
+		verifiedCredentialCache.verified(userName, password, principal.getPassword(), valid);
+		return valid ? principal : null;
+	}
+
+	/**
+	 * Returns user name and password of the basic authorization header, or
+	 * null if there is none or it is malformed.
+	 */
+	private static String[] getBasicCredentials(HttpServletRequest request) {
+		String header = request.getHeader("Authorization");
+		if (header == null || !header.regionMatches(true, 0, BASIC_PREFIX, 0, BASIC_PREFIX.length())) {
+			return null;
+		}
+
+		try {
+			String decoded = new String(Base64.decode(
+					header.substring(BASIC_PREFIX.length()).trim()), UTF_8);
+			int separator = decoded.indexOf(':');
+			if (separator < 1) {
+				return null;
+			}
+			return new String[] { decoded.substring(0, separator), decoded.substring(separator + 1) };
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param token the presented token, null if the password has been verified
+	 *            and a new token is issued
+	 */
+	private void authenticate(HttpServletRequest request, HttpServletResponse response,
+			FilterChain chain, TokenCodec.Token token, GenericPrincipal principal) throws IOException, ServletException {
+		if (principal != null && (principal.getName() != null && !principal.getName().isEmpty()) && 
+				(principal.getPassword() != null  && !principal.getPassword().isEmpty())) {
+			final boolean basic = token == null;
+			if (basic) {
+				token = tokenUtil.issueToken(principal.getName());
+			}
+			new SecurityContext(principal.getName(), Arrays.asList(principal.getRoles()),
+					getClientAddress(request), token.getExpires()).attach(request);
+			try {
+				response.addHeader(tokenName, basic ? tokenUtil.encodeToken(token)
+						: getTokenRenewal(request.getHeader(tokenName), token));
+			} catch (GeneralSecurityException e) {
+				throw new ServletException(e);
+			} finally {
+				chain.doFilter(new AuthenticatedRequest(request, principal,
+						basic ? HttpServletRequest.BASIC_AUTH : AUTH_TYPE), response);
+			}
+			return;
+		}
+
 		sendUnauthorized(response, false);
 	}
 
-	private Principal getPrincipal(HttpServletRequest request) {
-		tokenUtil.init();
-		String userName = tokenUtil.getUserName(request);
-		Principal principal = new CustomPrincipal(userName, getPassword(userName));
-		
-		return principal;
+	private GenericPrincipal getPrincipal(TokenCodec.Token token) {
+		return getPrincipal(token != null ? token.getUserName() : null);
+	}
+
+	private GenericPrincipal getPrincipal(String userName) {
+		if (realm != null) {
+			return realm.getGenericPrincipal(userName);
+		}
+
+		Credential credential = getCredential(userName);
+		if (credential == null) {
+			return null;
+		}
+
+		// the roles are loaded with the password, no further lookup is needed
+		return new GenericPrincipal(userName, credential.getPassword(),
+				new ArrayList<String>(credential.getRoles()));
+	}
+	
+	private InetAddress getClientAddress(HttpServletRequest request) {
+		try {
+			// the remote address is an ip literal, no lookup is done
+			return InetAddress.getByName(request.getRemoteAddr());
+		} catch (UnknownHostException e) {
+			log.debug("Invalid remote address " + request.getRemoteAddr(), e);
+			return null;
+		}
 	}
 	
-	private String getTokenRenewal(String username) throws IOException, GeneralSecurityException {
-		 return tokenUtil.createAuthToken(username);
+	private String getTokenRenewal(String presentedToken, TokenCodec.Token token) throws IOException, GeneralSecurityException {
+		 return tokenUtil.renewToken(presentedToken, token);
 	}
 
 	/* (non-Javadoc)
@@ -198,134 +578,162 @@ public class TokenFilter implements Filter {
 	@Override
 	public void destroy() {
 		log.info("Shutting down Token based authentication filter");
+		if (lookupExecutor != null) {
+			lookupExecutor.shutdown();
+		}
+		if (verifyExecutor != null) {
+			verifyExecutor.shutdown();
+		}
+		if (credentialSource != null) {
+			credentialSource.close();
+		}
 	}
 	
-	protected synchronized String getPassword(String username) {
-		String dbCredentials = null;
-		PreparedStatement preparedStatement = null;
-		ResultSet resultSet = null;
-
-		int numberOfTries = 2;
-		while (numberOfTries > 0) {
-			try {
-				open();
-
-				preparedStatement = credentials(dbConnection, username);
-				resultSet = preparedStatement.executeQuery();
-				if (resultSet.next()) {
-					dbCredentials = resultSet.getString(1);
-				}
+	/**
+	 * Returns the stored password of the user, or null if the user does not
+	 * exist or the credentials cannot be retrieved.
+	 */
+	protected String getPassword(String username) {
+		Credential credential = getCredential(username);
+		return credential != null ? credential.getPassword() : null;
+	}
 
-				dbConnection.commit();
+	/**
+	 * Returns the stored password and roles of the user, or null if the user
+	 * does not exist or the credentials cannot be retrieved.
+	 */
+	protected Credential getCredential(String username) {
+		if (username == null) {
+			return null;
+		}
 
-				if (dbCredentials != null) {
-					dbCredentials = dbCredentials.trim();
-				}
+		try {
+			return credentialSource.getCredential(username);
+		} catch (CredentialSourceException e) {
+			log.error("Unable to retrieve User/Password", e);
+			return null;
+		}
+	}
 
-				return dbCredentials;
-			} catch (SQLException e) {
-				log.error("SQL Exception while retrieving User/Password", e);
-			} finally {
-				if (resultSet != null) {
-					try {
-						resultSet.close();
-					} catch (SQLException e) {
-						log.error("Abnormal SQL Exception while retrieving User/Password", e);
-					}
-				}
-			}
+	protected CredentialSource createCredentialSource() throws SQLException {
+		Driver driver;
+		try {
+			Class<?> clazz = Class.forName(driverName);
+			driver = (Driver) clazz.newInstance();
+		} catch (Throwable e) {
+			ExceptionUtils.handleThrowable(e);
+			throw new SQLException(e.getMessage(), e);
+		}
 
-			if (dbConnection != null) {
-				close(dbConnection);
+		JdbcConnectionPool primary = createConnectionPool(driver, connectionURL);
+		ConnectionPool pool = primary;
+		if (!replicaURLs.isEmpty()) {
+			// lookups go to the replicas, the primary takes over if none is healthy
+			Map<String, JdbcConnectionPool> replicaPools = new LinkedHashMap<String, JdbcConnectionPool>();
+			for (Map.Entry<String, String> replica : replicaURLs.entrySet()) {
+				replicaPools.put(replica.getKey(), createConnectionPool(driver, replica.getValue()));
 			}
-			numberOfTries--;
+			pool = new ReplicatedConnectionPool(primary, replicaPools,
+					replicaHealthCheckInterval);
+		}
+		try {
+			pool.start();
+		} catch (SQLException e) {
+			pool.close();
+			throw e;
+		}
+		this.connectionPool = pool;
+
+		JdbcCredentialSource jdbcSource = new JdbcCredentialSource(pool,
+				userTable, userNameCol, userCredCol, userModifiedCol,
+				createRoleMapping());
+
+		if (snapshotPath != null) {
+			// the database is only used to replicate the snapshot
+			SnapshotCredentialSource snapshotSource = new SnapshotCredentialSource(
+					jdbcSource, new File(snapshotPath), snapshotSyncInterval,
+					snapshotFullSyncInterval);
+			snapshotSource.start();
+			return snapshotSource;
 		}
 
-		return (null);
+		// lookups fail fast while the database is down, the cache serves
+		// stale credentials meanwhile
+		CircuitBreakerCredentialSource breaker = new CircuitBreakerCredentialSource(
+				new CoalescingCredentialSource(jdbcSource, batchWindow, batchMaxSize,
+						batchTimeout),
+				breakerFailureThreshold, breakerOpenDuration);
+		CachingCredentialSource source = new CachingCredentialSource(breaker,
+				jdbcSource, cacheSize, cacheTtl, cacheNegativeTtl, cacheRefreshAfter,
+				cacheMaxStaleness, bloomFilterEnabled ? bloomFilterFpp : 0,
+				bloomFilterRefreshInterval);
+		source.start();
+		return source;
 	}
-	
-	protected Connection open() throws SQLException {
-        if (dbConnection != null)
-            return (dbConnection);
-
-        if (driver == null) {
-            try {
-                Class<?> clazz = Class.forName(driverName);
-                driver = (Driver) clazz.newInstance();
-            } catch (Throwable e) {
-                ExceptionUtils.handleThrowable(e);
-                throw new SQLException(e.getMessage(), e);
-            }
-        }
-
-        Properties props = new Properties();
-        if (connectionName != null)
-            props.put("user", connectionName);
-        if (connectionPassword != null)
-            props.put("password", connectionPassword);
-        dbConnection = driver.connect(connectionURL, props);
-        if (dbConnection == null) {
-            throw new SQLException(driverName, connectionURL);
-        }
-        dbConnection.setAutoCommit(false);
-        return (dbConnection);
-    }
-	
-	protected void close(Connection dbConnection) {
-        if (dbConnection == null)
-            return;
 
-        try {
-            preparedCredentials.close();
-        } catch (Throwable f) {
-            ExceptionUtils.handleThrowable(f);
-        }
-        this.preparedCredentials = null;
-
-        try {
-            preparedRoles.close();
-        } catch (Throwable f) {
-            ExceptionUtils.handleThrowable(f);
-        }
-        this.preparedRoles = null;
+	private JdbcConnectionPool createConnectionPool(Driver driver, String url) {
+		return new JdbcConnectionPool(driver, url, connectionName,
+				connectionPassword, poolMinSize, poolMaxSize, poolAcquireTimeout,
+				poolValidationInterval);
+	}
 
-        try {
-            dbConnection.close();
-        } catch (SQLException e) {
-            log.warn("Error closing connection", e);
-        } finally {
-           this.dbConnection = null;
-        }
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		if (connectionPool instanceof ToXContent) {
+			((ToXContent) connectionPool).toXContent(builder, params);
+		}
+		if (lookupExecutor != null) {
+			lookupExecutor.toXContent(builder, params);
+		}
+		if (verifyExecutor != null) {
+			verifyExecutor.toXContent(builder, params);
+		}
+		if (verifiedCredentialCache != null) {
+			verifiedCredentialCache.toXContent(builder, params);
+		}
+		if (credentialSource instanceof ToXContent) {
+			((ToXContent) credentialSource).toXContent(builder, params);
+		}
+		return builder;
+	}
 
-    }
-	
-	protected PreparedStatement credentials(Connection dbConnection,
-            String username)
-		throws SQLException {
-		
-		if (preparedCredentials == null) {
-			StringBuilder sb = new StringBuilder("SELECT ");
-			sb.append("\"" + userTable + "\"." + userCredCol);
-			sb.append(" FROM ");
-			sb.append("\"public\"." + userTable);
-			sb.append(" WHERE ");
-			sb.append("\"" + userTable + "\"." + userNameCol);
-			sb.append(" = ?");
-			
-			log.info(sb.toString());
-			
-			preparedCredentials = dbConnection.prepareStatement(sb.toString());
+	private JdbcCredentialSource.RoleMapping createRoleMapping() {
+		if (roleTable != null && !roleTable.isEmpty()) {
+			return JdbcCredentialSource.RoleMapping.table(roleTable,
+					roleUserCol != null ? roleUserCol : userNameCol,
+					roleNameCol != null ? roleNameCol : "role");
 		}
-		
-		if (username == null) {
-			preparedCredentials.setNull(1,java.sql.Types.VARCHAR);
-		} else {
-			preparedCredentials.setString(1, username);
+		if (userRolesCol != null && !userRolesCol.isEmpty()) {
+			return JdbcCredentialSource.RoleMapping.column(userRolesCol);
 		}
-		
-		return (preparedCredentials);
+		return null;
+	}
+
+	private static int getInitParameter(FilterConfig filterConfig, String name, int defaultValue) {
+		String value = filterConfig.getInitParameter(name);
+		return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static long getInitParameter(FilterConfig filterConfig, String name, long defaultValue) {
+		String value = filterConfig.getInitParameter(name);
+		return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value.trim());
+	}
+
+	private static String getInitParameter(FilterConfig filterConfig, String name, String defaultValue) {
+		String value = filterConfig.getInitParameter(name);
+		return value == null || value.isEmpty() ? defaultValue : value.trim();
 	}
 		
+    private void sendUnavailable(final HttpServletResponse response) {
+        try {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.flushBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void sendUnauthorized(final HttpServletResponse response, final boolean close) {
         try {
             if (close) {
@@ -333,6 +741,9 @@ public class TokenFilter implements Filter {
             } else {
                 response.setHeader("Connection", "keep-alive");
             }
+            if (basicEnabled) {
+                response.setHeader("WWW-Authenticate", "Basic realm=\"elasticsearch\"");
+            }
             response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
             response.flushBuffer();
         } catch (IOException e) {
@@ -340,4 +751,85 @@ public class TokenFilter implements Filter {
         }
     }
 
+	/**
+	 * Outcome of a lookup or password verification run on an executor, a
+	 * verified password has no token.
+	 */
+	private static final class Lookup {
+
+		private final TokenCodec.Token token;
+
+		private final GenericPrincipal principal;
+
+		private Lookup(TokenCodec.Token token, GenericPrincipal principal) {
+			this.token = token;
+			this.principal = principal;
+		}
+	}
+
+	/**
+	 * Asynchronous request waiting for a lookup. It is finished exactly once,
+	 * by the outcome of the lookup or, if the container times the request
+	 * out first, with 503 Service Unavailable.
+	 */
+	private final class AsyncLookup implements AsyncListener {
+
+		private final HttpServletRequest request;
+
+		private final HttpServletResponse response;
+
+		private final AsyncContext async;
+
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		private AsyncLookup(HttpServletRequest request, HttpServletResponse response) {
+			this.request = request;
+			this.response = response;
+			this.async = request.startAsync();
+			this.async.addListener(this);
+		}
+
+		/**
+		 * Dispatches the request again with the outcome of the lookup, does
+		 * nothing if it has timed out.
+		 */
+		private void dispatch(Lookup lookup) {
+			if (finished.compareAndSet(false, true)) {
+				request.setAttribute(LOOKUP_ATTRIBUTE, lookup);
+				async.dispatch();
+			}
+		}
+
+		private void reject() {
+			if (finished.compareAndSet(false, true)) {
+				sendUnavailable(response);
+				async.complete();
+			}
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			if (finished.get()) {
+				return;
+			}
+			log.warn("Credential lookup of {} timed out", request.getRequestURI());
+			reject();
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) throws IOException {
+			// nothing to clean up
+		}
+
+		@Override
+		public void onError(AsyncEvent event) throws IOException {
+			// the container completes the request
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) throws IOException {
+			// never restarted
+		}
+	}
+
 }
@@ -0,0 +1,28 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link CredentialSource} which is able to look up the credentials of
+ * several users at once.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public interface BatchCredentialSource extends CredentialSource {
+
+	/**
+	 * Returns the credentials of the given users by user name, users which do
+	 * not exist are missing in the result.
+	 *
+	 * @throws CredentialSourceException
+	 *             if the source is not available
+	 */
+	public Map<String, Credential> getCredentials(Collection<String> usernames)
+			throws CredentialSourceException;
+
+}
@@ -0,0 +1,314 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.util.BloomFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the credentials of a {@link CredentialSource}. Known users are
+ * cached for the positive TTL, unknown users for the (shorter) negative TTL.
+ * Entries older than the refresh interval are still served but reloaded in
+ * the background, so frequently authenticating users never wait for the
+ * source. If the source fails, e.g. because its circuit breaker is open,
+ * expired credentials are still served up to the maximum staleness.
+ * <p>
+ * If an {@link EnumerableCredentialSource} is given, a bloom filter of all
+ * user names can be kept. Names which are definitely not contained are still
+ * looked up, as the user may have been created after the last rebuild, and
+ * cached for the negative TTL if unknown. While the source fails, such names
+ * are answered as unknown instead of failing the lookup.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class CachingCredentialSource implements CredentialSource, ToXContent {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(CachingCredentialSource.class);
+
+	private final CredentialSource source;
+
+	private final EnumerableCredentialSource users;
+
+	private final long ttlMillis;
+
+	private final long negativeTtlMillis;
+
+	private final long refreshAfterMillis;
+
+	private final long maxStalenessMillis;
+
+	private final Cache<String, Entry> cache;
+
+	private final ConcurrentMap<String, Boolean> refreshing = new ConcurrentHashMap<String, Boolean>();
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final double bloomFilterFpp;
+
+	private final long bloomFilterRefreshMillis;
+
+	private volatile BloomFilter bloomFilter;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric negativeHits = new CounterMetric();
+
+	private final CounterMetric refreshes = new CounterMetric();
+
+	private final CounterMetric bloomFilterMisses = new CounterMetric();
+
+	private final CounterMetric bloomFilterRejects = new CounterMetric();
+
+	private final CounterMetric staleHits = new CounterMetric();
+
+	/**
+	 * @param users
+	 *            source of the user names of the bloom filter, may be null
+	 * @param refreshAfterMillis
+	 *            entries older than this are reloaded in the background
+	 * @param maxStalenessMillis
+	 *            how long credentials are served past their TTL while the
+	 *            source fails
+	 * @param bloomFilterFpp
+	 *            false positive probability of the bloom filter, 0 disables
+	 *            the bloom filter
+	 * @param bloomFilterRefreshMillis
+	 *            interval in which the bloom filter is rebuilt
+	 */
+	public CachingCredentialSource(CredentialSource source,
+			EnumerableCredentialSource users, long maxSize,
+			long ttlMillis, long negativeTtlMillis, long refreshAfterMillis,
+			long maxStalenessMillis, double bloomFilterFpp,
+			long bloomFilterRefreshMillis) {
+		super();
+		this.source = source;
+		this.users = users;
+		this.ttlMillis = ttlMillis;
+		this.negativeTtlMillis = negativeTtlMillis;
+		this.refreshAfterMillis = Math.min(refreshAfterMillis, ttlMillis);
+		this.maxStalenessMillis = Math.max(maxStalenessMillis, 0);
+		this.bloomFilterFpp = users != null ? bloomFilterFpp : 0;
+		this.bloomFilterRefreshMillis = bloomFilterRefreshMillis;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(Math.max(ttlMillis + this.maxStalenessMillis,
+						negativeTtlMillis), TimeUnit.MILLISECONDS).build();
+		this.executor = new ScheduledThreadPoolExecutor(1,
+				EsExecutors.daemonThreadFactory("security_credentials"));
+	}
+
+	/**
+	 * Builds the bloom filter and schedules its periodic rebuild, if the
+	 * bloom filter is enabled. Until the first build succeeds all names are
+	 * looked up in the source.
+	 */
+	public void start() {
+		if (bloomFilterFpp <= 0) {
+			return;
+		}
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					rebuildBloomFilter();
+				} catch (CredentialSourceException | RuntimeException e) {
+					log.warn("Unable to rebuild bloom filter of user names", e);
+				}
+			}
+		}, 0, bloomFilterRefreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the credentials of the user if they are cached and not expired,
+	 * never looks the user up. Unknown users and users which are not cached
+	 * are both answered with null.
+	 */
+	public Credential getCachedCredential(String username) {
+		final long now = System.currentTimeMillis();
+		final Entry entry = cache.getIfPresent(username);
+		if (entry == null || entry.expires <= now || entry.credential == null) {
+			return null;
+		}
+
+		hit(username, entry, now);
+		return entry.credential;
+	}
+
+	@Override
+	public Credential getCredential(String username)
+			throws CredentialSourceException {
+		final long now = System.currentTimeMillis();
+		final Entry entry = cache.getIfPresent(username);
+
+		if (entry != null && entry.expires > now) {
+			hit(username, entry, now);
+			return entry.credential;
+		}
+
+		final BloomFilter bloomFilter = this.bloomFilter;
+		final boolean unknown = bloomFilter != null
+				&& !bloomFilter.mightContain(new BytesRef(username));
+		if (unknown) {
+			bloomFilterMisses.inc();
+		}
+
+		misses.inc();
+		try {
+			return load(username);
+		} catch (CredentialSourceException e) {
+			if (entry != null && entry.credential != null
+					&& now - entry.expires < maxStalenessMillis) {
+				staleHits.inc();
+				log.debug("Serving stale credentials of {}", username);
+				return entry.credential;
+			}
+			if (unknown) {
+				// no user at the last rebuild, answered as unknown rather
+				// than failing the request
+				bloomFilterRejects.inc();
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Builds the bloom filter of all user names again, does nothing if the
+	 * bloom filter is disabled.
+	 */
+	public void rebuildBloomFilter() throws CredentialSourceException {
+		if (bloomFilterFpp <= 0) {
+			return;
+		}
+
+		final List<String> usernames = users.getUsernames();
+		final BloomFilter bloomFilter = BloomFilter.create(
+				Math.max(usernames.size(), 1), bloomFilterFpp);
+		for (String username : usernames) {
+			bloomFilter.put(new BytesRef(username));
+		}
+		this.bloomFilter = bloomFilter;
+		log.debug("Bloom filter rebuilt with {} users", usernames.size());
+	}
+
+	private void hit(String username, Entry entry, long now) {
+		if (entry.credential == null) {
+			negativeHits.inc();
+		} else {
+			hits.inc();
+			if (entry.refreshAt <= now) {
+				refreshAsync(username);
+			}
+		}
+	}
+
+	private Credential load(String username) throws CredentialSourceException {
+		final Credential credential = source.getCredential(username);
+		final long now = System.currentTimeMillis();
+
+		if (credential == null) {
+			cache.put(username, new Entry(null, now + negativeTtlMillis, Long.MAX_VALUE));
+		} else {
+			cache.put(username, new Entry(credential, now + ttlMillis, now
+					+ refreshAfterMillis));
+		}
+
+		return credential;
+	}
+
+	private void refreshAsync(final String username) {
+		if (refreshing.putIfAbsent(username, Boolean.TRUE) != null) {
+			return;
+		}
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						refreshes.inc();
+						load(username);
+					} catch (CredentialSourceException | RuntimeException e) {
+						// the cached entry is served until it expires
+						log.debug("Unable to refresh credentials of " + username, e);
+					} finally {
+						refreshing.remove(username);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			refreshing.remove(username);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		source.close();
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		final long hitCount = hits.count() + negativeHits.count();
+		final long total = hitCount + misses.count();
+
+		builder.startObject("cache");
+		builder.field("size", cache.size());
+		builder.field("hits", hits.count());
+		builder.field("negative_hits", negativeHits.count());
+		builder.field("misses", misses.count());
+		builder.field("hit_rate", total == 0 ? 0d : (double) hitCount / total);
+		builder.field("stale_hits", staleHits.count());
+		builder.field("refreshes", refreshes.count());
+		builder.field("bloom_filter_enabled", bloomFilter != null);
+		builder.field("bloom_filter_misses", bloomFilterMisses.count());
+		builder.field("bloom_filter_rejects", bloomFilterRejects.count());
+		builder.endObject();
+
+		if (source instanceof ToXContent) {
+			((ToXContent) source).toXContent(builder, params);
+		}
+		return builder;
+	}
+
+	private static final class Entry {
+
+		/**
+		 * null for users which do not exist
+		 */
+		private final Credential credential;
+
+		private final long expires;
+
+		private final long refreshAt;
+
+		private Entry(Credential credential, long expires, long refreshAt) {
+			this.credential = credential;
+			this.expires = expires;
+			this.refreshAt = refreshAt;
+		}
+	}
+
+}
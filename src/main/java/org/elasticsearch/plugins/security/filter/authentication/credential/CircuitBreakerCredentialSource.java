@@ -0,0 +1,193 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Protects a {@link CredentialSource} which is failing. After a number of
+ * consecutive failures the breaker opens and lookups fail at once instead of
+ * waiting for the source. When the open duration has passed a single lookup
+ * is let through (half open), its outcome closes or opens the breaker again.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class CircuitBreakerCredentialSource implements CredentialSource,
+		ToXContent {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(CircuitBreakerCredentialSource.class);
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final CredentialSource source;
+
+	private final int failureThreshold;
+
+	private final long openDurationMillis;
+
+	/**
+	 * State and time of the last transition, replaced as a whole so the
+	 * opening time of an open breaker is always its own
+	 */
+	private final AtomicReference<Status> status = new AtomicReference<Status>(
+			new Status(State.CLOSED, System.currentTimeMillis()));
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	private final CounterMetric opened = new CounterMetric();
+
+	private final CounterMetric rejected = new CounterMetric();
+
+	private final CounterMetric failures = new CounterMetric();
+
+	/**
+	 * @param failureThreshold
+	 *            number of consecutive failures which open the breaker
+	 * @param openDurationMillis
+	 *            how long the breaker stays open before a lookup is tried
+	 */
+	public CircuitBreakerCredentialSource(CredentialSource source,
+			int failureThreshold, long openDurationMillis) {
+		super();
+		this.source = source;
+		this.failureThreshold = Math.max(failureThreshold, 1);
+		this.openDurationMillis = openDurationMillis;
+	}
+
+	@Override
+	public Credential getCredential(String username)
+			throws CredentialSourceException {
+		final Status current = status.get();
+
+		if (current.state == State.OPEN) {
+			if (System.currentTimeMillis() - current.since < openDurationMillis
+					|| !transition(current, State.HALF_OPEN)) {
+				rejected.inc();
+				throw new CredentialSourceException(
+						"Credential source unavailable, circuit breaker is open");
+			}
+		} else if (current.state == State.HALF_OPEN) {
+			// only the trial lookup is let through
+			rejected.inc();
+			throw new CredentialSourceException(
+					"Credential source unavailable, circuit breaker is half open");
+		}
+
+		// any outcome but a result, errors included, counts as failure
+		final boolean trial = current.state == State.OPEN;
+		boolean success = false;
+		try {
+			final Credential credential = source.getCredential(username);
+			success = true;
+			onSuccess(trial);
+			return credential;
+		} finally {
+			if (!success) {
+				onFailure(trial);
+			}
+		}
+	}
+
+	private void onSuccess(boolean trial) {
+		consecutiveFailures.set(0);
+		if (trial) {
+			transition(State.HALF_OPEN, State.CLOSED);
+		}
+	}
+
+	private void onFailure(boolean trial) {
+		failures.inc();
+		final int count = consecutiveFailures.incrementAndGet();
+
+		if (trial) {
+			open(State.HALF_OPEN);
+		} else if (count >= failureThreshold) {
+			open(State.CLOSED);
+		}
+	}
+
+	/**
+	 * Opens the breaker if it is in the given state. Failures of lookups
+	 * which were in flight when it opened neither change the state nor the
+	 * opening time.
+	 */
+	private void open(State from) {
+		if (transition(from, State.OPEN)) {
+			opened.inc();
+		}
+	}
+
+	private boolean transition(State from, State to) {
+		final Status current = status.get();
+		return current.state == from && transition(current, to);
+	}
+
+	private boolean transition(Status from, State to) {
+		if (!status.compareAndSet(from, new Status(to, System.currentTimeMillis()))) {
+			return false;
+		}
+
+		if (to == State.OPEN) {
+			log.warn("Circuit breaker of credential source opened after {} consecutive failures",
+					consecutiveFailures.get());
+		} else {
+			log.info("Circuit breaker of credential source changed from {} to {}",
+					from.state, to);
+		}
+		return true;
+	}
+
+	public State getState() {
+		return status.get().state;
+	}
+
+	@Override
+	public void close() {
+		source.close();
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		final Status current = status.get();
+		builder.startObject("breaker");
+		builder.field("state", current.state.name().toLowerCase());
+		builder.field("last_transition", current.since);
+		builder.field("consecutive_failures", consecutiveFailures.get());
+		builder.field("failures", failures.count());
+		builder.field("opened", opened.count());
+		builder.field("rejected", rejected.count());
+		builder.endObject();
+
+		if (source instanceof ToXContent) {
+			((ToXContent) source).toXContent(builder, params);
+		}
+		return builder;
+	}
+
+	private static final class Status {
+
+		private final State state;
+
+		private final long since;
+
+		private Status(State state, long since) {
+			this.state = state;
+			this.since = since;
+		}
+	}
+
+}
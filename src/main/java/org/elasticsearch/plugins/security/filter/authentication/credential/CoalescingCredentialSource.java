@@ -0,0 +1,238 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Coalesces concurrent lookups of a {@link BatchCredentialSource}. Threads
+ * looking up the same user while a lookup of that user is in flight wait for
+ * its result instead of querying the source again. Lookups of different users
+ * arriving within the batch window are combined into one
+ * {@link BatchCredentialSource#getCredentials(java.util.Collection)} call,
+ * which is run by one of the waiting threads. Threads waiting for a lookup
+ * run by another thread give up after the lookup timeout.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class CoalescingCredentialSource implements CredentialSource,
+		ToXContent {
+
+	private final BatchCredentialSource source;
+
+	private final long windowNanos;
+
+	private final int maxBatchSize;
+
+	private final long timeoutNanos;
+
+	private final ConcurrentMap<String, Lookup> inFlight = new ConcurrentHashMap<String, Lookup>();
+
+	private final ConcurrentLinkedQueue<Lookup> queue = new ConcurrentLinkedQueue<Lookup>();
+
+	private final CounterMetric lookups = new CounterMetric();
+
+	private final CounterMetric coalesced = new CounterMetric();
+
+	private final CounterMetric batches = new CounterMetric();
+
+	/**
+	 * @param windowMillis
+	 *            how long a lookup waits for other lookups to join its batch
+	 * @param maxBatchSize
+	 *            maximum number of users looked up at once
+	 * @param timeoutMillis
+	 *            how long a lookup waits for the thread running its batch
+	 */
+	public CoalescingCredentialSource(BatchCredentialSource source,
+			long windowMillis, int maxBatchSize, long timeoutMillis) {
+		super();
+		this.source = source;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(windowMillis, 0));
+		this.maxBatchSize = Math.max(maxBatchSize, 1);
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 1));
+	}
+
+	@Override
+	public Credential getCredential(String username)
+			throws CredentialSourceException {
+		lookups.inc();
+
+		final Lookup lookup = new Lookup(username);
+		final Lookup existing = inFlight.putIfAbsent(username, lookup);
+		if (existing != null) {
+			coalesced.inc();
+			return existing.await(timeoutNanos);
+		}
+
+		queue.add(lookup);
+
+		// completes early if another thread took the lookup into its batch
+		if (windowNanos > 0) {
+			lookup.awaitWindow(windowNanos);
+		}
+
+		// the lookup may be queued behind more than one batch, an empty queue
+		// means another thread is running it
+		while (!lookup.isDone()) {
+			final List<Lookup> batch = drain();
+			if (batch.isEmpty()) {
+				break;
+			}
+			run(batch);
+		}
+
+		return lookup.await(timeoutNanos);
+	}
+
+	private List<Lookup> drain() {
+		final List<Lookup> batch = new ArrayList<Lookup>();
+		Lookup lookup;
+		while (batch.size() < maxBatchSize && (lookup = queue.poll()) != null) {
+			batch.add(lookup);
+		}
+		return batch;
+	}
+
+	private void run(List<Lookup> batch) {
+		batches.inc();
+
+		try {
+			final List<String> usernames = new ArrayList<String>(batch.size());
+			for (Lookup lookup : batch) {
+				usernames.add(lookup.username);
+			}
+
+			final Map<String, Credential> credentials = source
+					.getCredentials(usernames);
+
+			for (Lookup lookup : batch) {
+				lookup.complete(credentials.get(lookup.username), null);
+			}
+		} catch (CredentialSourceException e) {
+			for (Lookup lookup : batch) {
+				lookup.complete(null, e);
+			}
+		} catch (RuntimeException e) {
+			final CredentialSourceException failure = new CredentialSourceException(
+					"Unable to retrieve credentials", e);
+			for (Lookup lookup : batch) {
+				lookup.complete(null, failure);
+			}
+		} finally {
+			// an error leaves the lookups incomplete, their waiters must not
+			// block forever
+			CredentialSourceException failure = null;
+			for (Lookup lookup : batch) {
+				if (!lookup.isDone()) {
+					if (failure == null) {
+						failure = new CredentialSourceException(
+								"Lookup of credentials aborted");
+					}
+					lookup.complete(null, failure);
+				}
+				inFlight.remove(lookup.username, lookup);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		source.close();
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		builder.startObject("lookups");
+		builder.field("total", lookups.count());
+		builder.field("coalesced", coalesced.count());
+		builder.field("batches", batches.count());
+		builder.field("in_flight", inFlight.size());
+		builder.endObject();
+		return builder;
+	}
+
+	/**
+	 * A lookup of one user, completed once by the thread running its batch.
+	 */
+	private static final class Lookup {
+
+		private final String username;
+
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private volatile Credential credential;
+
+		private volatile CredentialSourceException failure;
+
+		private Lookup(String username) {
+			this.username = username;
+		}
+
+		private void complete(Credential credential,
+				CredentialSourceException failure) {
+			this.credential = credential;
+			this.failure = failure;
+			done.countDown();
+		}
+
+		private boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/**
+		 * Waits for other lookups to join the batch, the lookup is still
+		 * queued afterwards, so an interrupt must not abandon it.
+		 */
+		private void awaitWindow(long timeoutNanos) {
+			try {
+				done.await(timeoutNanos, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private Credential await(long timeoutNanos)
+				throws CredentialSourceException {
+			if (isDone()) {
+				return result();
+			}
+
+			try {
+				if (!done.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+					throw new CredentialSourceException(
+							"Timeout waiting for credentials of " + username);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CredentialSourceException(
+						"Interrupted while waiting for credentials of "
+								+ username, e);
+			}
+			return result();
+		}
+
+		private Credential result() throws CredentialSourceException {
+			if (failure != null) {
+				throw failure;
+			}
+			return credential;
+		}
+	}
+
+}
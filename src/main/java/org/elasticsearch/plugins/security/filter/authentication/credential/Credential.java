@@ -0,0 +1,56 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The stored credential and the roles of a user. Instances are immutable.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class Credential {
+
+	private final String username;
+
+	private final String password;
+
+	private final Set<String> roles;
+
+	public Credential(String username, String password) {
+		this(username, password, null);
+	}
+
+	public Credential(String username, String password,
+			Collection<String> roles) {
+		super();
+		this.username = username;
+		this.password = password;
+		this.roles = roles == null || roles.isEmpty() ? Collections
+				.<String> emptySet() : Collections
+				.unmodifiableSet(new HashSet<String>(roles));
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public Set<String> getRoles() {
+		return roles;
+	}
+
+	@Override
+	public String toString() {
+		return "Credential [username=" + username + ", roles=" + roles + "]";
+	}
+
+}
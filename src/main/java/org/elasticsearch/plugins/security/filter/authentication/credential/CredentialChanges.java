@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.util.List;
+
+/**
+ * Users returned by {@link ReplicableCredentialSource#getChanges(long)}
+ * together with the watermark to request the next changes with.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class CredentialChanges {
+
+	private final List<Credential> credentials;
+
+	private final long watermark;
+
+	private final boolean complete;
+
+	/**
+	 * @param complete
+	 *            true if the credentials are all users of the source
+	 */
+	public CredentialChanges(List<Credential> credentials, long watermark,
+			boolean complete) {
+		super();
+		this.credentials = credentials;
+		this.watermark = watermark;
+		this.complete = complete;
+	}
+
+	public List<Credential> getCredentials() {
+		return credentials;
+	}
+
+	public long getWatermark() {
+		return watermark;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+}
@@ -0,0 +1,312 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.plugins.security.filter.authentication.util.PasswordVerifier;
+
+/**
+ * Read-only snapshot of a user table in a memory-mapped file. The file is an
+ * open addressing hash table:
+ *
+ * <pre>
+ * magic (4) | version (4) | count (4) | slots (4) | watermark (8)
+ * slot: hash (4) | record offset (4), offset 0 marks an empty slot
+ * record: name length (4) | name | password length (4) | password
+ *         | role count (4) | role length (4) | role ...
+ * </pre>
+ *
+ * Names, passwords and roles are UTF-8. Passwords are stored as verifiers
+ * only, plain text passwords are replaced by
+ * {@link PasswordVerifier#toVerifier(String)}, and the file is only readable
+ * by its owner. A lookup probes the slots linearly and only compares the
+ * names of records with the same hash, nothing is read into the heap but the
+ * matching record.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class CredentialSnapshot {
+
+	private static final int MAGIC = 0x53435244;
+
+	private static final int VERSION = 3;
+
+	private static final int HEADER_LENGTH = 24;
+
+	private static final int SLOT_LENGTH = 8;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions
+			.fromString("rw-------");
+
+	private static final CredentialSnapshot EMPTY = new CredentialSnapshot(
+			null, 0, 0, Long.MIN_VALUE);
+
+	private final MappedByteBuffer buffer;
+
+	private final int count;
+
+	private final int slots;
+
+	private final long watermark;
+
+	private CredentialSnapshot(MappedByteBuffer buffer, int count, int slots,
+			long watermark) {
+		this.buffer = buffer;
+		this.count = count;
+		this.slots = slots;
+		this.watermark = watermark;
+	}
+
+	/**
+	 * Returns a snapshot without users.
+	 */
+	public static CredentialSnapshot empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Maps the given snapshot file.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read or is not a snapshot
+	 */
+	public static CredentialSnapshot open(File file) throws IOException {
+		final MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			// the mapping stays valid after the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+					raf.length());
+		}
+
+		if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != MAGIC
+				|| buffer.getInt(4) != VERSION) {
+			throw new IOException(file + " is not a credential snapshot");
+		}
+
+		final int count = buffer.getInt(8);
+		final int slots = buffer.getInt(12);
+		if (Integer.bitCount(slots) != 1
+				|| HEADER_LENGTH + (long) slots * SLOT_LENGTH > buffer.capacity()) {
+			throw new IOException(file + " is corrupt");
+		}
+
+		return new CredentialSnapshot(buffer, count, slots, buffer.getLong(16));
+	}
+
+	/**
+	 * Writes a snapshot of the given credentials, the file is replaced
+	 * atomically, so readers never see a partially written snapshot. The
+	 * file is created owner-only on file systems supporting POSIX
+	 * permissions.
+	 */
+	public static void write(File file, Collection<Credential> credentials,
+			long watermark) throws IOException {
+		int slots = 16;
+		while (slots < credentials.size() * 2) {
+			slots <<= 1;
+		}
+
+		final List<byte[]> names = new ArrayList<byte[]>(credentials.size());
+		final List<byte[]> passwords = new ArrayList<byte[]>(
+				credentials.size());
+		final List<byte[][]> roles = new ArrayList<byte[][]>(
+				credentials.size());
+		long length = HEADER_LENGTH + (long) slots * SLOT_LENGTH;
+		for (Credential credential : credentials) {
+			final byte[] name = credential.getUsername().getBytes(UTF_8);
+			final byte[] password = PasswordVerifier.toVerifier(
+					credential.getPassword()).getBytes(UTF_8);
+			final byte[][] userRoles = new byte[credential.getRoles().size()][];
+			int j = 0;
+			for (String role : credential.getRoles()) {
+				userRoles[j] = role.getBytes(UTF_8);
+				length += 4 + userRoles[j].length;
+				j++;
+			}
+			names.add(name);
+			passwords.add(password);
+			roles.add(userRoles);
+			length += 12 + name.length + password.length;
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Too many users for a credential snapshot");
+		}
+
+		final ByteBuffer out = ByteBuffer.allocate((int) length);
+		out.putInt(MAGIC).putInt(VERSION).putInt(credentials.size())
+				.putInt(slots).putLong(watermark);
+
+		int offset = HEADER_LENGTH + slots * SLOT_LENGTH;
+		int i = 0;
+		for (Credential credential : credentials) {
+			final int hash = hash(credential.getUsername());
+			int slot = hash & (slots - 1);
+			while (out.getInt(slotPosition(slot) + 4) != 0) {
+				slot = (slot + 1) & (slots - 1);
+			}
+			out.putInt(slotPosition(slot), hash);
+			out.putInt(slotPosition(slot) + 4, offset);
+
+			final byte[] name = names.get(i);
+			final byte[] password = passwords.get(i);
+			out.position(offset);
+			out.putInt(name.length).put(name).putInt(password.length)
+					.put(password);
+			out.putInt(roles.get(i).length);
+			for (byte[] role : roles.get(i)) {
+				out.putInt(role.length).put(role);
+			}
+			offset = out.position();
+			i++;
+		}
+		out.rewind();
+
+		final Path tmp = new File(file.getPath() + ".tmp").toPath();
+		// the permissions only apply to a new file
+		Files.deleteIfExists(tmp);
+		try (FileChannel channel = createOwnerOnly(tmp)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			channel.force(true);
+		}
+
+		Files.move(tmp, file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static FileChannel createOwnerOnly(Path path) throws IOException {
+		final Set<StandardOpenOption> options = EnumSet.of(
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		try {
+			return FileChannel.open(path, options, PosixFilePermissions
+					.asFileAttribute(OWNER_ONLY));
+		} catch (UnsupportedOperationException e) {
+			// no POSIX permissions, e.g. on Windows the file inherits the
+			// access control list of the data directory
+			return FileChannel.open(path, options);
+		}
+	}
+
+	/**
+	 * Returns the credential of the user, or null if the snapshot does not
+	 * contain the user.
+	 */
+	public Credential get(String username) {
+		if (count == 0) {
+			return null;
+		}
+
+		final int hash = hash(username);
+		final byte[] name = username.getBytes(UTF_8);
+
+		for (int slot = hash & (slots - 1);; slot = (slot + 1) & (slots - 1)) {
+			final int offset = buffer.getInt(slotPosition(slot) + 4);
+			if (offset == 0) {
+				return null;
+			}
+			if (buffer.getInt(slotPosition(slot)) == hash
+					&& nameEquals(offset, name)) {
+				return readCredential(offset, username);
+			}
+		}
+	}
+
+	/**
+	 * Returns all credentials of the snapshot.
+	 */
+	public List<Credential> getAll() {
+		final List<Credential> credentials = new ArrayList<Credential>(count);
+		for (int slot = 0; slot < slots && count > 0; slot++) {
+			final int offset = buffer.getInt(slotPosition(slot) + 4);
+			if (offset != 0) {
+				credentials.add(readCredential(offset, readString(offset)));
+			}
+		}
+		return credentials;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the watermark of the last change contained in the snapshot.
+	 */
+	public long getWatermark() {
+		return watermark;
+	}
+
+	private boolean nameEquals(int offset, byte[] name) {
+		if (buffer.getInt(offset) != name.length) {
+			return false;
+		}
+		for (int i = 0; i < name.length; i++) {
+			if (buffer.get(offset + 4 + i) != name[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private Credential readCredential(int offset, String username) {
+		final int passwordOffset = offset + 4 + buffer.getInt(offset);
+		final String password = readString(passwordOffset);
+
+		int roleOffset = passwordOffset + 4 + buffer.getInt(passwordOffset);
+		final int roleCount = buffer.getInt(roleOffset);
+		roleOffset += 4;
+		if (roleCount == 0) {
+			return new Credential(username, password);
+		}
+
+		final List<String> roles = new ArrayList<String>(roleCount);
+		for (int i = 0; i < roleCount; i++) {
+			roles.add(readString(roleOffset));
+			roleOffset += 4 + buffer.getInt(roleOffset);
+		}
+		return new Credential(username, password, roles);
+	}
+
+	private String readString(int offset) {
+		final byte[] bytes = new byte[buffer.getInt(offset)];
+		// absolute reads on a duplicate, lookups run concurrently
+		final ByteBuffer view = buffer.duplicate();
+		view.position(offset + 4);
+		view.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static int slotPosition(int slot) {
+		return HEADER_LENGTH + slot * SLOT_LENGTH;
+	}
+
+	private static int hash(String username) {
+		final int h = username.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+}
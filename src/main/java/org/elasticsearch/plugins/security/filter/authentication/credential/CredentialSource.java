@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+/**
+ * Looks up the stored credentials of users, e.g. in a database.
+ * Implementations must be thread safe.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public interface CredentialSource {
+
+	/**
+	 * Returns the credential of the given user, or null if there is no such
+	 * user.
+	 *
+	 * @throws CredentialSourceException
+	 *             if the source is not available
+	 */
+	public Credential getCredential(String username)
+			throws CredentialSourceException;
+
+	/**
+	 * Releases all resources held by this source.
+	 */
+	public void close();
+
+}
@@ -0,0 +1,26 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+/**
+ * Thrown if a {@link CredentialSource} is not able to look up credentials,
+ * as opposed to a user which does not exist.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class CredentialSourceException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public CredentialSourceException(final String message) {
+		super(message);
+	}
+
+	public CredentialSourceException(final String message,
+			final Throwable cause) {
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,21 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.util.List;
+
+/**
+ * A {@link CredentialSource} which is able to list all of its users.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public interface EnumerableCredentialSource extends CredentialSource {
+
+	/**
+	 * Returns the names of all users.
+	 */
+	public List<String> getUsernames() throws CredentialSourceException;
+
+}
@@ -0,0 +1,30 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+/**
+ * A {@link CredentialSource} which is able to hand out its users for
+ * replication into a local snapshot, optionally only the users changed since
+ * a watermark.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public interface ReplicableCredentialSource extends CredentialSource {
+
+	/**
+	 * Returns true if {@link #getChanges(long)} is able to return only the
+	 * users changed since a watermark.
+	 */
+	public boolean isIncremental();
+
+	/**
+	 * Returns the users changed at or after the given watermark, all users
+	 * if the watermark is {@link Long#MIN_VALUE} or the source is not
+	 * incremental. Deleted users are only detected by a full replication.
+	 */
+	public CredentialChanges getChanges(long watermark)
+			throws CredentialSourceException;
+
+}
@@ -0,0 +1,202 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.filter.authentication.util.PasswordVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Authenticates against a local {@link CredentialSnapshot} of a
+ * {@link ReplicableCredentialSource}, lookups never wait for the source.
+ * <p>
+ * The snapshot is replicated in the background, incrementally if the source
+ * supports it and completely every full sync interval, which also removes
+ * deleted users. Each sync writes a new snapshot file and swaps it in
+ * atomically. On startup the last snapshot file is used right away, only if
+ * there is none the first sync is done before the source is used.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class SnapshotCredentialSource implements CredentialSource, ToXContent {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(SnapshotCredentialSource.class);
+
+	private final ReplicableCredentialSource source;
+
+	private final File file;
+
+	private final long syncIntervalMillis;
+
+	private final long fullSyncIntervalMillis;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private volatile CredentialSnapshot snapshot = CredentialSnapshot.empty();
+
+	private volatile long lastSync;
+
+	private long lastFullSync;
+
+	private final CounterMetric syncs = new CounterMetric();
+
+	private final CounterMetric fullSyncs = new CounterMetric();
+
+	private final CounterMetric syncFailures = new CounterMetric();
+
+	public SnapshotCredentialSource(ReplicableCredentialSource source,
+			File file, long syncIntervalMillis, long fullSyncIntervalMillis) {
+		super();
+		this.source = source;
+		this.file = file;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.fullSyncIntervalMillis = fullSyncIntervalMillis;
+		this.executor = new ScheduledThreadPoolExecutor(1,
+				EsExecutors.daemonThreadFactory("security_snapshot"));
+	}
+
+	/**
+	 * Loads the last snapshot and schedules the replication.
+	 */
+	public void start() {
+		final File directory = file.getAbsoluteFile().getParentFile();
+		if (directory != null && !directory.exists() && !directory.mkdirs()) {
+			log.warn("Unable to create directory {}", directory);
+		}
+
+		if (file.exists()) {
+			try {
+				snapshot = CredentialSnapshot.open(file);
+				log.info("Loaded snapshot of {} users from {}", snapshot.size(),
+						file);
+			} catch (IOException e) {
+				log.warn("Unable to load snapshot " + file
+						+ ", doing a full sync", e);
+			}
+		}
+
+		// a loaded snapshot may be stale, it is brought up to date in the
+		// background by an immediate full sync
+		long initialDelay = 0;
+		if (snapshot.size() == 0) {
+			syncQuietly();
+			initialDelay = syncIntervalMillis;
+		}
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				syncQuietly();
+			}
+		}, initialDelay, syncIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Credential getCredential(String username) {
+		return snapshot.get(username);
+	}
+
+	/**
+	 * Replicates the changes of the source into a new snapshot.
+	 */
+	public synchronized void sync() throws CredentialSourceException,
+			IOException {
+		final long now = System.currentTimeMillis();
+		final CredentialSnapshot current = snapshot;
+		final boolean full = !source.isIncremental()
+				|| current.getWatermark() == Long.MIN_VALUE
+				|| now - lastFullSync >= fullSyncIntervalMillis;
+
+		final CredentialChanges changes = source.getChanges(full ? Long.MIN_VALUE
+				: current.getWatermark());
+
+		final Map<String, Credential> credentials = new LinkedHashMap<String, Credential>();
+		if (!changes.isComplete()) {
+			// changes at the watermark itself are returned again every time
+			if (!containsChanges(current, changes)) {
+				lastSync = now;
+				syncs.inc();
+				return;
+			}
+			for (Credential credential : current.getAll()) {
+				credentials.put(credential.getUsername(), credential);
+			}
+		}
+		for (Credential credential : changes.getCredentials()) {
+			credentials.put(credential.getUsername(), credential);
+		}
+
+		CredentialSnapshot.write(file, credentials.values(),
+				changes.getWatermark());
+		snapshot = CredentialSnapshot.open(file);
+
+		lastSync = now;
+		syncs.inc();
+		if (changes.isComplete()) {
+			lastFullSync = now;
+			fullSyncs.inc();
+		}
+		log.debug("Synced snapshot of {} users", snapshot.size());
+	}
+
+	private static boolean containsChanges(CredentialSnapshot current,
+			CredentialChanges changes) {
+		if (changes.getWatermark() != current.getWatermark()) {
+			return true;
+		}
+		for (Credential credential : changes.getCredentials()) {
+			final Credential existing = current.get(credential.getUsername());
+			if (existing == null
+					|| !PasswordVerifier.isVerifierOf(existing.getPassword(),
+							credential.getPassword())
+					|| !existing.getRoles().equals(credential.getRoles())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void syncQuietly() {
+		try {
+			sync();
+		} catch (CredentialSourceException | IOException | RuntimeException e) {
+			syncFailures.inc();
+			log.warn("Unable to sync user snapshot, keeping the last one", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		source.close();
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		builder.startObject("snapshot");
+		builder.field("users", snapshot.size());
+		builder.field("watermark", snapshot.getWatermark());
+		builder.field("last_sync", lastSync);
+		builder.field("syncs", syncs.count());
+		builder.field("full_syncs", fullSyncs.count());
+		builder.field("sync_failures", syncFailures.count());
+		builder.endObject();
+		return builder;
+	}
+
+}
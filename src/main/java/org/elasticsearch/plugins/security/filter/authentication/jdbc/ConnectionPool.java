@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import java.sql.SQLException;
+
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool.PooledConnection;
+
+/**
+ * Hands out the connections credentials are looked up on.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public interface ConnectionPool {
+
+	/**
+	 * Opens the initial connections.
+	 */
+	void start() throws SQLException;
+
+	/**
+	 * Returns a connection which must be given back by
+	 * {@link #release(PooledConnection)}.
+	 */
+	PooledConnection acquire() throws SQLException;
+
+	/**
+	 * Gives a connection back to the pool, broken connections are closed.
+	 */
+	void release(PooledConnection connection);
+
+	void close();
+
+}
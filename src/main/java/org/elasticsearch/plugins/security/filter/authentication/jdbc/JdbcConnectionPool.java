@@ -0,0 +1,263 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pool of JDBC connections. At most <code>maxSize</code>
+ * connections are handed out at a time, callers wait at most the
+ * acquisition timeout for one to become free. Idle connections are reused
+ * most recently used first and validated before reuse if they have been idle
+ * longer than the validation interval. Every connection caches the
+ * statements prepared on it.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class JdbcConnectionPool implements ConnectionPool {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(JdbcConnectionPool.class);
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	private final Driver driver;
+
+	private final String url;
+
+	private final Properties properties;
+
+	private final int minSize;
+
+	private final long acquireTimeoutMillis;
+
+	private final long validationIntervalMillis;
+
+	private final Semaphore permits;
+
+	private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+
+	private volatile boolean closed;
+
+	public JdbcConnectionPool(Driver driver, String url, String user,
+			String password, int minSize, int maxSize,
+			long acquireTimeoutMillis, long validationIntervalMillis) {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size min "
+					+ minSize + " max " + maxSize);
+		}
+
+		this.driver = driver;
+		this.url = url;
+		this.properties = new Properties();
+		if (user != null) {
+			properties.put("user", user);
+		}
+		if (password != null) {
+			properties.put("password", password);
+		}
+		this.minSize = minSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.validationIntervalMillis = validationIntervalMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Opens the minimum number of connections.
+	 */
+	@Override
+	public void start() throws SQLException {
+		for (int i = idle.size(); i < minSize; i++) {
+			idle.push(open());
+		}
+	}
+
+	/**
+	 * Returns a connection which must be given back by
+	 * {@link #release(PooledConnection)}.
+	 */
+	@Override
+	public PooledConnection acquire() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLTransientConnectionException(
+						"Timeout waiting for a connection to " + url);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException(
+					"Interrupted while waiting for a connection to " + url, e);
+		}
+
+		try {
+			PooledConnection connection;
+			while ((connection = idle.poll()) != null) {
+				if (isUsable(connection)) {
+					return connection;
+				}
+				connection.close();
+			}
+			return open();
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool, broken connections are closed.
+	 */
+	@Override
+	public void release(PooledConnection connection) {
+		if (connection == null) {
+			return;
+		}
+
+		try {
+			if (connection.isBroken() || closed) {
+				connection.close();
+			} else {
+				connection.lastUsed = System.currentTimeMillis();
+				idle.push(connection);
+			}
+		} finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		PooledConnection connection;
+		while ((connection = idle.poll()) != null) {
+			connection.close();
+		}
+	}
+
+	private boolean isUsable(PooledConnection connection) {
+		if (System.currentTimeMillis() - connection.lastUsed < validationIntervalMillis) {
+			return true;
+		}
+
+		try {
+			return connection.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			log.debug("Validation of pooled connection failed", e);
+			return false;
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		final Connection connection = driver.connect(url, properties);
+		if (connection == null) {
+			throw new SQLException("Driver " + driver.getClass().getName()
+					+ " does not accept " + url);
+		}
+		connection.setAutoCommit(false);
+		return new PooledConnection(connection);
+	}
+
+	/**
+	 * A connection of the pool together with the statements prepared on it.
+	 */
+	public static final class PooledConnection {
+
+		private final Connection connection;
+
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+		private long lastUsed = System.currentTimeMillis();
+
+		private boolean broken;
+
+		private SQLException failure;
+
+		private PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		public Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Returns the statement for the given sql, it is only prepared once
+		 * per connection.
+		 */
+		public PreparedStatement prepareStatement(String sql)
+				throws SQLException {
+			PreparedStatement statement = statements.get(sql);
+			if (statement == null) {
+				statement = connection.prepareStatement(sql);
+				statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		/**
+		 * Marks the connection to be closed instead of reused, e.g. after an
+		 * SQL error.
+		 */
+		public void markBroken() {
+			broken = true;
+		}
+
+		/**
+		 * Marks the connection to be closed instead of reused because of the
+		 * given error.
+		 */
+		public void markBroken(SQLException cause) {
+			broken = true;
+			failure = cause;
+		}
+
+		public boolean isBroken() {
+			return broken;
+		}
+
+		/**
+		 * Returns the error the connection has been marked broken for, or
+		 * null if it is unknown.
+		 */
+		public SQLException getFailure() {
+			return failure;
+		}
+
+		private void close() {
+			for (PreparedStatement statement : statements.values()) {
+				try {
+					statement.close();
+				} catch (SQLException e) {
+					log.debug("Error closing statement", e);
+				}
+			}
+			statements.clear();
+
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.warn("Error closing connection", e);
+			}
+		}
+	}
+
+}
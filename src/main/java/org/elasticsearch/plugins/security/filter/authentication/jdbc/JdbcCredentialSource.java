@@ -0,0 +1,484 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.plugins.security.filter.authentication.credential.BatchCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.Credential;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialChanges;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSourceException;
+import org.elasticsearch.plugins.security.filter.authentication.credential.EnumerableCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.ReplicableCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool.PooledConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Looks up credentials in the user table through a {@link ConnectionPool},
+ * so concurrent lookups run on different connections. Several users are looked up with one <code>IN</code> query.
+ * If a modification column is given, users are replicated incrementally.
+ * Roles are read by the same queries, from a column of the user table or
+ * from a role table joined to it. Changes of a role table do not touch the
+ * modification column, so users with a role table are always replicated
+ * completely.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class JdbcCredentialSource implements BatchCredentialSource,
+		EnumerableCredentialSource, ReplicableCredentialSource {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(JdbcCredentialSource.class);
+
+	private static final int NUMBER_OF_TRIES = 2;
+
+	private final ConnectionPool pool;
+
+	private final String userTable;
+
+	private final String userNameCol;
+
+	private final String userModifiedCol;
+
+	private final RoleMapping roleMapping;
+
+	/**
+	 * columns and tables of all credential queries, without condition
+	 */
+	private final String selectCredentials;
+
+	private final int rolesIndex;
+
+	private final int modifiedIndex;
+
+	private final String credentialsQuery;
+
+	/**
+	 * IN queries by the binary logarithm of their number of parameters,
+	 * racing threads build the same string
+	 */
+	private final String[] batchQueries = new String[16];
+
+	private final String usernamesQuery;
+
+	private final String allCredentialsQuery;
+
+	private final String changedCredentialsQuery;
+
+	public JdbcCredentialSource(ConnectionPool pool, String userTable,
+			String userNameCol, String userCredCol) {
+		this(pool, userTable, userNameCol, userCredCol, null);
+	}
+
+	/**
+	 * @param userModifiedCol
+	 *            timestamp column of the last change of a user, may be null
+	 */
+	public JdbcCredentialSource(ConnectionPool pool, String userTable,
+			String userNameCol, String userCredCol, String userModifiedCol) {
+		this(pool, userTable, userNameCol, userCredCol, userModifiedCol, null);
+	}
+
+	/**
+	 * @param userModifiedCol
+	 *            timestamp column of the last change of a user, may be null,
+	 *            ignored with a role table
+	 * @param roleMapping
+	 *            where the roles of the users are stored, null if users have
+	 *            no roles
+	 */
+	public JdbcCredentialSource(ConnectionPool pool, String userTable,
+			String userNameCol, String userCredCol, String userModifiedCol,
+			RoleMapping roleMapping) {
+		super();
+		this.pool = pool;
+		this.userTable = userTable;
+		this.userNameCol = userNameCol;
+		this.userModifiedCol = userModifiedCol == null
+				|| userModifiedCol.isEmpty() ? null : userModifiedCol;
+
+		this.roleMapping = roleMapping;
+
+		StringBuilder sb = new StringBuilder("SELECT ");
+		sb.append("\"" + userTable + "\"." + userNameCol);
+		sb.append(", ");
+		sb.append("\"" + userTable + "\"." + userCredCol);
+		int index = 3;
+		if (roleMapping != null) {
+			sb.append(", ");
+			sb.append(roleMapping.getSelectColumn(userTable));
+			this.rolesIndex = index++;
+		} else {
+			this.rolesIndex = -1;
+		}
+		if (this.userModifiedCol != null) {
+			sb.append(", ");
+			sb.append("\"" + userTable + "\"." + this.userModifiedCol);
+			this.modifiedIndex = index++;
+		} else {
+			this.modifiedIndex = -1;
+		}
+		sb.append(" FROM ");
+		sb.append("\"public\"." + userTable);
+		if (roleMapping != null) {
+			sb.append(roleMapping.getJoin(userTable, userNameCol));
+		}
+		this.selectCredentials = sb.toString();
+
+		this.credentialsQuery = buildCredentialsQuery(1);
+		log.info(credentialsQuery);
+
+		this.usernamesQuery = "SELECT \"" + userTable + "\"." + userNameCol
+				+ " FROM \"public\"." + userTable;
+
+		this.allCredentialsQuery = selectCredentials;
+
+		if (this.userModifiedCol != null && roleMapping != null
+				&& roleMapping.roleTable != null) {
+			log.warn("Role table " + roleMapping.roleTable
+					+ " has no modification column, users are always replicated completely");
+			this.changedCredentialsQuery = null;
+		} else if (this.userModifiedCol != null) {
+			sb = new StringBuilder(selectCredentials);
+			sb.append(" WHERE ");
+			sb.append("\"" + userTable + "\"." + this.userModifiedCol);
+			sb.append(" >= ?");
+			this.changedCredentialsQuery = sb.toString();
+		} else {
+			this.changedCredentialsQuery = null;
+		}
+	}
+
+	@Override
+	public Credential getCredential(String username)
+			throws CredentialSourceException {
+		return getCredentials(Collections.singletonList(username)).get(
+				username);
+	}
+
+	@Override
+	public Map<String, Credential> getCredentials(Collection<String> usernames)
+			throws CredentialSourceException {
+		if (usernames.isEmpty()) {
+			return Collections.emptyMap();
+		}
+
+		final List<String> names = new ArrayList<String>(usernames);
+		final String query = getCredentialsQuery(names.size());
+		SQLException failure = null;
+
+		// a broken connection is dropped and the lookup is tried again on
+		// another one
+		for (int tries = 0; tries < NUMBER_OF_TRIES; tries++) {
+			PooledConnection connection = null;
+			ResultSet resultSet = null;
+
+			try {
+				connection = pool.acquire();
+
+				PreparedStatement statement = connection
+						.prepareStatement(query);
+				int parameters = batchSize(names.size());
+				for (int i = 0; i < parameters; i++) {
+					// unused parameters repeat the first name
+					statement.setString(i + 1, names.get(i < names.size() ? i : 0));
+				}
+				resultSet = statement.executeQuery();
+
+				CredentialReader reader = new CredentialReader(Long.MIN_VALUE);
+				reader.read(resultSet);
+
+				connection.getConnection().commit();
+
+				return reader.getCredentials();
+			} catch (SQLException e) {
+				log.error("SQL Exception while retrieving User/Password", e);
+				failure = e;
+				if (connection != null) {
+					connection.markBroken(e);
+				}
+			} finally {
+				if (resultSet != null) {
+					try {
+						resultSet.close();
+					} catch (SQLException e) {
+						log.error("Abnormal SQL Exception while retrieving User/Password", e);
+					}
+				}
+				pool.release(connection);
+			}
+		}
+
+		throw new CredentialSourceException("Unable to retrieve credentials",
+				failure);
+	}
+
+	/**
+	 * Returns the query for the given number of users. Batches are rounded up
+	 * to a power of two, so each connection only prepares a few statements.
+	 */
+	private String getCredentialsQuery(int count) {
+		if (count == 1) {
+			return credentialsQuery;
+		}
+
+		int size = batchSize(count);
+		int index = Integer.numberOfTrailingZeros(size);
+		if (index >= batchQueries.length) {
+			return buildCredentialsQuery(size);
+		}
+
+		String query = batchQueries[index];
+		if (query == null) {
+			query = buildCredentialsQuery(size);
+			batchQueries[index] = query;
+		}
+		return query;
+	}
+
+	private static int batchSize(int count) {
+		return count <= 1 ? 1 : Integer.highestOneBit(count - 1) << 1;
+	}
+
+	private String buildCredentialsQuery(int parameters) {
+		StringBuilder sb = new StringBuilder(selectCredentials);
+		sb.append(" WHERE ");
+		sb.append("\"" + userTable + "\"." + userNameCol);
+		if (parameters == 1) {
+			sb.append(" = ?");
+		} else {
+			sb.append(" IN (?");
+			for (int i = 1; i < parameters; i++) {
+				sb.append(", ?");
+			}
+			sb.append(")");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public List<String> getUsernames() throws CredentialSourceException {
+		PooledConnection connection = null;
+		ResultSet resultSet = null;
+
+		try {
+			connection = pool.acquire();
+			resultSet = connection.prepareStatement(usernamesQuery)
+					.executeQuery();
+
+			List<String> usernames = new ArrayList<String>();
+			while (resultSet.next()) {
+				usernames.add(resultSet.getString(1));
+			}
+
+			connection.getConnection().commit();
+			return usernames;
+		} catch (SQLException e) {
+			if (connection != null) {
+				connection.markBroken(e);
+			}
+			throw new CredentialSourceException("Unable to list users", e);
+		} finally {
+			if (resultSet != null) {
+				try {
+					resultSet.close();
+				} catch (SQLException e) {
+					log.error("Abnormal SQL Exception while listing users", e);
+				}
+			}
+			pool.release(connection);
+		}
+	}
+
+	@Override
+	public boolean isIncremental() {
+		return changedCredentialsQuery != null;
+	}
+
+	@Override
+	public CredentialChanges getChanges(long watermark)
+			throws CredentialSourceException {
+		final boolean complete = watermark == Long.MIN_VALUE
+				|| changedCredentialsQuery == null;
+		PooledConnection connection = null;
+		ResultSet resultSet = null;
+
+		try {
+			connection = pool.acquire();
+
+			PreparedStatement statement;
+			if (complete) {
+				statement = connection.prepareStatement(allCredentialsQuery);
+			} else {
+				statement = connection.prepareStatement(changedCredentialsQuery);
+				statement.setTimestamp(1, new Timestamp(watermark));
+			}
+			resultSet = statement.executeQuery();
+
+			CredentialReader reader = new CredentialReader(watermark);
+			reader.read(resultSet);
+
+			connection.getConnection().commit();
+			return new CredentialChanges(new ArrayList<Credential>(reader
+					.getCredentials().values()), reader.watermark, complete);
+		} catch (SQLException e) {
+			if (connection != null) {
+				connection.markBroken(e);
+			}
+			throw new CredentialSourceException("Unable to replicate users", e);
+		} finally {
+			if (resultSet != null) {
+				try {
+					resultSet.close();
+				} catch (SQLException e) {
+					log.error("Abnormal SQL Exception while replicating users", e);
+				}
+			}
+			pool.release(connection);
+		}
+	}
+
+	@Override
+	public void close() {
+		pool.close();
+	}
+
+	/**
+	 * Collects the credentials of a result set, with a role table there is
+	 * one row per role of a user.
+	 */
+	private final class CredentialReader {
+
+		private final Map<String, String> passwords = new LinkedHashMap<String, String>();
+
+		private final Map<String, List<String>> roles = new HashMap<String, List<String>>();
+
+		private long watermark;
+
+		private CredentialReader(long watermark) {
+			this.watermark = watermark;
+		}
+
+		private void read(ResultSet resultSet) throws SQLException {
+			while (resultSet.next()) {
+				String username = resultSet.getString(1);
+				String password = resultSet.getString(2);
+				if (username == null || password == null) {
+					continue;
+				}
+
+				passwords.put(username, password.trim());
+
+				if (rolesIndex != -1) {
+					String value = resultSet.getString(rolesIndex);
+					if (value != null) {
+						List<String> userRoles = roles.get(username);
+						if (userRoles == null) {
+							userRoles = new ArrayList<String>();
+							roles.put(username, userRoles);
+						}
+						roleMapping.addRoles(value, userRoles);
+					}
+				}
+
+				if (modifiedIndex != -1) {
+					Timestamp modified = resultSet.getTimestamp(modifiedIndex);
+					if (modified != null && modified.getTime() > watermark) {
+						watermark = modified.getTime();
+					}
+				}
+			}
+		}
+
+		private Map<String, Credential> getCredentials() {
+			Map<String, Credential> credentials = new LinkedHashMap<String, Credential>();
+			for (Map.Entry<String, String> entry : passwords.entrySet()) {
+				credentials.put(entry.getKey(), new Credential(entry.getKey(),
+						entry.getValue(), roles.get(entry.getKey())));
+			}
+			return credentials;
+		}
+	}
+
+	/**
+	 * Where the roles of the users are stored, either in a column of the user
+	 * table holding a comma separated list, or in a role table with one row
+	 * per role of a user.
+	 */
+	public static final class RoleMapping {
+
+		private final String rolesCol;
+
+		private final String roleTable;
+
+		private final String roleUserCol;
+
+		private final String roleNameCol;
+
+		private RoleMapping(String rolesCol, String roleTable,
+				String roleUserCol, String roleNameCol) {
+			this.rolesCol = rolesCol;
+			this.roleTable = roleTable;
+			this.roleUserCol = roleUserCol;
+			this.roleNameCol = roleNameCol;
+		}
+
+		/**
+		 * Roles in a column of the user table, separated by commas.
+		 */
+		public static RoleMapping column(String rolesCol) {
+			return new RoleMapping(rolesCol, null, null, null);
+		}
+
+		/**
+		 * Roles in a table with a user name and a role column.
+		 */
+		public static RoleMapping table(String roleTable, String roleUserCol,
+				String roleNameCol) {
+			return new RoleMapping(null, roleTable, roleUserCol, roleNameCol);
+		}
+
+		private String getSelectColumn(String userTable) {
+			if (roleTable == null) {
+				return "\"" + userTable + "\"." + rolesCol;
+			}
+			return "\"" + roleTable + "\"." + roleNameCol;
+		}
+
+		private String getJoin(String userTable, String userNameCol) {
+			if (roleTable == null) {
+				return "";
+			}
+			return " LEFT JOIN \"public\"." + roleTable + " ON \"" + roleTable
+					+ "\"." + roleUserCol + " = \"" + userTable + "\"."
+					+ userNameCol;
+		}
+
+		private void addRoles(String value, List<String> roles) {
+			if (roleTable != null) {
+				roles.add(value.trim());
+				return;
+			}
+			for (String role : value.split(",")) {
+				role = role.trim();
+				if (!role.isEmpty()) {
+					roles.add(role);
+				}
+			}
+		}
+	}
+
+}
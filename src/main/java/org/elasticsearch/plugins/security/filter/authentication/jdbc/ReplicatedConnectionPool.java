@@ -0,0 +1,358 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool.PooledConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spreads lookups across read replicas of the user database. Each
+ * connection is taken from the healthy replica with the least outstanding
+ * requests, ties are broken round robin, replicas without a free connection
+ * are skipped for the request. A replica is taken out of rotation
+ * when a connection to it cannot be opened or breaks, or after several
+ * consecutive queries on it failed otherwise, and back in once a periodic
+ * health check succeeds. Without a healthy replica
+ * connections are taken from the primary.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public class ReplicatedConnectionPool implements ConnectionPool, ToXContent {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(ReplicatedConnectionPool.class);
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+	/**
+	 * failed queries in a row which take a replica out of rotation, a single
+	 * failure like a constraint violation does not
+	 */
+	static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+	private final Member primary;
+
+	private final Member[] replicas;
+
+	private final long healthCheckIntervalMillis;
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private final ConcurrentMap<PooledConnection, Lease> leases = new ConcurrentHashMap<PooledConnection, Lease>();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final CounterMetric primaryFallbacks = new CounterMetric();
+
+	/**
+	 * @param replicas
+	 *            pools of the replicas by their name in logs and stats
+	 */
+	public ReplicatedConnectionPool(JdbcConnectionPool primary,
+			Map<String, JdbcConnectionPool> replicas,
+			long healthCheckIntervalMillis) {
+		super();
+		this.primary = new Member("primary", primary);
+		this.replicas = new Member[replicas.size()];
+		int i = 0;
+		for (Map.Entry<String, JdbcConnectionPool> replica : replicas
+				.entrySet()) {
+			this.replicas[i++] = new Member(replica.getKey(), replica.getValue());
+		}
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+		this.executor = new ScheduledThreadPoolExecutor(1,
+				EsExecutors.daemonThreadFactory("security_jdbc_health"));
+	}
+
+	/**
+	 * Opens the initial connections and schedules the health checks. Only a
+	 * primary which cannot be reached fails the start.
+	 */
+	@Override
+	public void start() throws SQLException {
+		primary.pool.start();
+
+		for (Member replica : replicas) {
+			try {
+				replica.pool.start();
+			} catch (SQLException e) {
+				markDown(replica, e);
+			}
+		}
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				checkHealth();
+			}
+		}, healthCheckIntervalMillis, healthCheckIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public PooledConnection acquire() throws SQLException {
+		// a replica which cannot be reached is marked down, a busy one is
+		// skipped for this request, the next one is tried until none is left
+		Set<Member> busy = null;
+		Member replica;
+		while ((replica = select(busy)) != null) {
+			try {
+				return lease(replica);
+			} catch (SQLTransientConnectionException e) {
+				// the replica is busy, not down
+				log.debug("No connection to replica {} available",
+						replica.name);
+				if (busy == null) {
+					busy = new HashSet<Member>();
+				}
+				busy.add(replica);
+			} catch (SQLException e) {
+				markDown(replica, e);
+			}
+		}
+
+		if (replicas.length > 0) {
+			primaryFallbacks.inc();
+		}
+		return lease(primary);
+	}
+
+	@Override
+	public void release(PooledConnection connection) {
+		if (connection == null) {
+			return;
+		}
+
+		final Lease lease = leases.remove(connection);
+		if (lease == null) {
+			log.warn("Connection released which has not been acquired from this pool");
+			return;
+		}
+
+		final Member member = lease.member;
+		member.latency.inc(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+				- lease.started));
+		if (member != primary) {
+			if (!connection.isBroken()) {
+				member.consecutiveFailures.set(0);
+			} else if (isConnectionFailure(connection.getFailure())
+					|| member.consecutiveFailures.incrementAndGet() >= MAX_CONSECUTIVE_FAILURES) {
+				markDown(member, connection.getFailure());
+			}
+		}
+
+		try {
+			member.pool.release(connection);
+		} finally {
+			member.outstanding.decrementAndGet();
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		primary.pool.close();
+		for (Member replica : replicas) {
+			replica.pool.close();
+		}
+	}
+
+	/**
+	 * Returns the healthy replica with the least outstanding requests, or
+	 * null if no replica is healthy.
+	 *
+	 * @param busy
+	 *            replicas without a free connection, may be null
+	 */
+	private Member select(Set<Member> busy) {
+		final int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		Member selected = null;
+		int least = Integer.MAX_VALUE;
+
+		for (int i = 0; i < replicas.length; i++) {
+			final Member replica = replicas[(start + i) % replicas.length];
+			if (!replica.healthy || (busy != null && busy.contains(replica))) {
+				continue;
+			}
+			final int outstanding = replica.outstanding.get();
+			if (outstanding < least) {
+				selected = replica;
+				least = outstanding;
+			}
+		}
+		return selected;
+	}
+
+	private PooledConnection lease(Member member) throws SQLException {
+		member.outstanding.incrementAndGet();
+		try {
+			final PooledConnection connection = member.pool.acquire();
+			leases.put(connection, new Lease(member, System.nanoTime()));
+			member.requests.inc();
+			return connection;
+		} catch (SQLException | RuntimeException e) {
+			member.outstanding.decrementAndGet();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns true if the error is caused by the connection rather than by
+	 * the statement, SQL state class 08 is the standard one of connection
+	 * exceptions.
+	 */
+	static boolean isConnectionFailure(SQLException e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof SQLNonTransientConnectionException) {
+				return true;
+			}
+			if (t instanceof SQLException) {
+				final String state = ((SQLException) t).getSQLState();
+				if (state != null && state.startsWith("08")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void markDown(Member replica, SQLException cause) {
+		if (!replica.healthy) {
+			return;
+		}
+
+		replica.healthy = false;
+		replica.failures.inc();
+		if (cause != null) {
+			log.warn("Replica " + replica.name
+					+ " of the user database is unavailable", cause);
+		} else {
+			log.warn("Replica {} of the user database failed, it is not used until the next successful health check",
+					replica.name);
+		}
+	}
+
+	/**
+	 * Validates a connection of every replica, replicas which respond are
+	 * (again) used for lookups.
+	 */
+	void checkHealth() {
+		for (Member replica : replicas) {
+			PooledConnection connection = null;
+			try {
+				connection = replica.pool.acquire();
+				if (!connection.getConnection().isValid(
+						VALIDATION_TIMEOUT_SECONDS)) {
+					connection.markBroken();
+					markDown(replica, null);
+				} else if (!replica.healthy) {
+					replica.consecutiveFailures.set(0);
+					replica.healthy = true;
+					log.info("Replica {} of the user database is available again",
+							replica.name);
+				}
+			} catch (SQLTransientConnectionException e) {
+				// all connections are in use, the replica is alive
+				log.debug("Skipped health check of busy replica {}",
+						replica.name);
+			} catch (SQLException | RuntimeException e) {
+				if (connection != null) {
+					connection.markBroken();
+				}
+				markDown(replica, e instanceof SQLException ? (SQLException) e
+						: new SQLException(e));
+			} finally {
+				replica.pool.release(connection);
+			}
+		}
+	}
+
+	@Override
+	public XContentBuilder toXContent(XContentBuilder builder, Params params)
+			throws IOException {
+		builder.startObject("database");
+		builder.field("primary_fallbacks", primaryFallbacks.count());
+		primary.toXContent(builder);
+		builder.startObject("replicas");
+		for (Member replica : replicas) {
+			replica.toXContent(builder);
+		}
+		builder.endObject();
+		builder.endObject();
+		return builder;
+	}
+
+	/**
+	 * The primary or a replica together with its pool.
+	 */
+	private static final class Member {
+
+		private final String name;
+
+		private final JdbcConnectionPool pool;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+		private volatile boolean healthy = true;
+
+		private final CounterMetric requests = new CounterMetric();
+
+		private final CounterMetric failures = new CounterMetric();
+
+		private final MeanMetric latency = new MeanMetric();
+
+		private Member(String name, JdbcConnectionPool pool) {
+			this.name = name;
+			this.pool = pool;
+		}
+
+		private void toXContent(XContentBuilder builder) throws IOException {
+			builder.startObject(name);
+			builder.field("healthy", healthy);
+			builder.field("outstanding", outstanding.get());
+			builder.field("requests", requests.count());
+			builder.field("failures", failures.count());
+			builder.field("latency_avg_millis", latency.mean());
+			builder.endObject();
+		}
+	}
+
+	/**
+	 * Where and since when a connection is in use.
+	 */
+	private static final class Lease {
+
+		private final Member member;
+
+		private final long started;
+
+		private Lease(Member member, long started) {
+			this.member = member;
+			this.started = started;
+		}
+	}
+
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.elasticsearch.common.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies presented passwords against the stored password hashes. Hashes
+ * are PBKDF2 in the format
+ *
+ * <pre>
+ * pbkdf2_&lt;sha1|sha256|sha512&gt;$&lt;iterations&gt;$&lt;salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ *
+ * Stored values without a known scheme are only accepted as plain text
+ * passwords if that is allowed. The same holds for verifiers of plain text
+ * passwords created by {@link #toVerifier(String)}, which are stored instead
+ * of the plain text wherever credentials are kept outside the user database.
+ * All comparisons take constant time.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class PasswordVerifier {
+
+	private static final Logger LOG = LoggerFactory
+			.getLogger(PasswordVerifier.class);
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String PBKDF2_PREFIX = "pbkdf2_";
+
+	/**
+	 * Prefix of the PBKDF2 verifiers of plain text passwords
+	 */
+	private static final String PLAIN_PREFIX = "plain_";
+
+	private static final int PLAIN_ITERATIONS = 1000;
+
+	private static final int SALT_LENGTH = 16;
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private final boolean allowPlain;
+
+	public PasswordVerifier(final boolean allowPlain) {
+		this.allowPlain = allowPlain;
+	}
+
+	/**
+	 * Returns true if the presented password matches the stored value.
+	 */
+	public boolean verify(final String presented, final String stored) {
+		if (presented == null || presented.isEmpty() || stored == null
+				|| stored.isEmpty()) {
+			return false;
+		}
+
+		if (stored.startsWith(PBKDF2_PREFIX)) {
+			return verifyPbkdf2(presented, stored);
+		}
+
+		if (!allowPlain) {
+			LOG.debug("Stored password is not a supported hash");
+			return false;
+		}
+
+		if (stored.startsWith(PLAIN_PREFIX + PBKDF2_PREFIX)) {
+			return verifyPbkdf2(presented,
+					stored.substring(PLAIN_PREFIX.length()));
+		}
+
+		return MessageDigest.isEqual(presented.getBytes(UTF_8),
+				stored.getBytes(UTF_8));
+	}
+
+	/**
+	 * Returns a value which verifies like the given stored password but does
+	 * not contain it in clear: hashes are returned unchanged, plain text
+	 * passwords are replaced by a salted PBKDF2 verifier, which is still
+	 * only accepted if plain text passwords are allowed.
+	 */
+	public static String toVerifier(final String stored) {
+		if (stored == null || stored.isEmpty() || isVerifier(stored)) {
+			return stored;
+		}
+
+		final byte[] saltBytes = new byte[SALT_LENGTH];
+		RANDOM.nextBytes(saltBytes);
+		final String salt = Base64.encodeBytes(saltBytes);
+
+		try {
+			final byte[] hash = pbkdf2("HmacSHA256", stored.getBytes(UTF_8),
+					salt.getBytes(UTF_8), PLAIN_ITERATIONS, 32);
+			return PLAIN_PREFIX + PBKDF2_PREFIX + "sha256$" + PLAIN_ITERATIONS
+					+ "$" + salt + "$" + Base64.encodeBytes(hash);
+		} catch (final GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 not available", e);
+		}
+	}
+
+	/**
+	 * Returns true if the verifier was created by {@link #toVerifier(String)}
+	 * from the given stored password.
+	 */
+	public static boolean isVerifierOf(final String verifier,
+			final String stored) {
+		if (verifier == null || stored == null) {
+			return verifier == stored;
+		}
+		if (verifier.equals(stored)) {
+			return true;
+		}
+		return verifier.startsWith(PLAIN_PREFIX + PBKDF2_PREFIX)
+				&& !stored.isEmpty()
+				&& verifyPbkdf2(stored, verifier.substring(PLAIN_PREFIX.length()));
+	}
+
+	private static boolean isVerifier(final String stored) {
+		return stored.startsWith(PBKDF2_PREFIX)
+				|| stored.startsWith(PLAIN_PREFIX + PBKDF2_PREFIX);
+	}
+
+	private static boolean verifyPbkdf2(final String presented,
+			final String stored) {
+		final String[] parts = stored.split("\\$");
+		if (parts.length != 4) {
+			return false;
+		}
+
+		try {
+			final String algorithm = "Hmac"
+					+ parts[0].substring(PBKDF2_PREFIX.length()).toUpperCase();
+			final int iterations = Integer.parseInt(parts[1]);
+			final byte[] salt = parts[2].getBytes(UTF_8);
+			final byte[] expected = Base64.decode(parts[3]);
+
+			if (iterations < 1 || expected.length == 0) {
+				return false;
+			}
+
+			final byte[] actual = pbkdf2(algorithm, presented.getBytes(UTF_8),
+					salt, iterations, expected.length);
+			return MessageDigest.isEqual(actual, expected);
+		} catch (final GeneralSecurityException | IOException
+				| IllegalArgumentException e) {
+			LOG.debug("Unable to verify PBKDF2 hash", e);
+			return false;
+		}
+	}
+
+	/**
+	 * PBKDF2 as specified by RFC 2898, implemented on {@link Mac} because
+	 * Java 7 only provides it for HmacSHA1.
+	 */
+	static byte[] pbkdf2(final String algorithm, final byte[] password,
+			final byte[] salt, final int iterations, final int length)
+			throws GeneralSecurityException {
+		final Mac mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(password, algorithm));
+
+		final int blockLength = mac.getMacLength();
+		final byte[] result = new byte[length];
+		final byte[] u = new byte[blockLength];
+		final byte[] t = new byte[blockLength];
+
+		for (int block = 1, offset = 0; offset < length; block++, offset += blockLength) {
+			mac.update(salt);
+			mac.update((byte) (block >>> 24));
+			mac.update((byte) (block >>> 16));
+			mac.update((byte) (block >>> 8));
+			mac.update((byte) block);
+			mac.doFinal(u, 0);
+			System.arraycopy(u, 0, t, 0, blockLength);
+
+			for (int i = 1; i < iterations; i++) {
+				mac.update(u);
+				mac.doFinal(u, 0);
+				for (int j = 0; j < blockLength; j++) {
+					t[j] ^= u[j];
+				}
+			}
+
+			System.arraycopy(t, 0, result, offset,
+					Math.min(blockLength, length - offset));
+		}
+
+		return result;
+	}
+
+}
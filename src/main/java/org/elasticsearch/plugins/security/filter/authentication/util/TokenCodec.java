@@ -0,0 +1,360 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encodes and verifies authentication tokens in a compact binary layout:
+ *
+ * <pre>
+ * version (1) | expiry millis (8) | nonce (12) | encrypted user name (n) | tag (16)
+ * </pre>
+ *
+ * The user name is encrypted with AES in counter mode, version, expiry,
+ * nonce and cipher text are authenticated by a truncated HMAC-SHA256 tag
+ * (encrypt-then-MAC), the whole token is URL-safe base64 without padding.
+ * Expired tokens are rejected before any cryptographic work is done.
+ * <p>
+ * Initialized ciphers and MACs are kept per thread, so encoding or verifying
+ * a token only re-keys the counter of the cipher.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class TokenCodec {
+
+	public static final byte VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int HEADER_LENGTH = 1 + 8;
+
+	private static final int NONCE_LENGTH = 12;
+
+	private static final int TAG_LENGTH = 16;
+
+	private static final int MIN_LENGTH = HEADER_LENGTH + NONCE_LENGTH
+			+ TAG_LENGTH;
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.toCharArray();
+
+	private static final byte[] DECODING = new byte[128];
+
+	static {
+		Arrays.fill(DECODING, (byte) -1);
+		for (int i = 0; i < ALPHABET.length; i++) {
+			DECODING[ALPHABET[i]] = (byte) i;
+		}
+	}
+
+	private static final ConcurrentMap<String, TokenCodec> INSTANCES = new ConcurrentHashMap<String, TokenCodec>();
+
+	private final SecretKeySpec encryptionKey;
+
+	private final SecretKeySpec macKey;
+
+	private final ThreadLocal<Engine> engines = new ThreadLocal<Engine>() {
+		@Override
+		protected Engine initialValue() {
+			try {
+				return new Engine();
+			} catch (final GeneralSecurityException e) {
+				throw new IllegalStateException(
+						"AES/CTR or HmacSHA256 not available", e);
+			}
+		}
+	};
+
+	private TokenCodec(final String seed) throws GeneralSecurityException {
+		encryptionKey = new SecretKeySpec(Arrays.copyOf(
+				deriveKey("token-encryption", seed), 16), "AES");
+		macKey = new SecretKeySpec(deriveKey("token-authentication", seed),
+				"HmacSHA256");
+	}
+
+	/**
+	 * Returns the codec for the given secret, keys are only derived once per
+	 * secret.
+	 */
+	public static TokenCodec getInstance(final String seed)
+			throws GeneralSecurityException {
+		TokenCodec codec = INSTANCES.get(seed);
+		if (codec == null) {
+			codec = new TokenCodec(seed);
+			final TokenCodec existing = INSTANCES.putIfAbsent(seed, codec);
+			if (existing != null) {
+				codec = existing;
+			}
+		}
+		return codec;
+	}
+
+	private static byte[] deriveKey(final String label, final String seed)
+			throws GeneralSecurityException {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(label.getBytes(UTF_8));
+		digest.update((byte) 0);
+		return digest.digest(seed.getBytes(UTF_8));
+	}
+
+	public String encode(final String userName, final long expires)
+			throws GeneralSecurityException {
+		final Engine engine = engines.get();
+		final byte[] name = userName.getBytes(UTF_8);
+		final byte[] token = new byte[MIN_LENGTH + name.length];
+		final int nameOffset = HEADER_LENGTH + NONCE_LENGTH;
+		final int tagOffset = nameOffset + name.length;
+
+		token[0] = VERSION;
+		writeLong(token, 1, expires);
+		engine.random.nextBytes(engine.nonce);
+		System.arraycopy(engine.nonce, 0, token, HEADER_LENGTH, NONCE_LENGTH);
+
+		engine.initCipher(Cipher.ENCRYPT_MODE, encryptionKey);
+		engine.cipher.doFinal(name, 0, name.length, token, nameOffset);
+
+		engine.mac.update(token, 0, tagOffset);
+		engine.mac.doFinal(engine.tag, 0);
+		System.arraycopy(engine.tag, 0, token, tagOffset, TAG_LENGTH);
+
+		return encodeBase64(token);
+	}
+
+	/**
+	 * Returns true if the value is URL-safe base64 starting with the current
+	 * {@link #VERSION}, regardless of whether it is valid. Only the first
+	 * byte is decoded.
+	 */
+	public static boolean isVersioned(final String value) {
+		final int length = value.length();
+		if (length < 2 || length % 4 == 1) {
+			return false;
+		}
+
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c >= 128 || DECODING[c] < 0) {
+				return false;
+			}
+		}
+
+		return (DECODING[value.charAt(0)] << 2 | DECODING[value.charAt(1)] >>> 4) == VERSION;
+	}
+
+	/**
+	 * Returns the verified content of the token, or null if the token is not
+	 * a token of this codec, has been tampered with or is expired.
+	 */
+	public Token decode(final String value, final long now) {
+		final byte[] token = decodeBase64(value);
+
+		if (token == null || token.length < MIN_LENGTH || token[0] != VERSION) {
+			return null;
+		}
+
+		final long expires = readLong(token, 1);
+		if (expires <= now) {
+			return null;
+		}
+
+		final Engine engine = engines.get();
+		final int nameOffset = HEADER_LENGTH + NONCE_LENGTH;
+		final int tagOffset = token.length - TAG_LENGTH;
+
+		try {
+			engine.mac.update(token, 0, tagOffset);
+			engine.mac.doFinal(engine.tag, 0);
+
+			// constant time comparison
+			int diff = 0;
+			for (int i = 0; i < TAG_LENGTH; i++) {
+				diff |= engine.tag[i] ^ token[tagOffset + i];
+			}
+			if (diff != 0) {
+				return null;
+			}
+
+			System.arraycopy(token, HEADER_LENGTH, engine.nonce, 0,
+					NONCE_LENGTH);
+			engine.initCipher(Cipher.DECRYPT_MODE, encryptionKey);
+			final int length = engine.cipher.doFinal(token, nameOffset,
+					tagOffset - nameOffset, token, nameOffset);
+
+			return new Token(new String(token, nameOffset, length, UTF_8),
+					expires);
+		} catch (final GeneralSecurityException e) {
+			return null;
+		}
+	}
+
+	private static void writeLong(final byte[] bytes, final int offset,
+			final long value) {
+		for (int i = 0; i < 8; i++) {
+			bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+
+	private static long readLong(final byte[] bytes, final int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = value << 8 | bytes[offset + i] & 0xff;
+		}
+		return value;
+	}
+
+	private static String encodeBase64(final byte[] bytes) {
+		final char[] chars = new char[(bytes.length * 4 + 2) / 3];
+		int c = 0;
+		int i = 0;
+
+		for (; i + 2 < bytes.length; i += 3) {
+			final int block = (bytes[i] & 0xff) << 16
+					| (bytes[i + 1] & 0xff) << 8 | bytes[i + 2] & 0xff;
+			chars[c++] = ALPHABET[block >>> 18];
+			chars[c++] = ALPHABET[block >>> 12 & 0x3f];
+			chars[c++] = ALPHABET[block >>> 6 & 0x3f];
+			chars[c++] = ALPHABET[block & 0x3f];
+		}
+
+		final int remaining = bytes.length - i;
+		if (remaining > 0) {
+			final int block = (bytes[i] & 0xff) << 16
+					| (remaining == 2 ? (bytes[i + 1] & 0xff) << 8 : 0);
+			chars[c++] = ALPHABET[block >>> 18];
+			chars[c++] = ALPHABET[block >>> 12 & 0x3f];
+			if (remaining == 2) {
+				chars[c++] = ALPHABET[block >>> 6 & 0x3f];
+			}
+		}
+
+		return new String(chars);
+	}
+
+	/**
+	 * Returns null if the value is not URL-safe base64 without padding.
+	 */
+	private static byte[] decodeBase64(final String value) {
+		final int length = value.length();
+		if (length % 4 == 1) {
+			return null;
+		}
+
+		final byte[] bytes = new byte[length * 3 / 4];
+		int block = 0;
+		int b = 0;
+
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			final int digit = c < 128 ? DECODING[c] : -1;
+			if (digit < 0) {
+				return null;
+			}
+
+			block = block << 6 | digit;
+
+			if ((i & 3) == 3) {
+				bytes[b++] = (byte) (block >>> 16);
+				bytes[b++] = (byte) (block >>> 8);
+				bytes[b++] = (byte) block;
+				block = 0;
+			}
+		}
+
+		switch (length & 3) {
+		case 2:
+			bytes[b] = (byte) (block >>> 4);
+			break;
+		case 3:
+			bytes[b++] = (byte) (block >>> 10);
+			bytes[b] = (byte) (block >>> 2);
+			break;
+		default:
+			break;
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * The verified content of a token.
+	 */
+	public static final class Token {
+
+		private final String userName;
+
+		private final long expires;
+
+		private final boolean legacy;
+
+		Token(final String userName, final long expires) {
+			this(userName, expires, false);
+		}
+
+		Token(final String userName, final long expires, final boolean legacy) {
+			this.userName = userName;
+			this.expires = expires;
+			this.legacy = legacy;
+		}
+
+		public String getUserName() {
+			return userName;
+		}
+
+		public long getExpires() {
+			return expires;
+		}
+
+		/**
+		 * Whether the token has been read from the format before the compact
+		 * one, such a token is neither cached nor renewed.
+		 */
+		public boolean isLegacy() {
+			return legacy;
+		}
+	}
+
+	/**
+	 * Cipher, MAC and buffers of one thread.
+	 */
+	private final class Engine {
+
+		private final Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+
+		private final Mac mac = Mac.getInstance("HmacSHA256");
+
+		private final SecureRandom random = new SecureRandom();
+
+		private final byte[] nonce = new byte[NONCE_LENGTH];
+
+		private final byte[] counter = new byte[16];
+
+		private final byte[] tag = new byte[32];
+
+		private Engine() throws GeneralSecurityException {
+			mac.init(macKey);
+		}
+
+		private void initCipher(final int mode, final SecretKeySpec key)
+				throws GeneralSecurityException {
+			// nonce followed by a block counter starting at zero
+			System.arraycopy(nonce, 0, counter, 0, NONCE_LENGTH);
+			Arrays.fill(counter, NONCE_LENGTH, counter.length, (byte) 0);
+			cipher.init(mode, key, new IvParameterSpec(counter));
+		}
+	}
+
+}
@@ -10,7 +10,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringUtils;
-import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.joda.time.format.PeriodFormatter;
 import org.joda.time.format.PeriodFormatterBuilder;
@@ -26,41 +25,185 @@ public class TokenUtil {
 
     private static final Logger LOG = LoggerFactory.getLogger(TokenUtil.class);
 
+    public static final double DEFAULT_RENEWAL_FRACTION = 0.5;
+
+    /**
+     * Minimum length of the secret the token keys are derived from.
+     */
+    public static final int MIN_KEY_LENGTH = 16;
+
+    /**
+     * Fixed password of the tokens issued before the compact format, only
+     * used to read them.
+     */
+    private static final String LEGACY_SEED = "%DU)FöfI8/°";
+
     private EncryptionUtil encryptionUtil = new EncryptionUtil();
 
+    private TokenCodec tokenCodec;
+
+    private final String key;
+
+    private final long tokenCacheSize;
+
+    private final double renewalFraction;
+
+    private long renewalWindowMillis;
+
+    private VerifiedTokenCache verifiedTokenCache;
+
+    private volatile boolean initialized;
+
     private Period sessionMaxAge;
+
+    private long sessionMaxAgeMillis;
+
+    private long startedAt;
     
     private String headerName = "X-Auth-Token";
     
     private String maxAge = "20m";
     
     private String encryptionEnabled = "true";
-    
-    private String seed = "%DU)FöfI8/°";
 
-    public void init() {
+    public TokenUtil(String key) {
+        this(key, 0, DEFAULT_RENEWAL_FRACTION);
+    }
+
+    /**
+     * @param key secret the token keys are derived from, must be the same on all nodes
+     * @param tokenCacheSize maximum number of verified tokens to cache, 0 disables the cache
+     * @param renewalFraction a token is only renewed if less than this fraction of the
+     *            session max age is left, 1 renews tokens on every request
+     */
+    public TokenUtil(String key, long tokenCacheSize, double renewalFraction) {
+        if (renewalFraction < 0 || renewalFraction > 1) {
+            throw new IllegalArgumentException("renewal fraction must be between 0 and 1 but was " + renewalFraction);
+        }
+        this.key = key;
+        this.tokenCacheSize = tokenCacheSize;
+        this.renewalFraction = renewalFraction;
+    }
+
+    /**
+     * Initializes this instance, subsequent calls do nothing.
+     *
+     * @throws IllegalStateException if no key or a key shorter than {@link #MIN_KEY_LENGTH} is configured
+     */
+    public synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        if (key == null || key.trim().length() < MIN_KEY_LENGTH) {
+            throw new IllegalStateException("security.token.key must be set to a secret of at least "
+                    + MIN_KEY_LENGTH + " characters");
+        }
         if (StringUtils.isNotBlank(encryptionEnabled) && Boolean.parseBoolean(encryptionEnabled)) {
             encryptionUtil.encryptionEnabled(true);
         }
         sessionMaxAge = getSessionMaxAge();
+        sessionMaxAgeMillis = sessionMaxAge.toStandardDuration().getMillis();
+        renewalWindowMillis = (long) (sessionMaxAgeMillis * renewalFraction);
+        // legacy tokens were all issued before this node started
+        startedAt = System.currentTimeMillis();
+        try {
+            tokenCodec = TokenCodec.getInstance(key);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to initialize token codec", e);
+        }
+        if (tokenCacheSize > 0) {
+            verifiedTokenCache = new VerifiedTokenCache(tokenCacheSize, sessionMaxAgeMillis);
+        }
+        initialized = true;
+    }
+
+    /**
+     * Returns the cache of verified tokens, or null if tokens are not cached.
+     */
+    public VerifiedTokenCache getVerifiedTokenCache() {
+        return verifiedTokenCache;
     }
 
     public String getUserName(HttpServletRequest request) {
+        TokenCodec.Token token = getToken(request);
+        return token != null ? token.getUserName() : null;
+    }
+
+    /**
+     * Returns the verified token sent with the request, or null if there is
+     * none or it is invalid or expired.
+     */
+    public TokenCodec.Token getToken(HttpServletRequest request) {
         String header = request.getHeader(headerName);
-        return StringUtils.isNotBlank(header) ? extractUserName(header) : null;
+        return StringUtils.isNotBlank(header) ? extractToken(header) : null;
     }
 
-    private String extractUserName(String value) {
+    private TokenCodec.Token extractToken(String value) {
+        final long now = System.currentTimeMillis();
+
+        if (verifiedTokenCache == null) {
+            return verifyToken(value, now);
+        }
+
+        TokenCodec.Token token = verifiedTokenCache.get(value, now);
 
+        if (token == null) {
+            token = verifyToken(value, now);
+            verifiedTokenCache.decrypted(token != null);
+            if (token != null && !token.isLegacy()) {
+                verifiedTokenCache.put(value, token);
+            }
+        }
+
+        return token;
+    }
+
+    /**
+     * Returns the token to send back to the client. A new token is only
+     * issued if the presented one expires within the renewal window,
+     * otherwise the presented token is returned unchanged. Legacy tokens are
+     * never renewed, their clients have to log in again once they expired.
+     */
+    public String renewToken(String presentedValue, TokenCodec.Token token) throws IOException, GeneralSecurityException {
+        if (token.isLegacy() || token.getExpires() - System.currentTimeMillis() > renewalWindowMillis) {
+            return presentedValue;
+        }
+        return createAuthToken(token.getUserName());
+    }
+
+    private TokenCodec.Token verifyToken(String value, long now) {
+        // an invalid token of the current format is never read as a legacy token
+        if (TokenCodec.isVersioned(value)) {
+            return tokenCodec.decode(value, now);
+        }
+
+        return now < startedAt + sessionMaxAgeMillis ? extractLegacyToken(value, now) : null;
+    }
+
+    /**
+     * Tokens issued before the compact token format was introduced. They are
+     * encrypted with a password known to everybody, so anybody can create
+     * one. Only tokens claiming to be issued within the last session max age
+     * before this node started are accepted, a token issued later can only
+     * be forged. They are accepted until the last of them has expired and
+     * are neither cached nor renewed.
+     *
+     * @deprecated to be removed with the first release after 2027-01-01
+     */
+    @Deprecated
+    private TokenCodec.Token extractLegacyToken(String value, long now) {
         try {
-            String decryptedValue = encryptionUtil.decrypt(value, seed);
-            String[] split = decryptedValue.split("\\|");
-            String username = split[0];
-            DateTime timestamp =  new DateTime(Long.parseLong(split[1]));
-            if (timestamp.isAfter(DateTime.now().minus(sessionMaxAge))) {
-                return username;
+            String decryptedValue = encryptionUtil.decrypt(value, LEGACY_SEED);
+            int separator = decryptedValue.lastIndexOf('|');
+            if (separator != -1) {
+                long issued = Long.parseLong(decryptedValue.substring(separator + 1));
+                long expires = issued + sessionMaxAgeMillis;
+                if (issued < startedAt && issued >= startedAt - sessionMaxAgeMillis && expires > now) {
+                    return new TokenCodec.Token(decryptedValue.substring(0, separator), expires, true);
+                }
+                LOG.debug("Rejected legacy token issued at {}", issued);
             }
-        } catch (IOException | GeneralSecurityException e) {
+        } catch (IOException | GeneralSecurityException | NumberFormatException e) {
             LOG.debug("Unable to decrypt header", e);
         }
         return null;
@@ -76,8 +219,18 @@ public class TokenUtil {
     }
 
     public String createAuthToken(String userName) throws IOException, GeneralSecurityException {
-        String value = userName + "|" + System.currentTimeMillis();
-        return encryptionUtil.encrypt(value, seed);
+        return encodeToken(issueToken(userName));
+    }
+
+    /**
+     * Returns a new token of the user expiring one session max age from now.
+     */
+    public TokenCodec.Token issueToken(String userName) {
+        return new TokenCodec.Token(userName, System.currentTimeMillis() + sessionMaxAgeMillis);
+    }
+
+    public String encodeToken(TokenCodec.Token token) throws GeneralSecurityException {
+        return tokenCodec.encode(token.getUserName(), token.getExpires());
     }
 
     private Period getSessionMaxAge() {
@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Bounded, concurrent cache of recently verified passwords. Verifying a
+ * password hash is slow by design, clients which authenticate repeatedly
+ * only pay for it once per time to live.
+ * <p>
+ * Passwords are never cached, an entry holds an HMAC of the presented
+ * password and the stored hash under a random key of this node. A changed
+ * password or hash therefore misses the cache.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class VerifiedCredentialCache implements ToXContent {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String ALGORITHM = "HmacSHA256";
+
+	private final long maxSize;
+
+	private final Cache<String, byte[]> cache;
+
+	private final SecretKeySpec key;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				final Mac mac = Mac.getInstance(ALGORITHM);
+				mac.init(key);
+				return mac;
+			} catch (final GeneralSecurityException e) {
+				throw new IllegalStateException(ALGORITHM + " not available",
+						e);
+			}
+		}
+	};
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric verifications = new CounterMetric();
+
+	private final CounterMetric rejects = new CounterMetric();
+
+	public VerifiedCredentialCache(final long maxSize, final long ttlMillis) {
+		this.maxSize = maxSize;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS).build();
+
+		final byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		this.key = new SecretKeySpec(secret, ALGORITHM);
+	}
+
+	/**
+	 * Returns true if the password has recently been verified against the
+	 * stored hash of the user.
+	 */
+	public boolean isVerified(final String username, final String presented,
+			final String stored) {
+		final byte[] cached = stored != null ? cache.getIfPresent(username)
+				: null;
+
+		if (cached == null
+				|| !MessageDigest.isEqual(cached,
+						fingerprint(username, presented, stored))) {
+			misses.inc();
+			return false;
+		}
+
+		hits.inc();
+		return true;
+	}
+
+	/**
+	 * Counts a password which had to be verified because it was not cached,
+	 * valid passwords are cached.
+	 */
+	public void verified(final String username, final String presented,
+			final String stored, final boolean valid) {
+		verifications.inc();
+		if (valid) {
+			cache.put(username, fingerprint(username, presented, stored));
+		} else {
+			rejects.inc();
+		}
+	}
+
+	private byte[] fingerprint(final String username, final String presented,
+			final String stored) {
+		final Mac mac = macs.get();
+		mac.update(username.getBytes(UTF_8));
+		mac.update((byte) 0);
+		mac.update(presented.getBytes(UTF_8));
+		mac.update((byte) 0);
+		return mac.doFinal(stored.getBytes(UTF_8));
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		final long hitCount = hits.count();
+		final long total = hitCount + misses.count();
+
+		builder.startObject("verified_credentials");
+		builder.field("size", cache.size());
+		builder.field("max_size", maxSize);
+		builder.field("hits", hitCount);
+		builder.field("misses", misses.count());
+		builder.field("hit_rate", total == 0 ? 0d : (double) hitCount / total);
+		builder.field("verifications", verifications.count());
+		builder.field("rejects", rejects.count());
+		builder.endObject();
+		return builder;
+	}
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Bounded, concurrent cache of already verified tokens. Clients send the
+ * same token with many requests, only the first one has to be decrypted.
+ * A cached token is never returned after its expiry and is evicted at the
+ * latest one session max age after it was cached.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+public final class VerifiedTokenCache implements ToXContent {
+
+	private final long maxSize;
+
+	private final Cache<String, TokenCodec.Token> cache;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric decrypts = new CounterMetric();
+
+	private final CounterMetric rejects = new CounterMetric();
+
+	public VerifiedTokenCache(final long maxSize, final long maxAgeMillis) {
+		this.maxSize = maxSize;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+				.build();
+	}
+
+	/**
+	 * Returns the verified token, or null if it is not cached (any more).
+	 */
+	public TokenCodec.Token get(final String value, final long now) {
+		final TokenCodec.Token token = cache.getIfPresent(value);
+
+		if (token == null) {
+			misses.inc();
+			return null;
+		}
+
+		if (token.getExpires() <= now) {
+			cache.invalidate(value);
+			misses.inc();
+			return null;
+		}
+
+		hits.inc();
+		return token;
+	}
+
+	public void put(final String value, final TokenCodec.Token token) {
+		cache.put(value, token);
+	}
+
+	/**
+	 * Counts a token which had to be decrypted because it was not cached.
+	 */
+	public void decrypted(final boolean valid) {
+		decrypts.inc();
+		if (!valid) {
+			rejects.inc();
+		}
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		final long hitCount = hits.count();
+		final long total = hitCount + misses.count();
+
+		builder.field("size", cache.size());
+		builder.field("max_size", maxSize);
+		builder.field("hits", hitCount);
+		builder.field("misses", misses.count());
+		builder.field("hit_rate", total == 0 ? 0d : (double) hitCount / total);
+		builder.field("decrypts", decrypts.count());
+		builder.field("rejects", rejects.count());
+		return builder;
+	}
+
+}
@@ -1,28 +1,154 @@
 /**
- * 
+ *
  */
 package org.elasticsearch.plugins.security.http.realm;
 
 import java.security.Principal;
+import java.util.ArrayList;
 
 import org.apache.catalina.Realm;
-import org.apache.catalina.realm.JDBCRealm;
+import org.apache.catalina.realm.GenericPrincipal;
+import org.apache.catalina.realm.RealmBase;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CachingCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.Credential;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSourceException;
+import org.elasticsearch.plugins.security.filter.authentication.credential.SnapshotCredentialSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Realm of the JDBC user table. Users are looked up through the pooled
+ * {@link CredentialSource} of the token filter on every call. The realm keeps
+ * no principals of its own, caching, refresh and failure handling are left to
+ * the credential source, so a deleted user or changed roles take effect after
+ * its TTL only.
+ *
  * @author Johannes Hiemer.
  *
  */
-public class CustomJdbcRealm extends JDBCRealm implements Realm {
+public class CustomJdbcRealm extends RealmBase implements Realm {
+
+	private static final Logger log = LoggerFactory
+			.getLogger(CustomJdbcRealm.class);
+
+	private static final String NAME = "CustomJdbcRealm";
+
+	private volatile CredentialSource credentialSource;
+
+	public CustomJdbcRealm() {
+		super();
+	}
+
+	/**
+	 * Sets the source users are looked up in, the realm knows no users
+	 * before.
+	 */
+	public void setCredentialSource(CredentialSource credentialSource) {
+		this.credentialSource = credentialSource;
+	}
 
 	@Override
-	public synchronized Principal authenticate(String username, String credentials) {
-		// Here we do the authentication stuff.
+	public Principal authenticate(String username, String credentials) {
+		final GenericPrincipal principal = getGenericPrincipal(username);
+		if (principal == null || credentials == null) {
+			return null;
+		}
+
+		final String presented = hasMessageDigest() ? digest(credentials)
+				: credentials;
+		return matches(presented, principal.getPassword(), hasMessageDigest()) ? principal
+				: null;
+	}
+
+	/**
+	 * Returns the principal of the user if the credential source answers
+	 * without a lookup, i.e. the credentials are cached or held in memory,
+	 * otherwise null.
+	 */
+	public GenericPrincipal getCachedPrincipal(String username) {
+		if (username == null) {
+			return null;
+		}
+
+		final CredentialSource source = credentialSource;
+
+		if (source instanceof CachingCredentialSource) {
+			return toPrincipal(username,
+					((CachingCredentialSource) source).getCachedCredential(username));
+		}
+		if (source instanceof SnapshotCredentialSource) {
+			return toPrincipal(username,
+					((SnapshotCredentialSource) source).getCredential(username));
+		}
 		return null;
 	}
-	
+
+	/**
+	 * Returns the principal of the user, or null if the user does not exist
+	 * or cannot be looked up.
+	 */
+	public GenericPrincipal getGenericPrincipal(String username) {
+		final CredentialSource source = credentialSource;
+		if (username == null || source == null) {
+			return null;
+		}
+
+		try {
+			return toPrincipal(username, source.getCredential(username));
+		} catch (CredentialSourceException e) {
+			log.error("Unable to retrieve User/Password", e);
+			return null;
+		}
+	}
+
+	private static GenericPrincipal toPrincipal(String username,
+			Credential credential) {
+		if (credential == null) {
+			return null;
+		}
+
+		return new GenericPrincipal(username, credential.getPassword(),
+				new ArrayList<String>(credential.getRoles()));
+	}
+
+	@Override
+	protected String getName() {
+		return NAME;
+	}
+
 	@Override
-	protected synchronized Principal getPrincipal(String username) {
-		// Here we load the principal.
-		return super.getPrincipal(username);
+	protected String getPassword(String username) {
+		final GenericPrincipal principal = getGenericPrincipal(username);
+		return principal != null ? principal.getPassword() : null;
 	}
+
+	@Override
+	protected Principal getPrincipal(String username) {
+		return getGenericPrincipal(username);
+	}
+
+	/**
+	 * Compares in constant time, digests are hex and compared ignoring case.
+	 */
+	private static boolean matches(String presented, String stored,
+			boolean ignoreCase) {
+		if (presented == null || stored == null
+				|| presented.length() != stored.length()) {
+			return false;
+		}
+
+		int diff = 0;
+		for (int i = 0; i < presented.length(); i++) {
+			char a = presented.charAt(i);
+			char b = stored.charAt(i);
+			if (ignoreCase) {
+				a = Character.toLowerCase(a);
+				b = Character.toLowerCase(b);
+			}
+			diff |= a ^ b;
+		}
+		return diff == 0;
+	}
+
 }
@@ -2,6 +2,7 @@ package org.elasticsearch.plugins.security.http.tomcat;
 
 import java.io.IOException;
 import java.security.Principal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -17,6 +18,9 @@ import org.elasticsearch.common.io.Streams;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.http.HttpRequest;
+import org.elasticsearch.plugins.security.filter.authentication.SecurityContext;
+import org.elasticsearch.plugins.security.util.RequestDescriptor;
+import org.elasticsearch.plugins.security.util.RequestDescriptorCache;
 import org.elasticsearch.rest.support.RestUtils;
 
 /**
@@ -42,6 +46,8 @@ public class TomcatHttpServerRestRequest extends HttpRequest {
 
 	private final String opaqueId;
 
+	private RequestDescriptor requestDescriptor;
+
 	public TomcatHttpServerRestRequest(final HttpServletRequest request)
 			throws IOException {
 		this.request = request;
@@ -154,6 +160,19 @@ public class TomcatHttpServerRestRequest extends HttpRequest {
 		return opaqueId;
 	}
 
+	/**
+	 * Returns the descriptor of this request's path, it is looked up on the
+	 * first call and shared by all filters processing the request.
+	 */
+	public RequestDescriptor getRequestDescriptor(
+			final RequestDescriptorCache cache) {
+		if (requestDescriptor == null) {
+			requestDescriptor = cache.get(this);
+		}
+
+		return requestDescriptor;
+	}
+
 	public HttpServletRequest getHttpServletRequest() {
 		return request;
 	}
@@ -166,7 +185,20 @@ public class TomcatHttpServerRestRequest extends HttpRequest {
 		return request.isUserInRole(role);
 	}
 
+	/**
+	 * Returns the security context established by the token filter, or null
+	 * if the request has not been authenticated by it.
+	 */
+	public SecurityContext getSecurityContext() {
+		return SecurityContext.get(request);
+	}
+
 	public List<String> getUserRoles() {
+		final SecurityContext context = getSecurityContext();
+		if (context != null && !context.getRoles().isEmpty()) {
+			return new ArrayList<String>(context.getRoles());
+		}
+
 		if (request.getUserPrincipal() instanceof GenericPrincipal) {
 			final GenericPrincipal wp = (GenericPrincipal) request
 					.getUserPrincipal();
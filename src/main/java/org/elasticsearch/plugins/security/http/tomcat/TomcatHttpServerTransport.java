@@ -26,6 +26,7 @@ import org.apache.catalina.startup.Tomcat;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.network.NetworkService;
@@ -35,11 +36,14 @@ import org.elasticsearch.common.transport.BoundTransportAddress;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.http.HttpInfo;
 import org.elasticsearch.http.HttpServerAdapter;
 import org.elasticsearch.http.HttpServerTransport;
 import org.elasticsearch.http.HttpStats;
+import org.elasticsearch.plugins.security.filter.authentication.TokenFilter;
+import org.elasticsearch.plugins.security.http.realm.CustomJdbcRealm;
 import org.elasticsearch.plugins.security.service.SecurityService;
 import org.elasticsearch.transport.BindTransportException;
 
@@ -88,6 +92,8 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 
 	private final Settings settings;
 
+	private final Environment environment;
+
 	private final SecurityService securityService;
 
 	private final String authenticationMode;
@@ -111,6 +117,7 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 		super(settings);
 
 		this.settings = settings;
+		this.environment = environment;
 		this.securityService = securityService;
 
 		useSSL = componentSettings.getAsBoolean("ssl.enabled",
@@ -298,7 +305,8 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 
 			logger.debug("currentDir " + currentDir);
 
-			Tomcat.addServlet(ctx, "ES Servlet", servlet);
+			// the token filter may release the request thread during lookups
+			Tomcat.addServlet(ctx, "ES Servlet", servlet).setAsyncSupported(true);
 
 			ctx.addServletMapping("/*", "ES Servlet");
 
@@ -380,6 +388,13 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 					final FilterDef filterDef = new FilterDef();
 					filterDef.setFilterClass("org.elasticsearch.plugins.security.filter.authentication.TokenFilter");
 					filterDef.setFilterName("TokenFilter");
+					final CustomJdbcRealm realm = new CustomJdbcRealm();
+					ctx.setRealm(realm);
+
+					final TokenFilter tokenFilter = new TokenFilter(securityService.enableTokens(), realm);
+					filterDef.setFilter(tokenFilter);
+					filterDef.setAsyncSupported("true");
+					securityService.registerStats("credentials", tokenFilter);
 					
 					String url = settings.get("security.jdbc.url");
 					String driver = settings.get("security.jdbc.driver");
@@ -391,6 +406,7 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 	            	String table = settings.get("security.jdbc.table");
 	            	String usernameColumn = settings.get("security.jdbc.column.username");
 	            	String passwordColumn = settings.get("security.jdbc.column.password");
+	            	String modifiedColumn = settings.get("security.jdbc.column.modified");
 	            	
 	            	filterDef.addInitParameter("security.jdbc.url", url);
 	            	filterDef.addInitParameter("security.jdbc.driver", driver);
@@ -402,10 +418,105 @@ public class TomcatHttpServerTransport extends AbstractLifecycleComponent<HttpSe
 	            	filterDef.addInitParameter("security.jdbc.table", table);
 	            	filterDef.addInitParameter("security.jdbc.column.username", usernameColumn);
 	            	filterDef.addInitParameter("security.jdbc.column.password", passwordColumn);
+	            	if (modifiedColumn != null) {
+	            		filterDef.addInitParameter("security.jdbc.column.modified", modifiedColumn);
+	            	}
+	            	for (String roleSetting : new String[] { "security.jdbc.column.roles",
+	            			"security.jdbc.roles.table", "security.jdbc.roles.column.username",
+	            			"security.jdbc.roles.column.role" }) {
+	            		if (settings.get(roleSetting) != null) {
+	            			filterDef.addInitParameter(roleSetting, settings.get(roleSetting));
+	            		}
+	            	}
+	            	if (settings.getAsBoolean("security.jdbc.snapshot.enabled", false)) {
+	            		filterDef.addInitParameter("security.jdbc.snapshot.path",
+	            				settings.get("security.jdbc.snapshot.path", new File(
+	            						environment.dataFiles()[0], "security/users.snapshot").getPath()));
+	            		filterDef.addInitParameter("security.jdbc.snapshot.sync_interval",
+	            				String.valueOf(settings.getAsTime("security.jdbc.snapshot.sync_interval",
+	            						TimeValue.timeValueMinutes(1)).millis()));
+	            		filterDef.addInitParameter("security.jdbc.snapshot.full_sync_interval",
+	            				String.valueOf(settings.getAsTime("security.jdbc.snapshot.full_sync_interval",
+	            						TimeValue.timeValueHours(1)).millis()));
+	            	}
+	            	filterDef.addInitParameter("security.jdbc.pool.min_size",
+	            			String.valueOf(settings.getAsInt("security.jdbc.pool.min_size", 1)));
+	            	filterDef.addInitParameter("security.jdbc.pool.max_size",
+	            			String.valueOf(settings.getAsInt("security.jdbc.pool.max_size", 10)));
+	            	filterDef.addInitParameter("security.jdbc.pool.acquire_timeout",
+	            			String.valueOf(settings.getAsTime("security.jdbc.pool.acquire_timeout",
+	            					TimeValue.timeValueSeconds(5)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.pool.validation_interval",
+	            			String.valueOf(settings.getAsTime("security.jdbc.pool.validation_interval",
+	            					TimeValue.timeValueSeconds(30)).millis()));
+	            	final String[] replicas = settings.getAsArray("security.jdbc.replicas");
+	            	if (replicas.length > 0) {
+	            		filterDef.addInitParameter("security.jdbc.replicas",
+	            				Strings.arrayToCommaDelimitedString(replicas));
+	            	}
+	            	filterDef.addInitParameter("security.jdbc.replicas.health_check_interval",
+	            			String.valueOf(settings.getAsTime("security.jdbc.replicas.health_check_interval",
+	            					TimeValue.timeValueSeconds(5)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.batch.window",
+	            			String.valueOf(settings.getAsTime("security.jdbc.batch.window",
+	            					TimeValue.timeValueMillis(2)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.batch.max_size",
+	            			String.valueOf(settings.getAsInt("security.jdbc.batch.max_size", 32)));
+	            	filterDef.addInitParameter("security.jdbc.batch.timeout",
+	            			String.valueOf(settings.getAsTime("security.jdbc.batch.timeout",
+	            					TimeValue.timeValueSeconds(10)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.lookup.async",
+	            			String.valueOf(settings.getAsBoolean("security.jdbc.lookup.async", true)));
+	            	filterDef.addInitParameter("security.jdbc.lookup.threads",
+	            			String.valueOf(settings.getAsInt("security.jdbc.lookup.threads",
+	            					settings.getAsInt("security.jdbc.pool.max_size", 10))));
+	            	filterDef.addInitParameter("security.jdbc.lookup.queue_size",
+	            			String.valueOf(settings.getAsInt("security.jdbc.lookup.queue_size", 100)));
+	            	filterDef.addInitParameter("security.jdbc.basic.enabled",
+	            			String.valueOf(settings.getAsBoolean("security.jdbc.basic.enabled", false)));
+	            	filterDef.addInitParameter("security.jdbc.basic.allow_plain",
+	            			String.valueOf(settings.getAsBoolean("security.jdbc.basic.allow_plain", false)));
+	            	filterDef.addInitParameter("security.jdbc.basic.cache.size",
+	            			String.valueOf(settings.getAsLong("security.jdbc.basic.cache.size", 10000L)));
+	            	filterDef.addInitParameter("security.jdbc.basic.cache.ttl",
+	            			String.valueOf(settings.getAsTime("security.jdbc.basic.cache.ttl",
+	            					TimeValue.timeValueMinutes(1)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.basic.threads",
+	            			String.valueOf(settings.getAsInt("security.jdbc.basic.threads", 2)));
+	            	filterDef.addInitParameter("security.jdbc.basic.queue_size",
+	            			String.valueOf(settings.getAsInt("security.jdbc.basic.queue_size", 50)));
+	            	filterDef.addInitParameter("security.jdbc.cache.size",
+	            			String.valueOf(settings.getAsLong("security.jdbc.cache.size", 10000L)));
+	            	filterDef.addInitParameter("security.jdbc.cache.ttl",
+	            			String.valueOf(settings.getAsTime("security.jdbc.cache.ttl",
+	            					TimeValue.timeValueMinutes(5)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.cache.negative_ttl",
+	            			String.valueOf(settings.getAsTime("security.jdbc.cache.negative_ttl",
+	            					TimeValue.timeValueSeconds(30)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.cache.refresh_after",
+	            			String.valueOf(settings.getAsTime("security.jdbc.cache.refresh_after",
+	            					TimeValue.timeValueMinutes(4)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.cache.max_staleness",
+	            			String.valueOf(settings.getAsTime("security.jdbc.cache.max_staleness",
+	            					TimeValue.timeValueHours(1)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.breaker.failure_threshold",
+	            			String.valueOf(settings.getAsInt("security.jdbc.breaker.failure_threshold", 5)));
+	            	filterDef.addInitParameter("security.jdbc.breaker.open_duration",
+	            			String.valueOf(settings.getAsTime("security.jdbc.breaker.open_duration",
+	            					TimeValue.timeValueSeconds(30)).millis()));
+	            	filterDef.addInitParameter("security.jdbc.cache.bloom_filter.enabled",
+	            			String.valueOf(settings.getAsBoolean("security.jdbc.cache.bloom_filter.enabled", false)));
+	            	filterDef.addInitParameter("security.jdbc.cache.bloom_filter.fpp",
+	            			String.valueOf(settings.getAsDouble("security.jdbc.cache.bloom_filter.fpp", 0.01)));
+	            	filterDef.addInitParameter("security.jdbc.cache.bloom_filter.refresh_interval",
+	            			String.valueOf(settings.getAsTime("security.jdbc.cache.bloom_filter.refresh_interval",
+	            					TimeValue.timeValueMinutes(5)).millis()));
 					
 					ctx.addFilterDef(filterDef);
 					final FilterMap filterMap = new FilterMap();
 					filterMap.setFilterName("TokenFilter");
+					filterMap.setDispatcher("REQUEST");
+					filterMap.setDispatcher("ASYNC");
 					filterMap.addURLPattern("/*");
 					ctx.addFilterMap(filterMap);
 
@@ -1,8 +1,11 @@
 package org.elasticsearch.plugins.security.http.tomcat;
 
+import java.util.Set;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.plugins.security.filter.authentication.SecurityContext;
 import org.elasticsearch.plugins.security.filter.authentication.util.TokenUtil;
 import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
 
@@ -17,18 +20,33 @@ public class TomcatUserRoleCallback implements UserRoleCallback {
 	private final HttpServletRequest request;
 	private final String sslUserAttribute;
 	private final TokenUtil tokenUtil;
+	private boolean remoteUserResolved;
+	private String remoteUser;
 
+	/**
+	 * @param tokenUtil
+	 *            null if token authentication is not used
+	 */
 	public TomcatUserRoleCallback(final HttpServletRequest request,
 			String sslUserAttribute, TokenUtil tokenUtil) {
 		this.request = request;
 		this.sslUserAttribute = sslUserAttribute;
 		this.tokenUtil = tokenUtil;
-		this.tokenUtil.init();
 	}
 
 	@Override
 	public String getRemoteuser() {
-		String remoteUser = tokenUtil.getUserName(request);
+		if (!remoteUserResolved) {
+			remoteUser = resolveRemoteuser();
+			remoteUserResolved = true;
+		}
+		return remoteUser;
+	}
+
+	private String resolveRemoteuser() {
+		final SecurityContext context = SecurityContext.get(request);
+		String remoteUser = context != null ? context.getUserName()
+				: tokenUtil != null ? tokenUtil.getUserName(request) : null;
 
 		if (remoteUser != null && !remoteUser.isEmpty()) {
 			if (sslUserAttribute != null
@@ -43,7 +61,19 @@ public class TomcatUserRoleCallback implements UserRoleCallback {
 
 	@Override
 	public boolean isRemoteUserInRole(final String role) {
+		final SecurityContext context = SecurityContext.get(request);
+		if (context != null && context.isUserInRole(role)) {
+			return true;
+		}
 		return request.isUserInRole(role);
 	}
 
+	@Override
+	public Set<String> getRemoteUserRoles() {
+		// roles of token authenticated users are complete, container roles
+		// can only be checked one by one
+		final SecurityContext context = SecurityContext.get(request);
+		return context != null ? context.getRoles() : null;
+	}
+
 }
@@ -0,0 +1,49 @@
+package org.elasticsearch.plugins.security.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.plugins.security.service.SecurityService;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Reports the statistics (caches, lookups, ...) of the security plugin on
+ * the local node.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public class RestSecurityStatsAction extends BaseRestHandler {
+
+	private final SecurityService securityService;
+
+	@Inject
+	public RestSecurityStatsAction(final Settings settings,
+			final RestController controller, final Client client,
+			final SecurityService securityService) {
+		super(settings, controller, client);
+		this.securityService = securityService;
+		controller.registerHandler(GET, "/_security/stats", this);
+	}
+
+	@Override
+	protected void handleRequest(final RestRequest request,
+			final RestChannel channel, final Client client) throws Exception {
+		final XContentBuilder builder = channel.newBuilder();
+
+		builder.startObject();
+		securityService.statsToXContent(builder, request);
+		builder.endObject();
+
+		channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+	}
+
+}
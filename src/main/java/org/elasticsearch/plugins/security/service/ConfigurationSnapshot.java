@@ -0,0 +1,82 @@
+package org.elasticsearch.plugins.security.service;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+/**
+ * Immutable view of a single security configuration document at a given
+ * document version. Instances are swapped atomically by the
+ * {@link SecurityService} whenever the version of the document changes, so
+ * request threads never have to touch the configuration index.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class ConfigurationSnapshot {
+
+	public static final long VERSION_NOT_FOUND = -1L;
+
+	private final String type;
+
+	private final String id;
+
+	private final long version;
+
+	private final BytesReference source;
+
+	private final String json;
+
+	private ConfigurationSnapshot(final String type, final String id,
+			final long version, final BytesReference source, final String json) {
+		this.type = type;
+		this.id = id;
+		this.version = version;
+		this.source = source;
+		this.json = json;
+	}
+
+	static ConfigurationSnapshot of(final String type, final String id,
+			final long version, final BytesReference source)
+			throws IOException {
+		return new ConfigurationSnapshot(type, id, version, source,
+				XContentHelper.convertToJson(source, true));
+	}
+
+	static ConfigurationSnapshot notFound(final String type, final String id) {
+		return new ConfigurationSnapshot(type, id, VERSION_NOT_FOUND, null,
+				null);
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean exists() {
+		return source != null;
+	}
+
+	public BytesReference getSource() {
+		return source;
+	}
+
+	public String getJson() {
+		return json;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigurationSnapshot [type=" + type + ", id=" + id
+				+ ", version=" + version + ", exists=" + exists() + "]";
+	}
+
+}
@@ -6,6 +6,10 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.get.GetResponse;
@@ -14,12 +18,25 @@ import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
-import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.indices.IndexMissingException;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
 import org.elasticsearch.plugins.security.filter.ActionPathFilter;
+import org.elasticsearch.plugins.security.filter.authentication.SecurityContext;
+import org.elasticsearch.plugins.security.filter.authentication.util.TokenUtil;
 import org.elasticsearch.plugins.security.http.tomcat.TomcatHttpServerRestRequest;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolutionCache;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolver;
+import org.elasticsearch.plugins.security.service.resolver.HostNameResolver;
+import org.elasticsearch.plugins.security.service.resolver.InetAddressForwardResolver;
+import org.elasticsearch.plugins.security.service.resolver.InetAddressReverseResolver;
+import org.elasticsearch.plugins.security.service.resolver.ReverseResolver;
+import org.elasticsearch.plugins.security.util.RequestDescriptorCache;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.threadpool.ThreadPool;
 
 /**
  * 
@@ -39,20 +56,129 @@ public class SecurityService extends AbstractLifecycleComponent<SecurityService>
 	private final Client client;
 	private final Settings settings;
 	private final boolean strictModeEnabled;
+	private final ThreadPool threadPool;
+	private final TimeValue configurationReloadInterval;
+	private final ConcurrentMap<String, ConfigurationSnapshot> configurations = new ConcurrentHashMap<String, ConfigurationSnapshot>();
+	private final Map<String, ToXContent> stats = new ConcurrentSkipListMap<String, ToXContent>();
+	private final HostNameResolver hostNameResolver;
+	private final ForwardResolutionCache forwardResolutionCache;
+	private final TimeValue forwardResolutionRefreshInterval;
+	private final RequestDescriptorCache requestDescriptorCache;
+	private volatile TokenUtil tokenUtil;
 
 	@Inject
 	public SecurityService(final Settings settings, final Client client,
-			final RestController restController) {
+			final RestController restController, final ThreadPool threadPool) {
 		super(settings);
 
 		this.settings = settings;
 		this.restController = restController;
 		this.client = client;
+		this.threadPool = threadPool;
 		securityConfigurationIndex = settings.get(
 				"security.configuration.index", DEFAULT_SECURITY_CONFIG_INDEX);
 
 		strictModeEnabled = settings.getAsBoolean(
 				"security.strict", false);
+
+		configurationReloadInterval = settings.getAsTime(
+				"security.configuration.reload_interval",
+				TimeValue.timeValueSeconds(1));
+
+		requestDescriptorCache = new RequestDescriptorCache(settings.getAsLong(
+				"security.cache.request_paths.size", 1000L), strictModeEnabled);
+		registerStats("request_path_cache", requestDescriptorCache);
+
+		hostNameResolver = new HostNameResolver(settings,
+				createReverseResolver(settings));
+		registerStats("reverse_dns", hostNameResolver);
+
+		forwardResolutionRefreshInterval = settings.getAsTime(
+				"security.dns.forward.refresh_interval",
+				TimeValue.timeValueMinutes(5));
+
+		if (settings.getAsBoolean("security.dns.forward.enabled", false)) {
+			forwardResolutionCache = new ForwardResolutionCache(
+					createForwardResolver(settings));
+			registerStats("forward_dns", forwardResolutionCache);
+		} else {
+			forwardResolutionCache = null;
+		}
+	}
+
+	private static ForwardResolver createForwardResolver(
+			final Settings settings) {
+		final Class<? extends ForwardResolver> resolverClass = settings
+				.getAsClass("security.dns.forward.resolver",
+						InetAddressForwardResolver.class);
+		try {
+			return resolverClass.newInstance();
+		} catch (final Exception e) {
+			throw new ElasticsearchException("Unable to create forward resolver "
+					+ resolverClass.getName(), e);
+		}
+	}
+
+	private static ReverseResolver createReverseResolver(
+			final Settings settings) {
+		final Class<? extends ReverseResolver> resolverClass = settings
+				.getAsClass("security.dns.reverse.resolver",
+						InetAddressReverseResolver.class);
+		try {
+			return resolverClass.newInstance();
+		} catch (final Exception e) {
+			throw new ElasticsearchException("Unable to create reverse resolver "
+					+ resolverClass.getName(), e);
+		}
+	}
+
+	/**
+	 * Creates the token util shared by the token filter and the rest filters
+	 * on the first call, so a token verified once is known to both. Only
+	 * token authentication needs it and its key.
+	 *
+	 * @throws IllegalStateException
+	 *             if no valid security.token.key is configured
+	 */
+	public synchronized TokenUtil enableTokens() {
+		if (tokenUtil == null) {
+			final TokenUtil created = new TokenUtil(
+					settings.get("security.token.key"), settings.getAsLong(
+							"security.cache.tokens.size", 10000L),
+					settings.getAsDouble("security.token.renewal_fraction",
+							TokenUtil.DEFAULT_RENEWAL_FRACTION));
+			created.init();
+			if (created.getVerifiedTokenCache() != null) {
+				registerStats("token_cache", created.getVerifiedTokenCache());
+			}
+			tokenUtil = created;
+		}
+		return tokenUtil;
+	}
+
+	/**
+	 * Returns the shared token util, or null if token authentication is not
+	 * used.
+	 */
+	public TokenUtil getTokenUtil() {
+		return tokenUtil;
+	}
+
+	public RequestDescriptorCache getRequestDescriptorCache() {
+		return requestDescriptorCache;
+	}
+
+	public HostNameResolver getHostNameResolver() {
+		return hostNameResolver;
+	}
+
+	/**
+	 * Returns the cache used to resolve host names in host rules when the
+	 * rules are compiled, or null if host names are matched by reverse
+	 * lookups of the client addresses only.
+	 */
+	public ForwardResolutionCache getForwardResolutionCache() {
+		return forwardResolutionCache;
 	}
 
 	public boolean isStrictModeEnabled() {
@@ -73,6 +199,14 @@ public class SecurityService extends AbstractLifecycleComponent<SecurityService>
 				&& enableActionPathFilter.booleanValue()) {
 			restController.registerFilter(new ActionPathFilter(this));
 		}
+
+		threadPool.schedule(configurationReloadInterval,
+				ThreadPool.Names.GENERIC, new ConfigurationPoller());
+
+		if (forwardResolutionCache != null) {
+			threadPool.schedule(forwardResolutionRefreshInterval,
+					ThreadPool.Names.GENERIC, new ForwardResolutionRefresher());
+		}
 	}
 
 	@Override
@@ -83,34 +217,161 @@ public class SecurityService extends AbstractLifecycleComponent<SecurityService>
 	@Override
 	protected void doClose() throws ElasticsearchException {
 		logger.debug("doClose");
+		hostNameResolver.close();
 	}
 
 	public String getXContentSecurityConfiguration(final String type,
 			final String id) throws IOException,
 			MalformedConfigurationException {
-		try {
-			return XContentHelper.convertToJson(
-					getXContentSecurityConfigurationAsBR(type, id), true);
-		} catch (final IOException e) {
-			logger.error("Unable to load type {} and id {} due to {}",
-					type, id, e);
-			return null;
-		}
+		return getSecurityConfiguration(type, id).getJson();
 	}
 
 	public BytesReference getXContentSecurityConfigurationAsBR(
 			final String type, final String id)
 					throws MalformedConfigurationException {
-		final GetResponse resp = client
-				.prepareGet(securityConfigurationIndex, type, id)
-				.setRefresh(true).setOperationThreaded(false).get();
+		return getSecurityConfiguration(type, id).getSource();
+	}
 
-		if (resp.isExists()) {
-			return resp.getSourceAsBytesRef();
-		} else {
+	/**
+	 * Returns the current snapshot of the given configuration document. The
+	 * document is only read from the index the first time it is asked for,
+	 * afterwards it is kept up to date by polling its version in the
+	 * background.
+	 */
+	public ConfigurationSnapshot getSecurityConfiguration(final String type,
+			final String id) throws MalformedConfigurationException {
+		final String key = type + "/" + id;
+
+		ConfigurationSnapshot snapshot = configurations.get(key);
+
+		if (snapshot == null) {
+			snapshot = loadConfiguration(type, id);
+			final ConfigurationSnapshot existing = configurations.putIfAbsent(
+					key, snapshot);
+			if (existing != null) {
+				snapshot = existing;
+			}
+		}
+
+		if (!snapshot.exists()) {
 			throw new MalformedConfigurationException("document type " + type
 					+ " with id " + id + " does not exists");
 		}
+
+		return snapshot;
+	}
+
+	private ConfigurationSnapshot loadConfiguration(final String type,
+			final String id) throws MalformedConfigurationException {
+		try {
+			final GetResponse resp = client
+					.prepareGet(securityConfigurationIndex, type, id)
+					.setRealtime(true).setOperationThreaded(false).get();
+
+			if (!resp.isExists()) {
+				return ConfigurationSnapshot.notFound(type, id);
+			}
+
+			return ConfigurationSnapshot.of(type, id, resp.getVersion(),
+					resp.getSourceAsBytesRef());
+		} catch (final IndexMissingException e) {
+			return ConfigurationSnapshot.notFound(type, id);
+		} catch (final IOException e) {
+			logger.error("Unable to load type {} and id {} due to {}",
+					type, id, e);
+			throw new MalformedConfigurationException(e);
+		}
+	}
+
+	private long currentVersion(final ConfigurationSnapshot snapshot) {
+		try {
+			final GetResponse resp = client
+					.prepareGet(securityConfigurationIndex,
+							snapshot.getType(), snapshot.getId())
+					.setRealtime(true).setFetchSource(false)
+					.setOperationThreaded(false).get();
+
+			return resp.isExists() ? resp.getVersion()
+					: ConfigurationSnapshot.VERSION_NOT_FOUND;
+		} catch (final IndexMissingException e) {
+			return ConfigurationSnapshot.VERSION_NOT_FOUND;
+		}
+	}
+
+	/**
+	 * Compares the version of every configuration document requested so far
+	 * with the one of its snapshot and swaps in a fresh snapshot on change.
+	 */
+	private class ConfigurationPoller implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				for (final ConfigurationSnapshot snapshot : configurations
+						.values()) {
+					try {
+						if (currentVersion(snapshot) == snapshot.getVersion()) {
+							continue;
+						}
+
+						final ConfigurationSnapshot reloaded = loadConfiguration(
+								snapshot.getType(), snapshot.getId());
+						configurations.put(snapshot.getType() + "/"
+								+ snapshot.getId(), reloaded);
+						logger.debug("Security configuration changed: {}",
+								reloaded);
+					} catch (final Exception e) {
+						logger.debug("Unable to poll {}, will retry", e,
+								snapshot);
+					}
+				}
+			} finally {
+				if (lifecycle.started()) {
+					threadPool.schedule(configurationReloadInterval,
+							ThreadPool.Names.GENERIC, this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Resolves the host names of the host rules again, a changed address
+	 * makes the rules to be compiled again on the next request.
+	 */
+	private class ForwardResolutionRefresher implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				forwardResolutionCache.refresh();
+			} catch (final Exception e) {
+				logger.debug("Unable to refresh resolved host names, will retry",
+						e);
+			} finally {
+				if (lifecycle.started()) {
+					threadPool.schedule(forwardResolutionRefreshInterval,
+							ThreadPool.Names.GENERIC, this);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers the statistics of a component under the given name, they are
+	 * reported by the security stats endpoint.
+	 */
+	public void registerStats(final String name, final ToXContent componentStats) {
+		stats.put(name, componentStats);
+	}
+
+	public XContentBuilder statsToXContent(final XContentBuilder builder,
+			final ToXContent.Params params) throws IOException {
+		for (final Map.Entry<String, ToXContent> entry : stats.entrySet()) {
+			builder.startObject(entry.getKey());
+			entry.getValue().toXContent(builder, params);
+			builder.endObject();
+		}
+		return builder;
 	}
 
 	public String getSecurityConfigurationIndex() {
@@ -127,7 +388,11 @@ public class SecurityService extends AbstractLifecycleComponent<SecurityService>
 			throw new UnknownHostException("Original host is <null> or <empty>");
 		}
 
-		final InetAddress iaddr = InetAddress.getByName(oaddr);
+		final SecurityContext context = ((TomcatHttpServerRestRequest) request)
+				.getSecurityContext();
+		final InetAddress iaddr = context != null
+				&& context.getClientAddress() != null ? context
+				.getClientAddress() : InetAddress.getByName(oaddr);
 
 		final String xForwardedForHeader = settings
 				.get("security.http.xforwardedfor.header");
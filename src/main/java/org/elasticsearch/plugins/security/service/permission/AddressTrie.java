@@ -0,0 +1,297 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+import org.elasticsearch.common.net.InetAddresses;
+
+/**
+ * Binary prefix trie over raw IPv4 and IPv6 address bytes. Networks given in
+ * CIDR notation (192.168.0.0/16, 2001:db8::/32) or as address ranges
+ * (10.0.0.1-10.0.0.99) and IPv6 addresses are stored as prefixes, each
+ * carrying the bitset of the rules they belong to. Addresses are only parsed
+ * as literals, compiling the rules never does a name lookup. Looking up an
+ * address walks at most one node per address bit and does no string
+ * formatting.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+final class AddressTrie {
+
+	private final int size;
+
+	private Node ipv4;
+
+	private Node ipv6;
+
+	AddressTrie(final int size) {
+		this.size = size;
+	}
+
+	/**
+	 * Returns true if the given host entry is written in CIDR notation, as an
+	 * address range or is an IPv6 address, as opposed to a hostname or IPv4
+	 * pattern.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the entry is neither a valid network nor a hostname or
+	 *             IPv4 pattern
+	 */
+	static boolean isNetwork(final String host) {
+		final boolean ipv6 = host.indexOf(':') != -1;
+
+		if (host.indexOf('*') != -1) {
+			if (ipv6) {
+				throw new IllegalArgumentException("'" + host
+						+ "' is not a valid host, IPv6 networks must be given in CIDR notation");
+			}
+			return false;
+		}
+
+		final int slash = host.indexOf('/');
+		if (slash != -1) {
+			// host names never contain a slash
+			if (!isAddress(host.substring(0, slash).trim())) {
+				throw new IllegalArgumentException("'" + host
+						+ "' is not a valid network");
+			}
+			return true;
+		}
+
+		final int dash = host.indexOf('-');
+		if (dash != -1) {
+			if (isAddress(host.substring(0, dash).trim())
+					&& isAddress(host.substring(dash + 1).trim())) {
+				return true;
+			}
+			if (ipv6) {
+				throw new IllegalArgumentException("'" + host
+						+ "' is not a valid address range");
+			}
+			// a host name containing a dash
+			return false;
+		}
+
+		if (ipv6) {
+			if (!isAddress(host)) {
+				throw new IllegalArgumentException("'" + host
+						+ "' is not a valid IPv6 address");
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	boolean isEmpty() {
+		return ipv4 == null && ipv6 == null;
+	}
+
+	/**
+	 * Adds a network in CIDR or range notation or a single IPv6 address for
+	 * the rule at the given position.
+	 */
+	void insert(final String network, final int pos) {
+		final int slash = network.indexOf('/');
+
+		if (slash != -1) {
+			final byte[] address = parseAddress(network.substring(0, slash)
+					.trim());
+			final int prefixLength;
+			try {
+				prefixLength = Integer.parseInt(network.substring(slash + 1)
+						.trim());
+			} catch (final NumberFormatException e) {
+				throw new IllegalArgumentException("'" + network
+						+ "' is not a valid network", e);
+			}
+
+			if (prefixLength < 0 || prefixLength > address.length * 8) {
+				throw new IllegalArgumentException("'" + network
+						+ "' is not a valid network");
+			}
+
+			insert(address, prefixLength, pos);
+			return;
+		}
+
+		final int dash = network.indexOf('-');
+		if (dash == -1) {
+			insert(parseAddress(network.trim()), pos);
+			return;
+		}
+
+		final byte[] start = parseAddress(network.substring(0, dash).trim());
+		final byte[] end = parseAddress(network.substring(dash + 1).trim());
+
+		if (start.length != end.length) {
+			throw new IllegalArgumentException("'" + network
+					+ "' mixes IPv4 and IPv6 addresses");
+		}
+
+		insertRange(start, end, pos, network);
+	}
+
+	/**
+	 * Adds a single address for the rule at the given position.
+	 */
+	void insert(final byte[] address, final int pos) {
+		insert(address, address.length * 8, pos);
+	}
+
+	/**
+	 * Adds the positions of all rules containing a network the given address
+	 * belongs to.
+	 */
+	void collect(final byte[] address, final BitSet into) {
+		Node node = address.length == 4 ? ipv4 : ipv6;
+		int bit = 0;
+		final int bits = address.length * 8;
+
+		while (node != null) {
+			if (node.rules != null) {
+				into.or(node.rules);
+			}
+
+			if (bit == bits) {
+				break;
+			}
+
+			node = (address[bit >>> 3] & 0x80 >>> (bit & 7)) == 0 ? node.zero
+					: node.one;
+			bit++;
+		}
+	}
+
+	private void insert(final byte[] address, final int prefixLength,
+			final int pos) {
+		if (address.length == 4) {
+			if (ipv4 == null) {
+				ipv4 = new Node();
+			}
+		} else if (ipv6 == null) {
+			ipv6 = new Node();
+		}
+
+		Node node = address.length == 4 ? ipv4 : ipv6;
+
+		for (int bit = 0; bit < prefixLength; bit++) {
+			if ((address[bit >>> 3] & 0x80 >>> (bit & 7)) == 0) {
+				if (node.zero == null) {
+					node.zero = new Node();
+				}
+				node = node.zero;
+			} else {
+				if (node.one == null) {
+					node.one = new Node();
+				}
+				node = node.one;
+			}
+		}
+
+		if (node.rules == null) {
+			node.rules = new BitSet(size);
+		}
+		node.rules.set(pos);
+	}
+
+	/**
+	 * Splits the range into the smallest set of aligned prefixes covering it.
+	 */
+	private void insertRange(final byte[] start, final byte[] end,
+			final int pos, final String network) {
+		final int bits = start.length * 8;
+		BigInteger current = new BigInteger(1, start);
+		final BigInteger last = new BigInteger(1, end);
+
+		if (current.compareTo(last) > 0) {
+			throw new IllegalArgumentException("'" + network
+					+ "' is not a valid address range");
+		}
+
+		while (current.compareTo(last) <= 0) {
+			final int alignment = current.signum() == 0 ? bits : current
+					.getLowestSetBit();
+			final int fit = last.subtract(current).add(BigInteger.ONE)
+					.bitLength() - 1;
+			final int blockBits = Math.min(alignment, fit);
+
+			insert(toBytes(current, start.length), bits - blockBits, pos);
+			current = current.add(BigInteger.ONE.shiftLeft(blockBits));
+		}
+	}
+
+	private static byte[] toBytes(final BigInteger value, final int length) {
+		final byte[] raw = value.toByteArray();
+		final byte[] bytes = new byte[length];
+		final int copy = Math.min(raw.length, length);
+		System.arraycopy(raw, raw.length - copy, bytes, length - copy, copy);
+		return bytes;
+	}
+
+	private static boolean isAddress(final String address) {
+		if (address.indexOf(':') != -1) {
+			return InetAddresses.isInetAddress(address);
+		}
+		return parseIpv4(address) != null;
+	}
+
+	/**
+	 * Parses an IPv4 or IPv6 literal, never does a name lookup.
+	 */
+	private static byte[] parseAddress(final String address) {
+		if (address.indexOf(':') == -1) {
+			final byte[] ipv4 = parseIpv4(address);
+			if (ipv4 == null) {
+				throw new IllegalArgumentException("'" + address
+						+ "' is not a valid IPv4 address");
+			}
+			return ipv4;
+		}
+
+		// throws IllegalArgumentException for anything but an IPv6 literal
+		return InetAddresses.forString(address).getAddress();
+	}
+
+	private static byte[] parseIpv4(final String address) {
+		final byte[] bytes = new byte[4];
+		int octet = 0;
+		int value = -1;
+
+		for (int i = 0; i < address.length(); i++) {
+			final char c = address.charAt(i);
+			if (c == '.') {
+				if (value == -1 || octet == 3) {
+					return null;
+				}
+				bytes[octet++] = (byte) value;
+				value = -1;
+			} else if (c >= '0' && c <= '9') {
+				value = (value == -1 ? 0 : value * 10) + (c - '0');
+				if (value > 255) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+
+		if (value == -1 || octet != 3) {
+			return null;
+		}
+
+		bytes[3] = (byte) value;
+		return bytes;
+	}
+
+	private static final class Node {
+
+		private Node zero;
+
+		private Node one;
+
+		private BitSet rules;
+	}
+
+}
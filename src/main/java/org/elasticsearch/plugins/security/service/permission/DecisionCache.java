@@ -0,0 +1,199 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.RemovalCause;
+import org.elasticsearch.common.cache.RemovalListener;
+import org.elasticsearch.common.cache.RemovalNotification;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Bounded, concurrent cache of authorization decisions. Each decision is
+ * stored together with the configuration version it was evaluated against,
+ * so decisions of an outdated configuration are never returned.
+ * <p>
+ * The cache is segmented, so reads and writes of different keys only
+ * contend if they happen to fall into the same segment.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class DecisionCache<T> implements ToXContent {
+
+	private final Cache<Key, Decision<T>> cache;
+
+	private final long maxSize;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric evictions = new CounterMetric();
+
+	public DecisionCache(final long maxSize, final int concurrencyLevel) {
+		this.maxSize = maxSize;
+		this.cache = CacheBuilder.newBuilder().maximumSize(maxSize)
+				.concurrencyLevel(concurrencyLevel)
+				.removalListener(new RemovalListener<Key, Decision<T>>() {
+					@Override
+					public void onRemoval(
+							final RemovalNotification<Key, Decision<T>> notification) {
+						if (notification.getCause() == RemovalCause.SIZE) {
+							evictions.inc();
+						}
+					}
+				}).build();
+	}
+
+	public T get(final Key key, final long version) {
+		final Decision<T> decision = cache.getIfPresent(key);
+
+		if (decision == null || decision.version != version) {
+			misses.inc();
+			return null;
+		}
+
+		hits.inc();
+		return decision.value;
+	}
+
+	public void put(final Key key, final long version, final T value) {
+		cache.put(key, new Decision<T>(version, value));
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		builder.field("size", cache.size());
+		builder.field("max_size", maxSize);
+		builder.field("hits", hits.count());
+		builder.field("misses", misses.count());
+		builder.field("evictions", evictions.count());
+		return builder;
+	}
+
+	private static final class Decision<T> {
+
+		private final long version;
+
+		private final T value;
+
+		private Decision(final long version, final T value) {
+			this.version = version;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Everything a decision of the {@link PermEvaluator} depends on. Index,
+	 * type and role lists are normalized because rules match if any of their
+	 * values match, so neither order nor duplicates change the outcome. The
+	 * host name is part of the key, so a decision is not used any more once
+	 * the client address resolves to a different name.
+	 */
+	public static final class Key {
+
+		private final String user;
+
+		private final Collection<String> roles;
+
+		private final InetAddress address;
+
+		private final String hostName;
+
+		private final Collection<String> indices;
+
+		private final Collection<String> types;
+
+		private final int hashCode;
+
+		private Key(final String user, final Collection<String> roles,
+				final InetAddress address, final String hostName,
+				final Collection<String> indices,
+				final Collection<String> types) {
+			this.user = user;
+			this.roles = roles;
+			this.address = address;
+			this.hostName = hostName;
+			this.indices = indices;
+			this.types = types;
+			this.hashCode = Arrays.hashCode(new Object[] { user, roles,
+					address, hostName, indices, types });
+		}
+
+		/**
+		 * @param hostName
+		 *            the host name the decision was evaluated with, null if
+		 *            the rules do not need it
+		 */
+		public static Key of(final String user,
+				final Collection<String> roles, final InetAddress address,
+				final String hostName, final List<String> indices,
+				final List<String> types) {
+			return new Key(user, normalize(roles), address, hostName,
+					normalize(indices), normalize(types));
+		}
+
+		private static Collection<String> normalize(
+				final Collection<String> values) {
+			if (values == null) {
+				return null;
+			}
+
+			if (values.size() <= 1) {
+				return values.isEmpty() ? Collections.<String> emptySet()
+						: Collections.singleton(values.iterator().next());
+			}
+
+			return new TreeSet<String>(values);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hashCode == other.hashCode && equal(user, other.user)
+					&& equal(address, other.address)
+					&& equal(hostName, other.hostName)
+					&& equal(indices, other.indices)
+					&& equal(types, other.types)
+					&& equal(roles, other.roles);
+		}
+
+		private static boolean equal(final Object a, final Object b) {
+			return a == null ? b == null : a.equals(b);
+		}
+
+		@Override
+		public String toString() {
+			return "Key [user=" + user + ", roles=" + roles + ", address="
+					+ address + ", hostName=" + hostName + ", indices="
+					+ indices + ", types=" + types + "]";
+		}
+	}
+
+}
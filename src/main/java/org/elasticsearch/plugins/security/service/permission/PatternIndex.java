@@ -0,0 +1,168 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of one rule attribute (users, roles, hosts, indices or
+ * types). Every distinct value maps to the bitset of the positions of the
+ * rules containing it, rules which match always (no value or *) are kept in
+ * a separate bitset.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+final class PatternIndex {
+
+	private final int size;
+
+	private final BitSet any;
+
+	private final Map<String, BitSet> exact;
+
+	private final WildcardMatcher[] wildcards;
+
+	private final BitSet[] wildcardRules;
+
+	private PatternIndex(final int size, final BitSet any,
+			final Map<String, BitSet> exact, final Map<String, BitSet> wildcards) {
+		this.size = size;
+		this.any = any;
+		this.exact = exact;
+		this.wildcards = new WildcardMatcher[wildcards.size()];
+		this.wildcardRules = new BitSet[wildcards.size()];
+
+		int i = 0;
+		for (final Map.Entry<String, BitSet> entry : wildcards.entrySet()) {
+			this.wildcards[i] = new WildcardMatcher(entry.getKey());
+			this.wildcardRules[i] = entry.getValue();
+			i++;
+		}
+	}
+
+	/**
+	 * @param values
+	 *            the values of the attribute, one set per rule position
+	 * @param wildcards
+	 *            whether values containing * are patterns or literals
+	 */
+	static PatternIndex build(final List<Set<String>> values,
+			final boolean wildcards) {
+		final BitSet any = new BitSet(values.size());
+
+		for (int pos = 0; pos < values.size(); pos++) {
+			if (matchesAlways(values.get(pos))) {
+				any.set(pos);
+			}
+		}
+
+		return build(values, any, wildcards);
+	}
+
+	/**
+	 * @param values
+	 *            the values of the attribute, one set per rule position
+	 * @param any
+	 *            the positions of the rules which match always, their
+	 *            values are ignored
+	 * @param wildcards
+	 *            whether values containing * are patterns or literals
+	 */
+	static PatternIndex build(final List<Set<String>> values,
+			final BitSet any, final boolean wildcards) {
+		final int size = values.size();
+		final Map<String, BitSet> exact = new HashMap<String, BitSet>();
+		final Map<String, BitSet> patterns = new LinkedHashMap<String, BitSet>();
+
+		for (int pos = 0; pos < size; pos++) {
+			if (any.get(pos)) {
+				continue;
+			}
+
+			for (final String value : values.get(pos)) {
+				final Map<String, BitSet> target = wildcards
+						&& value.indexOf('*') != -1 ? patterns : exact;
+				BitSet rules = target.get(value);
+				if (rules == null) {
+					rules = new BitSet(size);
+					target.put(value, rules);
+				}
+				rules.set(pos);
+			}
+		}
+
+		return new PatternIndex(size, any, exact, patterns);
+	}
+
+	static boolean matchesAlways(final Set<String> values) {
+		return values.isEmpty() || values.contains("*");
+	}
+
+	BitSet newMatchAny() {
+		final BitSet matches = new BitSet(size);
+		matches.or(any);
+		return matches;
+	}
+
+	Set<Map.Entry<String, BitSet>> exactEntries() {
+		return exact.entrySet();
+	}
+
+	/**
+	 * Adds the positions of all rules where the given value is equal to a
+	 * rule value.
+	 */
+	void collectExact(final String value, final BitSet into) {
+		if (value != null) {
+			final BitSet rules = exact.get(value);
+			if (rules != null) {
+				into.or(rules);
+			}
+		}
+	}
+
+	/**
+	 * Adds the positions of all rules where the given value and a rule value
+	 * match in either direction, taken as wildcard patterns.
+	 */
+	void collect(final String value, final BitSet into) {
+		if (value == null) {
+			return;
+		}
+
+		collectExact(value, into);
+
+		for (int i = 0; i < wildcards.length; i++) {
+			if (wildcards[i].matches(value)) {
+				into.or(wildcardRules[i]);
+			}
+		}
+
+		if (value.indexOf('*') != -1) {
+			for (final Map.Entry<String, BitSet> entry : exact.entrySet()) {
+				if (WildcardMatcher.matches(value, entry.getKey())) {
+					into.or(entry.getValue());
+				}
+			}
+
+			for (int i = 0; i < wildcards.length; i++) {
+				if (WildcardMatcher.matches(value, wildcards[i].getPattern())) {
+					into.or(wildcardRules[i]);
+				}
+			}
+		}
+	}
+
+	void collectAll(final List<String> values, final BitSet into) {
+		if (values != null) {
+			for (int i = 0; i < values.size(); i++) {
+				collect(values.get(i), into);
+			}
+		}
+	}
+
+}
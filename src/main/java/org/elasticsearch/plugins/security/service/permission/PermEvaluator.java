@@ -1,16 +1,22 @@
 package org.elasticsearch.plugins.security.service.permission;
 
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 
+import org.elasticsearch.common.collect.ImmutableSet;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.plugins.security.MalformedConfigurationException;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolver;
 
 /**
  * 
@@ -22,10 +28,39 @@ public abstract class PermEvaluator<T> {
 
 	protected static final ESLogger log = Loggers
 			.getLogger(PermEvaluator.class);
-	protected final String xSecurityConfiguration;
-	protected XContentParser parser = null;
 
-	protected PermEvaluator(final String xSecurityConfiguration) {
+	private final List<Perm<T>> perms;
+
+	private final T defaultPermLevel;
+
+	private final PatternIndex userIndex;
+	private final PatternIndex roleIndex;
+	private final PatternIndex hostIndex;
+	private final AddressTrie networkIndex;
+	private final boolean requiresHostName;
+	private final PatternIndex indexIndex;
+	private final PatternIndex typeIndex;
+
+	/**
+	 * Parses and compiles the given security configuration. The resulting
+	 * evaluator is immutable and meant to be shared between all request
+	 * threads, so
+	 * {@link #evaluatePerm(List, List, InetAddress, String, UserRoleCallback)}
+	 * only has to match the already compiled rules.
+	 * <p>
+	 * For every rule attribute an inverted index from value to the bitset of
+	 * rule positions is built. A request is answered by intersecting the
+	 * bitsets of all attributes and taking the lowest set bit, which is the
+	 * first matching rule.
+	 *
+	 * @param forwardResolver
+	 *            if not null, host names (without wildcards) in host rules
+	 *            are resolved to addresses now, so clients do not need to be
+	 *            reverse resolved to match them
+	 */
+	protected PermEvaluator(final String xSecurityConfiguration,
+			final ForwardResolver forwardResolver)
+			throws MalformedConfigurationException {
 		super();
 
 		if (xSecurityConfiguration == null || xSecurityConfiguration.isEmpty()) {
@@ -33,7 +68,86 @@ public abstract class PermEvaluator<T> {
 					"securityconfiguration must not be null or empty");
 		}
 
-		this.xSecurityConfiguration = xSecurityConfiguration;
+		final List<Perm<T>> parsed = parse(xSecurityConfiguration);
+
+		T defaultPermLevel = null;
+		final List<Perm<T>> perms = new ArrayList<Perm<T>>(parsed.size());
+
+		for (final Perm<T> p : parsed) {
+			if (p.isDefault()) {
+				if (defaultPermLevel == null) {
+					defaultPermLevel = p.permLevel;
+					if (log.isDebugEnabled()) {
+						log.debug("Default set to " + defaultPermLevel);
+					}
+				}
+			} else {
+				perms.add(p);
+			}
+		}
+
+		if (defaultPermLevel == null) {
+			throw new MalformedConfigurationException(
+					"No default configuration found");
+		}
+
+		this.defaultPermLevel = defaultPermLevel;
+		this.perms = Collections.unmodifiableList(perms);
+
+		final List<Set<String>> users = new ArrayList<Set<String>>(perms.size());
+		final List<Set<String>> roles = new ArrayList<Set<String>>(perms.size());
+		final List<Set<String>> hosts = new ArrayList<Set<String>>(perms.size());
+		final List<Set<String>> indices = new ArrayList<Set<String>>(perms.size());
+		final List<Set<String>> types = new ArrayList<Set<String>>(perms.size());
+		final BitSet anyHost = new BitSet(perms.size());
+		boolean requiresHostName = false;
+		final AddressTrie networks = new AddressTrie(perms.size());
+
+		try {
+			for (int pos = 0; pos < perms.size(); pos++) {
+				final Perm<T> p = perms.get(pos);
+				users.add(p.users);
+				roles.add(p.roles);
+				indices.add(p.indices);
+				types.add(p.types);
+
+				if (PatternIndex.matchesAlways(p.inetAddresses)) {
+					anyHost.set(pos);
+					hosts.add(p.inetAddresses);
+					continue;
+				}
+
+				// networks (CIDR or ranges) and, if a forward resolver is
+				// given, the addresses of plain host names go into the trie,
+				// everything else is matched as hostname or ip pattern
+				final Set<String> names = new HashSet<String>();
+				for (final String host : p.inetAddresses) {
+					if (AddressTrie.isNetwork(host)) {
+						networks.insert(host, pos);
+					} else if (forwardResolver != null
+							&& isHostNamePattern(host)
+							&& host.indexOf('*') == -1
+							&& insertResolved(forwardResolver, host, networks,
+									pos)) {
+						// matched by its addresses from now on
+					} else {
+						names.add(host);
+						requiresHostName |= isHostNamePattern(host);
+					}
+				}
+				hosts.add(names);
+			}
+		} catch (final IllegalArgumentException e) {
+			throw new MalformedConfigurationException(e);
+		}
+
+		this.userIndex = PatternIndex.build(users, false);
+		this.roleIndex = PatternIndex.build(roles, false);
+		this.hostIndex = PatternIndex.build(hosts, anyHost, true);
+		this.networkIndex = networks.isEmpty() ? null : networks;
+		this.requiresHostName = requiresHostName;
+		this.indexIndex = PatternIndex.build(indices, true);
+		this.typeIndex = PatternIndex.build(types, true);
 	}
 
 	protected abstract T createFromString(String s);
@@ -42,62 +156,66 @@ public abstract class PermEvaluator<T> {
 
 	protected abstract String getPermissionFieldName();
 
-	public T evaluatePerm(final List<String> indices, final List<String> types,
-			final InetAddress hostAddress, final UserRoleCallback callback)
-					throws MalformedConfigurationException {
-	    
+	private List<Perm<T>> parse(final String xSecurityConfiguration)
+			throws MalformedConfigurationException {
+
 		final List<Perm<T>> perms = new ArrayList<Perm<T>>();
+		final Set<Perm<T>> seen = new HashSet<Perm<T>>();
+
+		XContentParser parser = null;
 
 		try {
 
-			this.parser = XContentFactory.xContent(this.xSecurityConfiguration)
-					.createParser(this.xSecurityConfiguration);
+			parser = XContentFactory.xContent(xSecurityConfiguration)
+					.createParser(xSecurityConfiguration);
 
 			final String permissionFieldName = this.getPermissionFieldName();
 
 			XContentParser.Token token = null;
 			String currentFieldName = null;
-			Perm<T> currentPerm = null;
-			while ((token = this.parser.nextToken()) != null) {
+			PermBuilder<T> currentPerm = null;
+			while ((token = parser.nextToken()) != null) {
 
 				if (token == XContentParser.Token.START_OBJECT) {
-					currentPerm = new Perm<T>();
+					currentPerm = new PermBuilder<T>();
 
 				} else if (token == XContentParser.Token.END_OBJECT) {
-					if (currentPerm != null && perms.contains(currentPerm)) {
-						log.error("Duplicate permissions " + currentPerm);
-						throw new MalformedConfigurationException(
-								"Duplicate permissions found");
-					}
-
 					if (currentPerm != null) {
-					    if(currentPerm.permLevel == null){
-					        currentPerm.permLevel = getDefaultPermLevelForEvaluator();
-					    }
-					    
-						perms.add(currentPerm);
+						if (currentPerm.permLevel == null) {
+							currentPerm.permLevel = getDefaultPermLevelForEvaluator();
+						}
+
+						final Perm<T> perm = currentPerm.build();
+
+						if (!seen.add(perm)) {
+							log.error("Duplicate permissions " + perm);
+							throw new MalformedConfigurationException(
+									"Duplicate permissions found");
+						}
+
+						perms.add(perm);
 						currentPerm = null;
 					}
 
 				} else if (token == XContentParser.Token.FIELD_NAME) {
-					currentFieldName = this.parser.currentName();
+					currentFieldName = parser.currentName();
 
 				} else if (token.isValue()) {
 
 					if ("hosts".equals(currentFieldName)) {
-						currentPerm.addInetAddress(this.parser.text());
+						currentPerm.addInetAddress(parser.text());
 					}
 					if ("users".equals(currentFieldName)) {
-						currentPerm.addUser(this.parser.text());
+						currentPerm.addUser(parser.text());
 					}
 					if ("roles".equals(currentFieldName)) {
-						currentPerm.addRole(this.parser.text());
+						currentPerm.addRole(parser.text());
 					} else if ("indices".equals(currentFieldName)) {
-						currentPerm.addIndice(this.parser.text());
+						currentPerm.addIndice(parser.text());
 					} else if ("types".equals(currentFieldName)) {
-						currentPerm.addType(this.parser.text());
+						currentPerm.addType(parser.text());
 					} else if (permissionFieldName.equals(currentFieldName)) {
-						final String text = this.parser.text();
+						final String text = parser.text();
 						currentPerm.setPermLevel(this
 								.createFromString(text == null ? null : text
 										.trim()));
@@ -106,200 +224,236 @@ public abstract class PermEvaluator<T> {
 				}
 
 			}
+		} catch (final MalformedConfigurationException e) {
+			throw e;
 		} catch (final Exception e) {
 			throw new MalformedConfigurationException(e);
 		} finally {
-			this.parser.close();
+			if (parser != null) {
+				parser.close();
+			}
 		}
-		
-		log.debug("Checking " + perms.size() + " perms");
 
-		T permLevel = null;
+		return perms;
+	}
 
-		for (final Perm<T> p : perms) {
-			if (p.isDefault()) {
-				permLevel = p.permLevel;
-				if (log.isDebugEnabled()) {
-					log.debug("Default set to " + permLevel);
-				}
-				break;
+	/**
+	 * Returns true if at least one rule contains a host name (pattern), only
+	 * then the host name of the client has to be resolved.
+	 */
+	public boolean requiresHostName() {
+		return requiresHostName;
+	}
+
+	private static boolean insertResolved(final ForwardResolver resolver,
+			final String host, final AddressTrie networks, final int pos) {
+		try {
+			for (final InetAddress address : resolver.resolve(host)) {
+				networks.insert(address.getAddress(), pos);
 			}
+			return true;
+		} catch (final UnknownHostException e) {
+			log.warn("Unable to resolve host {}, will match it by reverse lookups",
+					host);
+			return false;
 		}
+	}
 
-		if (permLevel == null) {
-			throw new MalformedConfigurationException(
-					"No default configuration found");
+	private static boolean isHostNamePattern(final String host) {
+		if (host.indexOf(':') != -1) {
+			return false;
 		}
 
-		final String clientHostName = hostAddress.getHostName();
-		final String clientHostIp = hostAddress.getHostAddress();
-		
-		permloop: for (final Perm<T> p : perms) {
-			if (p.isDefault()) {
-				continue;
+		for (int i = 0; i < host.length(); i++) {
+			final char c = host.charAt(i);
+			if (c != '.' && c != '*' && (c < '0' || c > '9')) {
+				return true;
 			}
+		}
 
-			String _role = null;
-			String _host = null;
-
-			log.debug("Check perm " + p);
-			if (!p.users.isEmpty() && !p.users.contains("*") && (callback == null || 
-					callback.getRemoteuser() == null || !p.users.contains(callback.getRemoteuser()))) {
-				if(callback != null) {
-			        log.debug("User " + callback.getRemoteuser()
-					+ " does not match, so skip this permission");
-				} else {
-				    log.debug("No callback");
-				}
-				continue permloop;
-			}
+		return false;
+	}
 
-			log.debug("User "
-					+ (callback == null ? "" : callback.getRemoteuser())
-					+ " match");
+	/**
+	 * @param hostName
+	 *            the already resolved host name of the client, may be null
+	 *            if {@link #requiresHostName()} is false
+	 */
+	public T evaluatePerm(final List<String> indices, final List<String> types,
+			final InetAddress hostAddress, final String hostName,
+			final UserRoleCallback callback) {
+	    
+		if (log.isDebugEnabled()) {
+			log.debug("Checking " + perms.size() + " perms");
+		}
 
-			if (!p.roles.contains("*") && !p.roles.isEmpty()) {
-				if (callback == null) {
-					log.debug("Role does not match, so skip this permission");
-					continue permloop;
-				}
+		final String remoteUser = callback == null ? null : callback
+				.getRemoteuser();
 
-				for (final String role : p.roles) {
-					if (callback.isRemoteUserInRole(role)) {
-						log.debug("Role " + role + " match");
-						_role = role;
-						break;
-					}
-				}
+		final BitSet candidates = userIndex.newMatchAny();
+		userIndex.collectExact(remoteUser, candidates);
 
-				if (_role == null) {
-					log.debug("Role does not match, so skip this permission");
-					continue permloop;
-				}
-			}
+		if (candidates.isEmpty()) {
+			return noMatch();
+		}
 
-			if (!p.inetAddresses.contains("*") && !p.inetAddresses.isEmpty()) {
-				for (final String pinetAddress : p.inetAddresses) {
-					if (isWildcardMatch(pinetAddress, clientHostName) || isWildcardMatch(pinetAddress, clientHostIp)) {
-						log.debug("Host adress " + pinetAddress + " match");
-						_host = pinetAddress;
-						break;
-					}
-				}
+		final BitSet hostMatches = hostIndex.newMatchAny();
+		hostIndex.collect(hostAddress.getHostAddress(), hostMatches);
+		hostIndex.collect(hostName, hostMatches);
+		if (networkIndex != null) {
+			networkIndex.collect(hostAddress.getAddress(), hostMatches);
+		}
+		candidates.and(hostMatches);
 
-				if (_host == null) {
-					log.debug("Host adress (" + clientHostIp + "(ip) and "
-							+ clientHostName + " (hostname) does not match, so skip this permission");
-					continue permloop;
-				}
-			}
+		if (candidates.isEmpty()) {
+			return noMatch();
+		}
 
-			if (!p.types.isEmpty() && !p.types.contains("*")) {
-				boolean typeMatch=false;
-				
-				typeloop:
-				for (final String pType : p.types) {
-					
-					for (final String tType : types) {
-						if (isWildcardMatch(tType, pType)) {
-							log.debug("Type "+pType+" match " + tType + "");
-							typeMatch=true;
-							break typeloop;
-
-						} else {
-							log.debug("Type "+pType+" not match " + tType + "");
-						}
-					}
-				}
-				
-				if(!typeMatch) {
-					log.debug("No type matches, so skip this permission ["
-							+ p.types + " != " + types + "]");
-					continue permloop;
-				}
-			}
+		final BitSet typeMatches = typeIndex.newMatchAny();
+		typeIndex.collectAll(types, typeMatches);
+		candidates.and(typeMatches);
 
-			log.debug("All types matches");
-
-			if ( !p.indices.isEmpty() && !p.indices.contains("*")) {
-				boolean indexMatch=false;
-				
-				indexloop:
-                for (final String pIndex : p.indices) {
-					
-                    if(indices != null) {
-                        for (final String tIndex : indices) {
-                            if (isWildcardMatch(tIndex, pIndex)) {
-                                log.debug("Index "+pIndex+" match " + tIndex + "");
-                                indexMatch=true;
-                                break indexloop;
-
-                            } else {
-                                log.debug("Index "+pIndex+" not match " + tIndex + "");
-                            }
-                            
-                        }
-                    }
-					
-				}
+		if (candidates.isEmpty()) {
+			return noMatch();
+		}
 
-				if(!indexMatch) {
-					log.debug("No index matches, so skip this permission ["
-							+ p.indices + " != " + indices + "]");
-					continue permloop;
-				}
-			} else {
-				if((indices == null || indices.isEmpty()) && !p.indices.isEmpty() && !p.indices.contains("*") ) { 
-					log.debug("Not all indexes match because no index specified, so skip this permission ["
-							+ p.indices + " != " + indices + "]");
-					continue permloop;
-					
+		final BitSet indexMatches = indexIndex.newMatchAny();
+		indexIndex.collectAll(indices, indexMatches);
+		candidates.and(indexMatches);
+
+		if (candidates.isEmpty()) {
+			return noMatch();
+		}
+
+		final BitSet roleMatches = roleIndex.newMatchAny();
+		final Set<String> userRoles = callback == null ? null : callback
+				.getRemoteUserRoles();
+		if (userRoles != null) {
+			for (final String role : userRoles) {
+				roleIndex.collectExact(role, roleMatches);
+			}
+		} else if (callback != null) {
+			for (final Map.Entry<String, BitSet> role : roleIndex
+					.exactEntries()) {
+				// only ask for roles which can still change the result
+				if (role.getValue().intersects(candidates)
+						&& callback.isRemoteUserInRole(role.getKey())) {
+					roleMatches.or(role.getValue());
 				}
 			}
-			log.debug("All rules match, will apply " + p);
-			return p.permLevel;
+		}
+		candidates.and(roleMatches);
+
+		final int first = candidates.nextSetBit(0);
 
+		if (first == -1) {
+			return noMatch();
 		}
 
-		log.debug("No rules matched, will apply default perm " + permLevel);
-		return permLevel;
+		final Perm<T> p = perms.get(first);
+		log.debug("All rules match, will apply " + p);
+		return p.permLevel;
 	}
 
-	protected static class Perm<T> {
-
-		private final List<String> inetAddresses = new ArrayList<String>();
-		private final List<String> users = new ArrayList<String>();
-		private final List<String> roles = new ArrayList<String>();
-		private final List<String> indices = new ArrayList<String>();
-		private final List<String> types = new ArrayList<String>();
+	private T noMatch() {
+		log.debug("No rules matched, will apply default perm " + defaultPermLevel);
+		return defaultPermLevel;
+	}
 
-		private T permLevel = null;
+	/**
+	 * A single compiled rule. Instances are immutable and all attribute lists
+	 * are kept as sets.
+	 */
+	protected static final class Perm<T> {
+
+		private final Set<String> inetAddresses;
+		private final Set<String> users;
+		private final Set<String> roles;
+		private final Set<String> indices;
+		private final Set<String> types;
+
+		private final T permLevel;
+
+		private Perm(final PermBuilder<T> builder) {
+			this.inetAddresses = ImmutableSet.copyOf(builder.inetAddresses);
+			this.users = ImmutableSet.copyOf(builder.users);
+			this.roles = ImmutableSet.copyOf(builder.roles);
+			this.indices = ImmutableSet.copyOf(builder.indices);
+			this.types = ImmutableSet.copyOf(builder.types);
+			this.permLevel = builder.permLevel;
+		}
 
 		public boolean isValid() {
 			return this.permLevel != null;
 		}
 
 		public boolean isDefault() {
+			return isDefault(this.inetAddresses) && isDefault(this.users)
+					&& isDefault(this.roles) && isDefault(this.types)
+					&& isDefault(this.indices);
+		}
+
+		private static boolean isDefault(final Set<String> values) {
+			return values.isEmpty() || values.size() == 1
+					&& values.contains("*");
+		}
+
+		public T getPermLevel() {
+			return this.permLevel;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + this.indices.hashCode();
+			result = prime * result + this.inetAddresses.hashCode();
+			result = prime * result + this.roles.hashCode();
+			result = prime * result + this.types.hashCode();
+			result = prime * result + this.users.hashCode();
+			return result;
+		}
 
-			if (this.inetAddresses.isEmpty() && this.users.isEmpty()
-					&& this.roles.isEmpty() && this.indices.isEmpty()
-					&& this.types.isEmpty()) {
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
 				return true;
 			}
+			if (obj == null || this.getClass() != obj.getClass()) {
+				return false;
+			}
+			final Perm<?> other = (Perm<?>) obj;
+			return this.indices.equals(other.indices)
+					&& this.inetAddresses.equals(other.inetAddresses)
+					&& this.roles.equals(other.roles)
+					&& this.users.equals(other.users)
+					&& this.types.equals(other.types);
+		}
 
-			return (this.inetAddresses.isEmpty() ? true : this.inetAddresses
-					.size() == 1 && "*".equals(this.inetAddresses.get(0)))
-					&& (this.users.isEmpty() ? true : this.users.size() == 1
-					&& "*".equals(this.users.get(0)))
-					&& (this.roles.isEmpty() ? true : this.roles.size() == 1
-					&& "*".equals(this.roles.get(0)))
-					&& (this.types.isEmpty() ? true : this.types.size() == 1
-					&& "*".equals(this.types.get(0)))
-					&& (this.indices.isEmpty() ? true
-							: this.indices.size() == 1
-							&& "*".equals(this.indices.get(0)));
+		@Override
+		public String toString() {
+			return "Perm [inetAddresses=" + this.inetAddresses + ", users="
+					+ this.users + ", roles=" + this.roles + ", indices="
+					+ this.indices + ", types=" + this.types + ", permLevel="
+					+ this.permLevel + ", isValid()=" + this.isValid()
+					+ ", isDefault()=" + this.isDefault() + "]";
 		}
 
+	}
+
+	/**
+	 * Collects the attributes of one rule while the configuration is parsed.
+	 */
+	protected static class PermBuilder<T> {
+
+		private final List<String> inetAddresses = new ArrayList<String>();
+		private final List<String> users = new ArrayList<String>();
+		private final List<String> roles = new ArrayList<String>();
+		private final List<String> indices = new ArrayList<String>();
+		private final List<String> types = new ArrayList<String>();
+
+		private T permLevel = null;
+
 		public void addInetAddress(final String inetAddress) {
 			if (inetAddress == null || inetAddress.isEmpty()
 					|| inetAddress.contains(",")) {
@@ -351,132 +505,10 @@ public abstract class PermEvaluator<T> {
 			this.permLevel = permLevel;
 		}
 
-		public Perm() {
-
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result
-					+ (this.indices == null ? 0 : this.indices.hashCode());
-			result = prime
-					* result
-					+ (this.inetAddresses == null ? 0 : this.inetAddresses
-							.hashCode());
-			result = prime * result
-					+ (this.roles == null ? 0 : this.roles.hashCode());
-			result = prime * result
-					+ (this.types == null ? 0 : this.types.hashCode());
-			result = prime * result
-					+ (this.users == null ? 0 : this.users.hashCode());
-			return result;
-		}
-
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj) {
-				// log.debug("perm ==");
-				return true;
-			}
-			if (obj == null) {
-				// log.debug("perm other null");
-				return false;
-			}
-			if (this.getClass() != obj.getClass()) {
-				// log.debug("perm class mismatch");
-				return false;
-			}
-			final Perm<?> other = (Perm<?>) obj;
-			if (this.indices == null) {
-				if (other.indices != null) {
-					return false;
-				}
-			} else if (!equalLists(this.indices, other.indices)) {
-				// log.debug("perm list not match: indices");
-				return false;
-			}
-			if (this.inetAddresses == null) {
-				if (other.inetAddresses != null) {
-					return false;
-				}
-			} else if (!equalLists(this.inetAddresses, other.inetAddresses)) {
-				// log.debug("perm list not match: inetaddr");
-				return false;
-			}
-			if (this.roles == null) {
-				if (other.roles != null) {
-					return false;
-				}
-			} else if (!equalLists(this.roles, other.roles)) {
-				// log.debug("perm list not match: roles");
-				return false;
-			}
-			if (this.users == null) {
-				if (other.users != null) {
-					return false;
-				}
-			} else if (!equalLists(this.users, other.users)) {
-				// log.debug("perm list not match: users");
-				return false;
-			}
-
-			if (this.types == null) {
-				if (other.types != null) {
-					return false;
-				}
-			} else if (!equalLists(this.types, other.types)) {
-				// log.debug("perm list not match: types");
-				return false;
-			}
-
-			return true;
-		}
-
-		@Override
-		public String toString() {
-			return "Perm [inetAddresses=" + this.inetAddresses + ", users="
-					+ this.users + ", roles=" + this.roles + ", indices="
-					+ this.indices + ", types=" + this.types + ", permLevel="
-					+ this.permLevel + ", isValid()=" + this.isValid()
-					+ ", isDefault()=" + this.isDefault() + "]";
+		public Perm<T> build() {
+			return new Perm<T>(this);
 		}
 
 	}
 
-	private static boolean equalLists(final List<String> one,
-			final List<String> two) {
-		if (one == null && two == null) {
-			return true;
-		}
-
-		if (one == null && two != null || one != null && two == null
-				|| one.size() != two.size()) {
-			return false;
-		}
-
-		return one.containsAll(two) && two.containsAll(one);
-	}
-
-	
-	private boolean isWildcardMatch(String a, String b) {
-		
-		String escapedA = a.replace(".", "\\.").replace("*",
-				".*");
-		
-		Pattern p = Pattern.compile(escapedA);
-		Matcher m = p.matcher(b);
-		if(m.matches()){
-			return true;
-		} else {
-			String escapedB = b.replace(".", "\\.").replace("*",
-					".*");
-			
-			p = Pattern.compile(escapedB);
-			m = p.matcher(a);
-			return m.matches();
-		}
-	}
-	
 }
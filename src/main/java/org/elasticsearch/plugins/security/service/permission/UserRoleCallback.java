@@ -1,5 +1,7 @@
 package org.elasticsearch.plugins.security.service.permission;
 
+import java.util.Set;
+
 /**
  * 
  * @author Hendrik Saly
@@ -11,4 +13,11 @@ public interface UserRoleCallback {
 
 	public boolean isRemoteUserInRole(String role);
 
+	/**
+	 * Returns all roles of the remote user, or null if they are not known in
+	 * advance and have to be checked one by one with
+	 * {@link #isRemoteUserInRole(String)}.
+	 */
+	public Set<String> getRemoteUserRoles();
+
 }
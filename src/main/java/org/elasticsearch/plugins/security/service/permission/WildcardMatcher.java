@@ -0,0 +1,137 @@
+package org.elasticsearch.plugins.security.service.permission;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precompiled glob pattern where the wildcard character (*) matches any
+ * sequence of characters including the empty one. All other characters are
+ * matched literally. Matching does not allocate.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class WildcardMatcher {
+
+	private final String pattern;
+
+	private final boolean wildcard;
+
+	private final String prefix;
+
+	private final String suffix;
+
+	private final String[] parts;
+
+	private final int minLength;
+
+	public WildcardMatcher(final String pattern) {
+		if (pattern == null) {
+			throw new IllegalArgumentException("pattern must not be null");
+		}
+
+		this.pattern = pattern;
+
+		final int first = pattern.indexOf('*');
+		wildcard = first != -1;
+
+		if (!wildcard) {
+			prefix = pattern;
+			suffix = "";
+			parts = new String[0];
+			minLength = pattern.length();
+			return;
+		}
+
+		final int last = pattern.lastIndexOf('*');
+		prefix = pattern.substring(0, first);
+		suffix = pattern.substring(last + 1);
+
+		final List<String> middle = new ArrayList<String>();
+		int minLength = prefix.length() + suffix.length();
+		int start = first + 1;
+		while (start <= last) {
+			final int end = pattern.indexOf('*', start);
+			if (end > start) {
+				final String part = pattern.substring(start, end);
+				middle.add(part);
+				minLength += part.length();
+			}
+			start = end + 1;
+		}
+
+		this.parts = middle.toArray(new String[middle.size()]);
+		this.minLength = minLength;
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public boolean isWildcard() {
+		return wildcard;
+	}
+
+	public boolean matches(final String text) {
+		if (!wildcard) {
+			return pattern.equals(text);
+		}
+
+		if (text.length() < minLength || !text.startsWith(prefix)
+				|| !text.endsWith(suffix)) {
+			return false;
+		}
+
+		int pos = prefix.length();
+		final int end = text.length() - suffix.length();
+
+		for (int i = 0; i < parts.length; i++) {
+			final int found = text.indexOf(parts[i], pos);
+			if (found == -1 || found + parts[i].length() > end) {
+				return false;
+			}
+			pos = found + parts[i].length();
+		}
+
+		return true;
+	}
+
+	/**
+	 * Matches an uncompiled glob pattern, used for patterns which are only
+	 * known at request time (for example wildcard index names).
+	 */
+	public static boolean matches(final String pattern, final String text) {
+		int p = 0;
+		int t = 0;
+		int star = -1;
+		int mark = 0;
+
+		while (t < text.length()) {
+			if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				mark = t;
+			} else if (p < pattern.length()
+					&& pattern.charAt(p) == text.charAt(t)) {
+				p++;
+				t++;
+			} else if (star != -1) {
+				p = star + 1;
+				t = ++mark;
+			} else {
+				return false;
+			}
+		}
+
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+
+		return p == pattern.length();
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+}
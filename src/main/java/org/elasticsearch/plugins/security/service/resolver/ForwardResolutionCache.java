@@ -0,0 +1,123 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Remembers the addresses of the host names used in host rules. Names are
+ * resolved once when the rules are compiled and then refreshed in the
+ * background by {@link #refresh()}. Whenever the addresses of a name change
+ * the {@link #generation()} is increased, which tells the owner of the
+ * compiled rules to compile them again.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public class ForwardResolutionCache implements ForwardResolver, ToXContent {
+
+	protected static final ESLogger log = Loggers
+			.getLogger(ForwardResolutionCache.class);
+
+	private final ForwardResolver resolver;
+
+	private final ConcurrentMap<String, InetAddress[]> addresses = new ConcurrentHashMap<String, InetAddress[]>();
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final CounterMetric lookups = new CounterMetric();
+
+	private final CounterMetric failures = new CounterMetric();
+
+	private final CounterMetric changes = new CounterMetric();
+
+	public ForwardResolutionCache(final ForwardResolver resolver) {
+		this.resolver = resolver;
+	}
+
+	@Override
+	public InetAddress[] resolve(final String hostName)
+			throws UnknownHostException {
+		final InetAddress[] known = addresses.get(hostName);
+
+		if (known != null) {
+			return known;
+		}
+
+		final InetAddress[] resolved = lookup(hostName);
+		final InetAddress[] existing = addresses.putIfAbsent(hostName,
+				resolved);
+		return existing == null ? resolved : existing;
+	}
+
+	public long generation() {
+		return generation.get();
+	}
+
+	/**
+	 * Resolves all known host names again. Names which cannot be resolved
+	 * any more keep their last known addresses.
+	 */
+	public void refresh() {
+		boolean changed = false;
+
+		for (final Map.Entry<String, InetAddress[]> entry : addresses
+				.entrySet()) {
+			try {
+				final InetAddress[] resolved = lookup(entry.getKey());
+
+				if (!new HashSet<InetAddress>(Arrays.asList(resolved))
+						.equals(new HashSet<InetAddress>(Arrays.asList(entry
+								.getValue())))) {
+					log.debug("Addresses of {} changed to {}", entry.getKey(),
+							Arrays.toString(resolved));
+					addresses.put(entry.getKey(), resolved);
+					changes.inc();
+					changed = true;
+				}
+			} catch (final UnknownHostException e) {
+				log.warn("Unable to resolve {}, keeping the last known addresses",
+						entry.getKey());
+			}
+		}
+
+		if (changed) {
+			generation.incrementAndGet();
+		}
+	}
+
+	private InetAddress[] lookup(final String hostName)
+			throws UnknownHostException {
+		lookups.inc();
+		try {
+			return resolver.resolve(hostName);
+		} catch (final UnknownHostException e) {
+			failures.inc();
+			throw e;
+		}
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		builder.field("names", addresses.size());
+		builder.field("generation", generation.get());
+		builder.field("lookups", lookups.count());
+		builder.field("failures", failures.count());
+		builder.field("changes", changes.count());
+		return builder;
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves the host names used in host rules to addresses. The
+ * implementation can be replaced with the setting
+ * <code>security.dns.forward.resolver</code>, for example by a static
+ * lookup table in tests.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public interface ForwardResolver {
+
+	public InetAddress[] resolve(String hostName) throws UnknownHostException;
+
+}
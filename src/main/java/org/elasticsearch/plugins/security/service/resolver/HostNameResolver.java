@@ -0,0 +1,279 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.elasticsearch.common.base.Ticker;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.metrics.MeanMetric;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Reverse DNS resolver for host rules. Resolved names are cached with a
+ * positive TTL, failed lookups with a (shorter) negative TTL. Expired
+ * entries are still served while they are refreshed in the background, so
+ * only the very first request of a client address waits for the name
+ * service, and never longer than the configured timeout. Names which may
+ * change with the next call, because they are refreshed or the lookup did
+ * not finish in time, are returned as not {@link HostName#isCurrent()
+ * current}.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public class HostNameResolver implements ToXContent {
+
+	protected static final ESLogger log = Loggers
+			.getLogger(HostNameResolver.class);
+
+	private final ReverseResolver resolver;
+
+	private final Ticker ticker;
+
+	private final long positiveTtl;
+
+	private final long negativeTtl;
+
+	private final TimeValue timeout;
+
+	private final Cache<InetAddress, Entry> cache;
+
+	private final ConcurrentMap<InetAddress, Future<String>> pending = new ConcurrentHashMap<InetAddress, Future<String>>();
+
+	private final ThreadPoolExecutor executor;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	private final CounterMetric failures = new CounterMetric();
+
+	private final CounterMetric timeouts = new CounterMetric();
+
+	private final MeanMetric lookups = new MeanMetric();
+
+	public HostNameResolver(final Settings settings,
+			final ReverseResolver resolver) {
+		this(settings, resolver, Ticker.systemTicker());
+	}
+
+	/**
+	 * @param ticker
+	 *            the clock entries expire by
+	 */
+	HostNameResolver(final Settings settings, final ReverseResolver resolver,
+			final Ticker ticker) {
+		this.resolver = resolver;
+		this.ticker = ticker;
+		positiveTtl = settings.getAsTime("security.dns.reverse.ttl",
+				TimeValue.timeValueMinutes(5)).nanos();
+		negativeTtl = settings.getAsTime("security.dns.reverse.negative_ttl",
+				TimeValue.timeValueSeconds(30)).nanos();
+		timeout = settings.getAsTime("security.dns.reverse.timeout",
+				TimeValue.timeValueSeconds(1));
+
+		cache = CacheBuilder
+				.newBuilder()
+				.maximumSize(
+						settings.getAsLong("security.dns.reverse.cache_size",
+								10000L)).build();
+
+		final int threads = settings.getAsInt("security.dns.reverse.threads",
+				2);
+		final int queueSize = settings.getAsInt(
+				"security.dns.reverse.queue_size", 1000);
+		executor = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+						queueSize), EsExecutors.daemonThreadFactory(settings,
+						"security_dns"));
+	}
+
+	/**
+	 * Returns the host name of the given address, or its textual ip
+	 * representation if it cannot be resolved.
+	 */
+	public HostName resolve(final InetAddress address) {
+		final Entry entry = cache.getIfPresent(address);
+
+		if (entry != null) {
+			hits.inc();
+			if (entry.expires - ticker.read() < 0) {
+				lookup(address);
+				return new HostName(entry.hostName.name, false);
+			}
+			return entry.hostName;
+		}
+
+		misses.inc();
+
+		try {
+			return new HostName(lookup(address).get(timeout.millis(),
+					TimeUnit.MILLISECONDS), true);
+		} catch (final TimeoutException e) {
+			timeouts.inc();
+			log.debug("Reverse lookup of {} timed out", address);
+		} catch (final ExecutionException e) {
+			log.debug("Reverse lookup of {} failed", e, address);
+		} catch (final CancellationException e) {
+			log.debug("Reverse lookup of {} rejected", address);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return new HostName(address.getHostAddress(), false);
+	}
+
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Starts a lookup unless one for the same address is already running.
+	 */
+	private Future<String> lookup(final InetAddress address) {
+		Future<String> future = pending.get(address);
+		if (future != null) {
+			return future;
+		}
+
+		final FutureTask<String> task = new FutureTask<String>(new Lookup(
+				address));
+		future = pending.putIfAbsent(address, task);
+		if (future != null) {
+			return future;
+		}
+
+		try {
+			executor.execute(task);
+		} catch (final RejectedExecutionException e) {
+			pending.remove(address, task);
+			task.cancel(false);
+		}
+
+		return task;
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		builder.field("size", cache.size());
+		builder.field("hits", hits.count());
+		builder.field("misses", misses.count());
+		builder.field("lookups", lookups.count());
+		builder.field("failures", failures.count());
+		builder.field("timeouts", timeouts.count());
+		builder.field("lookup_time_in_millis",
+				TimeUnit.NANOSECONDS.toMillis(lookups.sum()));
+		builder.field("avg_lookup_time_in_millis",
+				TimeUnit.NANOSECONDS.toMillis((long) lookups.mean()));
+		return builder;
+	}
+
+	/**
+	 * The host name of a client address.
+	 */
+	public static final class HostName {
+
+		private final String name;
+
+		private final boolean current;
+
+		private HostName(final String name, final boolean current) {
+			this.name = name;
+			this.current = current;
+		}
+
+		/**
+		 * Returns the host name, or the textual ip representation of the
+		 * address if it cannot be resolved.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns true if the name is the result of a lookup which has not
+		 * expired yet, false if it is an expired name served while it is
+		 * refreshed or the ip of an address whose lookup did not finish. Only
+		 * current names may be remembered in derived results.
+		 */
+		public boolean isCurrent() {
+			return current;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static final class Entry {
+
+		private final HostName hostName;
+
+		private final long expires;
+
+		private Entry(final String name, final long expires) {
+			this.hostName = new HostName(name, true);
+			this.expires = expires;
+		}
+	}
+
+	private class Lookup implements Callable<String> {
+
+		private final InetAddress address;
+
+		private Lookup(final InetAddress address) {
+			this.address = address;
+		}
+
+		@Override
+		public String call() {
+			final long start = System.nanoTime();
+
+			try {
+				String name;
+				try {
+					name = resolver.resolve(address);
+				} catch (final UnknownHostException e) {
+					name = null;
+				}
+
+				final boolean resolved = name != null;
+				if (!resolved) {
+					failures.inc();
+					name = address.getHostAddress();
+				}
+
+				cache.put(address, new Entry(name, ticker.read()
+						+ (resolved ? positiveTtl : negativeTtl)));
+				return name;
+			} finally {
+				lookups.inc(System.nanoTime() - start);
+				pending.remove(address);
+			}
+		}
+	}
+
+}
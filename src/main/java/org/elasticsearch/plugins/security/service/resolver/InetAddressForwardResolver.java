@@ -0,0 +1,20 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * {@link ForwardResolver} using the name service of the JVM.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public class InetAddressForwardResolver implements ForwardResolver {
+
+	@Override
+	public InetAddress[] resolve(final String hostName)
+			throws UnknownHostException {
+		return InetAddress.getAllByName(hostName);
+	}
+
+}
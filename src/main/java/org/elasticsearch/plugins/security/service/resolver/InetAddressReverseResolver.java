@@ -0,0 +1,30 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * {@link ReverseResolver} using the name service of the JVM.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public class InetAddressReverseResolver implements ReverseResolver {
+
+	@Override
+	public String resolve(final InetAddress address)
+			throws UnknownHostException {
+		// use a fresh instance, InetAddress caches the name it was resolved
+		// to once
+		final String name = InetAddress.getByAddress(address.getAddress())
+				.getHostName();
+
+		// the JVM returns the ip if the address has no name
+		if (name.equals(address.getHostAddress())) {
+			throw new UnknownHostException(name);
+		}
+
+		return name;
+	}
+
+}
@@ -0,0 +1,25 @@
+package org.elasticsearch.plugins.security.service.resolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves client addresses to the host names matched by host rules. The
+ * implementation can be replaced with the setting
+ * <code>security.dns.reverse.resolver</code>, for example by a static
+ * lookup table in tests.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public interface ReverseResolver {
+
+	/**
+	 * Returns the host name of the given address.
+	 *
+	 * @throws UnknownHostException
+	 *             if the address has no host name
+	 */
+	public String resolve(InetAddress address) throws UnknownHostException;
+
+}
@@ -0,0 +1,167 @@
+package org.elasticsearch.plugins.security.util;
+
+import org.elasticsearch.rest.RestRequest.Method;
+
+/**
+ * Classifies requests as read, write or admin requests in a single walk over
+ * the characters of their path. The commands of
+ * {@link SecurityUtil#BUILT_IN_ADMIN_COMMANDS},
+ * {@link SecurityUtil#BUILT_IN_READ_COMMANDS_STRICT} and so on are compiled
+ * into a character trie which is matched against every path segment.
+ * <p>
+ * A segment equal to a command is taken as the endpoint of the request if no
+ * other segment follows it (/index/_search), otherwise it is an index or type
+ * name which happens to be equal to a command (/_search/type/_count). A
+ * segment starting with a command and going on (/index/_warmers,
+ * /index/_search_shards) is taken as that command wherever it is, as the
+ * former substring matching did.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class EndpointClassifier {
+
+	public static final int ADMIN_REQUEST = 1;
+
+	public static final int WRITE_REQUEST = 1 << 1;
+
+	public static final int ADMIN_COMMAND_AS_NAME = 1 << 2;
+
+	public static final int READ_COMMAND_AS_NAME = 1 << 3;
+
+	public static final int WRITE_COMMAND_AS_NAME = 1 << 4;
+
+	private static final int ADMIN = 1;
+
+	private static final int READ = 1 << 1;
+
+	private static final int WRITE = 1 << 2;
+
+	private static final EndpointClassifier STRICT = new EndpointClassifier(
+			SecurityUtil.BUILT_IN_ADMIN_COMMANDS,
+			SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT,
+			SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT);
+
+	private static final EndpointClassifier LAX = new EndpointClassifier(
+			SecurityUtil.BUILT_IN_ADMIN_COMMANDS,
+			SecurityUtil.BUILT_IN_READ_COMMANDS_LAX,
+			SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX);
+
+	private final Node root = new Node();
+
+	private EndpointClassifier(final String[] adminCommands,
+			final String[] readCommands, final String[] writeCommands) {
+		add(adminCommands, ADMIN);
+		add(readCommands, READ);
+		add(writeCommands, WRITE);
+	}
+
+	public static EndpointClassifier getInstance(final boolean strictModeEnabled) {
+		return strictModeEnabled ? STRICT : LAX;
+	}
+
+	private void add(final String[] commands, final int kind) {
+		for (final String command : commands) {
+			Node node = root;
+			for (int i = 0; i < command.length(); i++) {
+				node = node.child(command.charAt(i));
+			}
+			node.kinds |= kind;
+		}
+	}
+
+	/**
+	 * Returns the classification of the request as combination of
+	 * {@link #ADMIN_REQUEST}, {@link #WRITE_REQUEST} and the
+	 * <code>*_AS_NAME</code> flags. A request which is neither admin nor write
+	 * request is a read request.
+	 */
+	public int classify(final Method method, final String path) {
+		// kinds of the last command segment as long as no segment follows it
+		int command = 0;
+		// kinds of the commands segments start with and go on
+		int prefixes = 0;
+		int names = 0;
+		Node node = root;
+		boolean empty = true;
+
+		for (int i = 0; i <= path.length(); i++) {
+			final char c = i < path.length() ? path.charAt(i) : '/';
+
+			if (c != '/') {
+				empty = false;
+				if (node != null) {
+					prefixes |= node.kinds;
+					node = c < Node.WIDTH && node.children != null ? node.children[c]
+							: null;
+				}
+				continue;
+			}
+
+			if (!empty) {
+				names |= command;
+				command = node == null ? 0 : node.kinds;
+			}
+
+			node = root;
+			empty = true;
+		}
+
+		command |= prefixes;
+		int result = 0;
+
+		if ((command & ADMIN) != 0) {
+			result |= ADMIN_REQUEST;
+		}
+
+		if (method == Method.DELETE || method == Method.PUT
+				|| method == Method.POST && (command & READ) == 0
+				|| (command & WRITE) != 0) {
+			result |= WRITE_REQUEST;
+		}
+
+		if ((names & ADMIN) != 0) {
+			result |= ADMIN_COMMAND_AS_NAME;
+		}
+
+		if ((names & READ) != 0) {
+			result |= READ_COMMAND_AS_NAME;
+		}
+
+		if ((names & WRITE) != 0) {
+			result |= WRITE_COMMAND_AS_NAME;
+		}
+
+		return result;
+	}
+
+	private static final class Node {
+
+		/**
+		 * Commands are plain ASCII.
+		 */
+		private static final int WIDTH = 128;
+
+		private Node[] children;
+
+		private int kinds;
+
+		private Node child(final char c) {
+			if (c >= WIDTH) {
+				throw new IllegalArgumentException("Unsupported character '"
+						+ c + "' in command");
+			}
+
+			if (children == null) {
+				children = new Node[WIDTH];
+			}
+
+			if (children[c] == null) {
+				children[c] = new Node();
+			}
+
+			return children[c];
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.rest.RestRequest.Method;
+
+/**
+ * Everything the security filters need to know about the path of a request,
+ * computed once per request: the indices, types and id addressed by the
+ * path, the endpoint (first segment starting with an underscore) and the
+ * read/write/admin classification. Instances are immutable.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class RequestDescriptor {
+
+	/**
+	 * index name addressing all indices, never an endpoint
+	 */
+	private static final String ALL = "_all";
+
+	private final Method method;
+
+	private final String path;
+
+	private final boolean strictModeEnabled;
+
+	private final List<String> indices;
+
+	private final List<String> types;
+
+	private final String id;
+
+	private final String endpoint;
+
+	private final boolean adminRequest;
+
+	private final boolean writeRequest;
+
+	private final boolean adminCommandAsName;
+
+	private final boolean readCommandAsName;
+
+	private final boolean writeCommandAsName;
+
+	private RequestDescriptor(final Method method, final String path,
+			final boolean strictModeEnabled) {
+		this.method = method;
+		this.path = path;
+		this.strictModeEnabled = strictModeEnabled;
+
+		List<String> indices = Collections.emptyList();
+		List<String> types = Collections.emptyList();
+		String id = null;
+		String endpoint = null;
+
+		if (path.startsWith("/") && path.length() > 1) {
+			final int indexEnd = path.indexOf('/', 1);
+
+			if (indexEnd != -1) {
+				indices = split(path, 1, indexEnd);
+
+				final int typeEnd = path.indexOf('/', indexEnd + 1);
+				if (typeEnd != -1) {
+					types = split(path, indexEnd + 1, typeEnd);
+				}
+			}
+
+			id = path.substring(path.lastIndexOf('/') + 1);
+
+			int start = 1;
+			while (start < path.length()) {
+				int end = path.indexOf('/', start);
+				if (end == -1) {
+					end = path.length();
+				}
+				if (end > start && path.charAt(start) == '_'
+						&& !(end - start == ALL.length() && path.startsWith(ALL, start))) {
+					endpoint = path.substring(start, end);
+					break;
+				}
+				start = end + 1;
+			}
+		}
+
+		this.indices = indices;
+		this.types = types;
+		this.id = id;
+		this.endpoint = endpoint;
+
+		final int classification = EndpointClassifier.getInstance(
+				strictModeEnabled).classify(method, path);
+
+		adminRequest = (classification & EndpointClassifier.ADMIN_REQUEST) != 0;
+		writeRequest = (classification & EndpointClassifier.WRITE_REQUEST) != 0;
+		adminCommandAsName = (classification & EndpointClassifier.ADMIN_COMMAND_AS_NAME) != 0;
+		readCommandAsName = (classification & EndpointClassifier.READ_COMMAND_AS_NAME) != 0;
+		writeCommandAsName = (classification & EndpointClassifier.WRITE_COMMAND_AS_NAME) != 0;
+	}
+
+	/**
+	 * Parses the given (decoded) request path.
+	 *
+	 * @param strictModeEnabled
+	 *            selects the strict or lax read and write command lists
+	 */
+	public static RequestDescriptor parse(final Method method,
+			final String path, final boolean strictModeEnabled) {
+		return new RequestDescriptor(method, path, strictModeEnabled);
+	}
+
+	private static List<String> split(final String path, final int start,
+			final int end) {
+		if (start == end) {
+			return Collections.emptyList();
+		}
+
+		final int comma = path.indexOf(',', start);
+		if (comma == -1 || comma >= end) {
+			return Collections.singletonList(path.substring(start, end));
+		}
+
+		return Collections.unmodifiableList(Arrays.asList(Strings
+				.splitStringByCommaToArray(path.substring(start, end))));
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public boolean isStrictModeEnabled() {
+		return strictModeEnabled;
+	}
+
+	public List<String> getIndices() {
+		return indices;
+	}
+
+	public List<String> getTypes() {
+		return types;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the first path segment starting with an underscore (like
+	 * _search or _cluster) other than _all, or null if there is none.
+	 */
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public boolean isAdminRequest() {
+		return adminRequest;
+	}
+
+	public boolean isWriteRequest() {
+		return writeRequest;
+	}
+
+	public boolean isReadRequest() {
+		return !writeRequest && !adminRequest;
+	}
+
+	/**
+	 * True if an index or type name in the path is equal to an admin command.
+	 */
+	public boolean isAdminCommandAsName() {
+		return adminCommandAsName;
+	}
+
+	/**
+	 * True if an index or type name in the path is equal to a read command.
+	 */
+	public boolean isReadCommandAsName() {
+		return readCommandAsName;
+	}
+
+	/**
+	 * True if an index or type name in the path is equal to a write command.
+	 */
+	public boolean isWriteCommandAsName() {
+		return writeCommandAsName;
+	}
+
+	@Override
+	public String toString() {
+		return "RequestDescriptor [method=" + method + ", path=" + path
+				+ ", indices=" + indices + ", types=" + types + ", id=" + id
+				+ ", endpoint=" + endpoint + ", admin=" + adminRequest
+				+ ", write=" + writeRequest + "]";
+	}
+
+}
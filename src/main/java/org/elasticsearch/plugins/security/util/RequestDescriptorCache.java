@@ -0,0 +1,114 @@
+package org.elasticsearch.plugins.security.util;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestRequest.Method;
+
+/**
+ * Bounded LRU cache of parsed request paths. Most traffic goes to a few
+ * paths (like /logs-*&#47;_search), requests to those reuse the immutable
+ * {@link RequestDescriptor} of an earlier request without decoding or
+ * splitting the path again.
+ *
+ * @author Johannes Hiemer
+ *
+ */
+public final class RequestDescriptorCache implements ToXContent {
+
+	private final boolean strictModeEnabled;
+
+	private final long maxSize;
+
+	private final Cache<Key, RequestDescriptor> cache;
+
+	private final CounterMetric hits = new CounterMetric();
+
+	private final CounterMetric misses = new CounterMetric();
+
+	/**
+	 * @param maxSize
+	 *            maximum number of cached paths, 0 disables caching
+	 */
+	public RequestDescriptorCache(final long maxSize,
+			final boolean strictModeEnabled) {
+		this.strictModeEnabled = strictModeEnabled;
+		this.maxSize = maxSize;
+		this.cache = maxSize > 0 ? CacheBuilder.newBuilder()
+				.maximumSize(maxSize).<Key, RequestDescriptor> build() : null;
+	}
+
+	public RequestDescriptor get(final RestRequest request) {
+		if (cache == null) {
+			return RequestDescriptor.parse(request.method(), request.path(),
+					strictModeEnabled);
+		}
+
+		final Key key = new Key(request.method(), request.rawPath());
+		RequestDescriptor descriptor = cache.getIfPresent(key);
+
+		if (descriptor != null) {
+			hits.inc();
+			return descriptor;
+		}
+
+		misses.inc();
+		descriptor = RequestDescriptor.parse(request.method(), request.path(),
+				strictModeEnabled);
+		cache.put(key, descriptor);
+		return descriptor;
+	}
+
+	@Override
+	public XContentBuilder toXContent(final XContentBuilder builder,
+			final Params params) throws IOException {
+		final long hitCount = hits.count();
+		final long total = hitCount + misses.count();
+
+		builder.field("size", cache == null ? 0 : cache.size());
+		builder.field("max_size", maxSize);
+		builder.field("hits", hitCount);
+		builder.field("misses", misses.count());
+		builder.field("hit_rate", total == 0 ? 0d : (double) hitCount / total);
+		return builder;
+	}
+
+	/**
+	 * The raw (undecoded) path identifies the decoded one, so it is used as
+	 * key to skip decoding as well.
+	 */
+	private static final class Key {
+
+		private final Method method;
+
+		private final String rawPath;
+
+		private Key(final Method method, final String rawPath) {
+			this.method = method;
+			this.rawPath = rawPath;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * method.hashCode() + rawPath.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return method == other.method && rawPath.equals(other.rawPath);
+		}
+	}
+
+}
@@ -5,10 +5,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.Arrays;
-import java.util.List;
 
-import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -16,7 +13,6 @@ import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestRequest;
-import org.elasticsearch.rest.RestRequest.Method;
 import org.elasticsearch.rest.RestStatus;
 
 /**
@@ -133,87 +129,6 @@ public class SecurityUtil {
 		return false;
 	}
 
-	public static List<String> getIndices(final RestRequest request) {
-		String[] indices = new String[0];
-		final String path = request.path();
-		// TODO all indices , length=0
-		log.debug("Evaluate decoded path for indices'" + path + "'");
-
-		if (!path.startsWith("/")) {
-			return null;
-		}
-		
-		if (path.length() > 1) {
-			int endIndex;
-
-			if ((endIndex = path.indexOf('/', 1)) != -1) {
-				indices = Strings.splitStringByCommaToArray(path.substring(1, endIndex));
-			}
-		}
-
-		log.debug("Indices: " + Arrays.toString(indices));
-		return Arrays.asList(indices);
-	}
-
-	public static String getId(final RestRequest request) {
-		String id = null;
-		final String path = request.path();
-
-		log.debug("Evaluate decoded path for id '" + path + "'");
-
-		if (!path.startsWith("/")) {
-
-			return null;
-		}
-
-		if (path.length() > 1) {
-
-			int endIndex;
-
-			if ((endIndex = path.lastIndexOf('/')) != -1) {
-				id = path.substring(endIndex + 1);
-
-				if (id.contains("?")) {
-					id = path.substring(id.indexOf("?") + 1);
-
-				}
-
-				// if(id.contains("/")) return null;
-
-			}
-		}
-
-		log.debug("Id: " + id);
-		return id;
-
-	}
-
-	public static List<String> getTypes(final RestRequest request) {
-		String[] types = new String[0];
-		final String path = request.path();
-
-		log.debug("Evaluate decoded path for types '" + path + "'");
-		if (!path.startsWith("/")) {
-			return null;
-		}
-
-		if (path.length() > 1) {
-			int endIndex;
-
-			if ((endIndex = path.indexOf('/', 1)) != -1) {
-				int endType;
-
-				if ((endType = path.indexOf('/', endIndex + 1)) != -1) {
-					types = Strings.splitStringByCommaToArray(path.substring(
-							endIndex + 1, endType));
-				}
-			}
-		}
-
-		log.debug("Types: " + Arrays.toString(types));
-		return Arrays.asList(types);
-	}
-
 	public static void send(final RestRequest request,
 			final RestChannel channel, final RestStatus status, final String arg) {
 		try {
@@ -259,55 +174,6 @@ public class SecurityUtil {
 	public static String[] BUILT_IN_READ_COMMANDS_LAX = new String[] { "_search",
 	"_msearch","_mlt", "_explain", "_validate","_count","_suggest", "_percolate",  "_nodes", "_percolator","_mapping", "_aliases", "_analyze"};
 	
-	private static boolean stringContainsItemFromListAsCommand(
-			final String inputString, final String[] items) {
-
-		for (int i = 0; i < items.length; i++) {
-			if (inputString.contains("/" + items[i])
-					&& !inputString.contains(items[i] + "/")) {
-
-				return true;
-			}
-		}
-
-		return false;
-	}
-
-	public static boolean stringContainsItemFromListAsTypeOrIndex(
-			final String inputString, final String[] items) {
-		for (int i = 0; i < items.length; i++) {
-			if (inputString.contains("/" + items[i] + "/")) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	public static boolean isWriteRequest(final RestRequest request, boolean strictModeEnabled) {
-		if (request.method() == Method.DELETE || request.method() == Method.PUT) {
-			return true;
-		}
-
-		if (request.method() == Method.POST) {
-			if (!stringContainsItemFromListAsCommand(request.path(),
-					strictModeEnabled?SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT : SecurityUtil.BUILT_IN_READ_COMMANDS_LAX)) {
-				return true;
-			}
-		}
-
-		return stringContainsItemFromListAsCommand(request.path(),
-				strictModeEnabled?SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT : SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX);
-	}
-
-	public static boolean isAdminRequest(final RestRequest request) {
-		return stringContainsItemFromListAsCommand(request.path(),
-				BUILT_IN_ADMIN_COMMANDS);
-	}
-
-	public static boolean isReadRequest(final RestRequest request, boolean strictModeEnabled) {
-		return !isWriteRequest(request, strictModeEnabled) && !isAdminRequest(request);
-	}
-	
 	public static XContentType xContentTypefromRestContentType(String contentType) {
         if (contentType == null) {
             return null;
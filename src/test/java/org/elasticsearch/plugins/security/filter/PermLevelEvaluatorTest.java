@@ -0,0 +1,189 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.plugins.security.MalformedConfigurationException;
+import org.elasticsearch.plugins.security.service.permission.UserRoleCallback;
+import org.elasticsearch.plugins.security.service.resolver.ForwardResolver;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class PermLevelEvaluatorTest {
+
+	private static final String RULES = "{\"rules\": ["
+			+ "{\"permission\" : \"READONLY\"},"
+			+ "{\"users\" : [\"spock\", \"kirk\"], \"roles\" : [\"admin\"], \"types\" : [\"twitter\"], \"permission\" : \"NONE\"},"
+			+ "{\"users\" : [\"bowna\"], \"indices\" : [\"testindex*\"], \"permission\" : \"READWRITE\"},"
+			+ "{\"hosts\" : [\"10.0.0.0/8\"], \"indices\" : [\"logs\"], \"permission\" : \"ALL\"},"
+			+ "{\"hosts\" : [\"192.168.*.*\"], \"permission\" : \"READWRITE\"},"
+			+ "{\"hosts\" : [\"*.example.com\"], \"permission\" : \"ALL\"}"
+			+ "]}";
+
+	@Test
+	public void appliesDefaultIfNoRuleMatches() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		assertEquals(PermLevel.READONLY, evaluate(evaluator, "nobody",
+				"172.16.0.1", null, "other"));
+	}
+
+	@Test
+	public void matchesUsersRolesAndTypes() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		assertEquals(PermLevel.NONE, evaluate(evaluator, "kirk", "172.16.0.1",
+				null, "any", "admin"));
+		// the role is missing
+		assertEquals(PermLevel.READONLY, evaluate(evaluator, "kirk",
+				"172.16.0.1", null, "any", "user"));
+	}
+
+	@Test
+	public void matchesIndexPatterns() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		assertEquals(PermLevel.READWRITE, evaluate(evaluator, "bowna",
+				"172.16.0.1", null, "testindex1"));
+		assertEquals(PermLevel.READONLY, evaluate(evaluator, "bowna",
+				"172.16.0.1", null, "other"));
+	}
+
+	@Test
+	public void firstMatchingRuleWins() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		// the bowna rule comes before the network rule
+		assertEquals(PermLevel.READWRITE, evaluate(evaluator, "bowna",
+				"10.1.2.3", null, "testindex1"));
+		assertEquals(PermLevel.ALL, evaluate(evaluator, "nobody", "10.1.2.3",
+				null, "logs"));
+	}
+
+	@Test
+	public void matchesNetworksAndAddressPatterns() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		assertEquals(PermLevel.ALL, evaluate(evaluator, null, "10.255.0.1",
+				null, "logs"));
+		assertEquals(PermLevel.READONLY, evaluate(evaluator, null,
+				"11.0.0.1", null, "logs"));
+		assertEquals(PermLevel.READWRITE, evaluate(evaluator, null,
+				"192.168.7.1", null, "other"));
+	}
+
+	@Test
+	public void matchesHostNamesOnlyByTheGivenName() throws Exception {
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(RULES, null);
+
+		assertTrue(evaluator.requiresHostName());
+		assertEquals(PermLevel.ALL, evaluate(evaluator, null, "172.16.0.1",
+				"db.example.com", "other"));
+		assertEquals(PermLevel.READONLY, evaluate(evaluator, null,
+				"172.16.0.1", null, "other"));
+	}
+
+	@Test
+	public void matchesForwardResolvedHostNamesByAddress() throws Exception {
+		final ForwardResolver resolver = new ForwardResolver() {
+			@Override
+			public InetAddress[] resolve(final String hostName)
+					throws UnknownHostException {
+				if ("db.example.com".equals(hostName)) {
+					return new InetAddress[] { InetAddress
+							.getByName("172.16.0.9") };
+				}
+				throw new UnknownHostException(hostName);
+			}
+		};
+		final PermLevelEvaluator evaluator = new PermLevelEvaluator(
+				"{\"rules\": [{\"permission\" : \"NONE\"},"
+						+ "{\"hosts\" : [\"db.example.com\"], \"permission\" : \"ALL\"}]}",
+				resolver);
+
+		assertFalse(evaluator.requiresHostName());
+		assertEquals(PermLevel.ALL, evaluate(evaluator, null, "172.16.0.9",
+				null, "other"));
+		assertEquals(PermLevel.NONE, evaluate(evaluator, null, "172.16.0.8",
+				null, "other"));
+	}
+
+	@Test
+	public void rejectsConfigurationWithoutDefault() {
+		try {
+			new PermLevelEvaluator(
+					"{\"rules\": [{\"users\" : [\"kirk\"], \"permission\" : \"ALL\"}]}",
+					null);
+			fail();
+		} catch (final MalformedConfigurationException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsDuplicateRules() {
+		try {
+			new PermLevelEvaluator("{\"rules\": [{\"permission\" : \"ALL\"},"
+					+ "{\"users\" : [\"kirk\"], \"permission\" : \"ALL\"},"
+					+ "{\"users\" : [\"kirk\"], \"permission\" : \"NONE\"}]}",
+					null);
+			fail();
+		} catch (final MalformedConfigurationException e) {
+			// expected
+		}
+	}
+
+	private static PermLevel evaluate(final PermLevelEvaluator evaluator,
+			final String user, final String address, final String hostName,
+			final String index, final String... roles)
+			throws UnknownHostException {
+		final List<String> types = Collections.singletonList("twitter");
+		return evaluator.evaluatePerm(Arrays.asList(index), types,
+				InetAddress.getByName(address), hostName, new Callback(user,
+						roles));
+	}
+
+	private static final class Callback implements UserRoleCallback {
+
+		private final String user;
+
+		private final Set<String> roles;
+
+		private Callback(final String user, final String... roles) {
+			this.user = user;
+			this.roles = new HashSet<String>(Arrays.asList(roles));
+		}
+
+		@Override
+		public String getRemoteuser() {
+			return user;
+		}
+
+		@Override
+		public boolean isRemoteUserInRole(final String role) {
+			return roles.contains(role);
+		}
+
+		@Override
+		public Set<String> getRemoteUserRoles() {
+			return roles;
+		}
+	}
+
+}
@@ -0,0 +1,388 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.elasticsearch.common.Base64;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.plugins.security.filter.authentication.util.TokenUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class TokenFilterTest {
+
+	/**
+	 * the filter builds the url as url://host:port/database
+	 */
+	private static final String DATABASE = "db;DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=false";
+
+	/**
+	 * "enterprise" as hashed by Django's PBKDF2PasswordHasher
+	 */
+	private static final String HASH = "pbkdf2_sha256$20000$seasalt42$UvS9xPMt+oD5tI+VaqYbcASE1d9aRvdLwxsvC0W3RVo=";
+
+	private final Map<String, String> parameters = new HashMap<String, String>();
+
+	private TokenUtil tokenUtil;
+
+	private TokenFilter filter;
+
+	@Before
+	public void setUp() throws Exception {
+		try (Connection connection = DriverManager.getConnection(
+				"jdbc:h2:mem:tokenfilter://localhost:0/" + DATABASE, "sa", "");
+				Statement statement = connection.createStatement()) {
+			statement.execute("CREATE SCHEMA IF NOT EXISTS \"public\"");
+			statement.execute("CREATE TABLE IF NOT EXISTS \"public\".users (username VARCHAR(64) PRIMARY KEY, "
+					+ "password VARCHAR(255))");
+			statement.execute("MERGE INTO \"public\".users VALUES ('kirk', 'secret')");
+			statement.execute("MERGE INTO \"public\".users VALUES ('spock', '" + HASH + "')");
+		}
+
+		parameters.put("security.jdbc.driver", "org.h2.Driver");
+		parameters.put("security.jdbc.url", "jdbc:h2:mem:tokenfilter");
+		parameters.put("security.jdbc.host", "localhost");
+		parameters.put("security.jdbc.port", "0");
+		parameters.put("security.jdbc.database", DATABASE);
+		parameters.put("security.jdbc.username", "sa");
+		parameters.put("security.jdbc.password", "");
+		parameters.put("security.jdbc.table", "users");
+		parameters.put("security.jdbc.column.username", "username");
+		parameters.put("security.jdbc.column.password", "password");
+
+		tokenUtil = new TokenUtil("0123456789abcdef");
+		tokenUtil.init();
+		filter = new TokenFilter(tokenUtil);
+	}
+
+	@After
+	public void tearDown() {
+		filter.destroy();
+	}
+
+	@Test
+	public void startsNoExecutorIfTheSourceFails() throws Exception {
+		parameters.put("security.jdbc.driver", "org.example.MissingDriver");
+		parameters.put("security.jdbc.basic.enabled", "true");
+
+		try {
+			filter.init(config());
+			fail();
+		} catch (final ServletException e) {
+			// expected
+		}
+		final Map<String, Object> stats = stats();
+		assertFalse(stats.containsKey("lookup_executor"));
+		assertFalse(stats.containsKey("verify_executor"));
+	}
+
+	@Test
+	public void looksUpAsynchronously() throws Exception {
+		filter.init(config());
+		final Exchange exchange = new Exchange(tokenUtil.createAuthToken("kirk"));
+
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		exchange.awaitDispatch();
+		assertEquals(0, exchange.status);
+
+		// dispatched again by the container
+		exchange.dispatcherType = DispatcherType.ASYNC;
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertEquals(1, exchange.chained.get());
+	}
+
+	@Test
+	public void answersATimeoutWithServiceUnavailable() throws Exception {
+		filter.init(config());
+		final Exchange exchange = new Exchange(tokenUtil.createAuthToken("kirk"));
+		// the container times the request out before the lookup is done
+		exchange.timeoutOnListen = true;
+
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+		assertEquals(1, exchange.completed.get());
+
+		awaitCompletedLookups(1);
+		assertEquals(0, exchange.dispatched.get());
+		assertFalse(exchange.attributes.containsKey("org.elasticsearch.plugins.security.credential-lookup"));
+	}
+
+	@Test
+	public void issuesATokenForABasicLogin() throws Exception {
+		parameters.put("security.jdbc.basic.enabled", "true");
+		filter.init(config());
+
+		final Exchange exchange = login("spock", "enterprise");
+		assertEquals(0, exchange.status);
+		assertEquals(1, exchange.chained.get());
+		assertEquals("spock", tokenUtil.getUserName(new Exchange(
+				exchange.headers.get("X-Auth-Token")).request()));
+
+		// verified once, the next login is answered from the cache
+		login("spock", "enterprise");
+		final Map<?, ?> cache = (Map<?, ?>) stats().get("verified_credentials");
+		assertEquals(1, ((Number) cache.get("verifications")).intValue());
+		assertEquals(1, ((Number) cache.get("hits")).intValue());
+	}
+
+	@Test
+	public void rejectsWrongAndPlainPasswords() throws Exception {
+		parameters.put("security.jdbc.basic.enabled", "true");
+		filter.init(config());
+
+		for (final String[] credentials : new String[][] {
+				{ "spock", "Enterprise" }, { "kirk", "secret" },
+				{ "khan", "secret" } }) {
+			final Exchange exchange = login(credentials[0], credentials[1]);
+			assertEquals(credentials[0], HttpServletResponse.SC_UNAUTHORIZED,
+					exchange.status);
+			assertEquals(0, exchange.chained.get());
+			assertNull(exchange.headers.get("X-Auth-Token"));
+		}
+	}
+
+	@Test
+	public void acceptsPlainPasswordsIfAllowed() throws Exception {
+		parameters.put("security.jdbc.basic.enabled", "true");
+		parameters.put("security.jdbc.basic.allow_plain", "true");
+		filter.init(config());
+
+		final Exchange exchange = login("kirk", "secret");
+		assertEquals(1, exchange.chained.get());
+		assertEquals("kirk", tokenUtil.getUserName(new Exchange(
+				exchange.headers.get("X-Auth-Token")).request()));
+	}
+
+	/**
+	 * Sends a basic login and dispatches it again once the password has been
+	 * verified.
+	 */
+	private Exchange login(final String userName, final String password)
+			throws Exception {
+		final Exchange exchange = new Exchange(null);
+		exchange.authorization = "Basic "
+				+ Base64.encodeBytes((userName + ":" + password)
+						.getBytes("UTF-8"));
+
+		filter.doFilter(exchange.request(), exchange.response(), exchange);
+		if (exchange.status == 0 && exchange.chained.get() == 0) {
+			exchange.awaitDispatch();
+			exchange.dispatcherType = DispatcherType.ASYNC;
+			filter.doFilter(exchange.request(), exchange.response(), exchange);
+		}
+		return exchange;
+	}
+
+	private void awaitCompletedLookups(final long count) throws Exception {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			final Map<?, ?> executor = (Map<?, ?>) stats().get("lookup_executor");
+			if (((Number) executor.get("completed")).longValue() >= count) {
+				return;
+			}
+			Thread.sleep(5);
+		}
+		fail("lookup not completed");
+	}
+
+	private Map<String, Object> stats() throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		filter.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		return XContentHelper.convertToMap(builder.bytes(), false).v2();
+	}
+
+	private FilterConfig config() {
+		return proxy(FilterConfig.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) {
+				if ("getInitParameter".equals(method.getName())) {
+					return parameters.get(args[0]);
+				}
+				if ("getInitParameterNames".equals(method.getName())) {
+					return Collections.enumeration(parameters.keySet());
+				}
+				return null;
+			}
+		});
+	}
+
+	private static <T> T proxy(final Class<T> type,
+			final InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(
+				TokenFilterTest.class.getClassLoader(),
+				new Class<?>[] { type }, handler));
+	}
+
+	/**
+	 * Request and response of a token request, recording what the filter
+	 * does with them.
+	 */
+	private static final class Exchange implements FilterChain {
+
+		private final String token;
+
+		private final Map<String, Object> attributes = new HashMap<String, Object>();
+
+		private final Map<String, String> headers = new HashMap<String, String>();
+
+		private volatile String authorization;
+
+		private final AtomicInteger dispatched = new AtomicInteger();
+
+		private final AtomicInteger completed = new AtomicInteger();
+
+		private final AtomicInteger chained = new AtomicInteger();
+
+		private volatile DispatcherType dispatcherType = DispatcherType.REQUEST;
+
+		private volatile boolean timeoutOnListen;
+
+		private volatile int status;
+
+		private Exchange(final String token) {
+			this.token = token;
+		}
+
+		@Override
+		public void doFilter(final ServletRequest request,
+				final ServletResponse response) {
+			chained.incrementAndGet();
+		}
+
+		private void awaitDispatch() throws InterruptedException {
+			final long deadline = System.currentTimeMillis() + 5000;
+			while (dispatched.get() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+			assertEquals(1, dispatched.get());
+		}
+
+		private HttpServletRequest request() {
+			return proxy(HttpServletRequest.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object proxy, final Method method,
+						final Object[] args) throws Throwable {
+					switch (method.getName()) {
+					case "getDispatcherType":
+						return dispatcherType;
+					case "getMethod":
+						return "GET";
+					case "getHeader":
+						if ("Authorization".equals(args[0])) {
+							return authorization;
+						}
+						return "X-Auth-Token".equals(args[0]) ? token : null;
+					case "getRemoteAddr":
+						return "127.0.0.1";
+					case "isAsyncSupported":
+						return true;
+					case "startAsync":
+						return asyncContext();
+					case "getAttribute":
+						synchronized (attributes) {
+							return attributes.get(args[0]);
+						}
+					case "setAttribute":
+						synchronized (attributes) {
+							attributes.put((String) args[0], args[1]);
+						}
+						return null;
+					case "removeAttribute":
+						synchronized (attributes) {
+							attributes.remove(args[0]);
+						}
+						return null;
+					default:
+						return null;
+					}
+				}
+			});
+		}
+
+		private HttpServletResponse response() {
+			return proxy(HttpServletResponse.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object proxy, final Method method,
+						final Object[] args) {
+					switch (method.getName()) {
+					case "sendError":
+						status = (Integer) args[0];
+						return null;
+					case "addHeader":
+					case "setHeader":
+						synchronized (headers) {
+							headers.put((String) args[0], (String) args[1]);
+						}
+						return null;
+					default:
+						return null;
+					}
+				}
+			});
+		}
+
+		private AsyncContext asyncContext() {
+			return proxy(AsyncContext.class, new InvocationHandler() {
+				@Override
+				public Object invoke(final Object proxy, final Method method,
+						final Object[] args) throws Throwable {
+					switch (method.getName()) {
+					case "addListener":
+						if (timeoutOnListen) {
+							((AsyncListener) args[0]).onTimeout(new AsyncEvent(
+									(AsyncContext) proxy));
+						}
+						return null;
+					case "dispatch":
+						dispatched.incrementAndGet();
+						return null;
+					case "complete":
+						completed.incrementAndGet();
+						return null;
+					default:
+						return null;
+					}
+				}
+			});
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class CachingCredentialSourceTest {
+
+	private final FakeCredentialSource source = new FakeCredentialSource()
+			.add("kirk", "admin");
+
+	private CachingCredentialSource cache;
+
+	@After
+	public void tearDown() {
+		if (cache != null) {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void cachesKnownAndUnknownUsers() throws Exception {
+		cache = create(0);
+
+		final Credential kirk = cache.getCredential("kirk");
+		assertSame(kirk, cache.getCredential("kirk"));
+		assertNull(cache.getCredential("khan"));
+		assertNull(cache.getCredential("khan"));
+
+		assertEquals(2, source.lookups.get());
+	}
+
+	@Test
+	public void servesStaleCredentialsWhileTheSourceFails() throws Exception {
+		cache = new CachingCredentialSource(source, source, 100, 1, 1, 1,
+				60000, 0, 60000);
+
+		final Credential kirk = cache.getCredential("kirk");
+		Thread.sleep(5);
+		source.failing = true;
+
+		assertSame(kirk, cache.getCredential("kirk"));
+		try {
+			cache.getCredential("spock");
+			fail();
+		} catch (final CredentialSourceException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void looksUpUsersCreatedAfterTheBloomFilterWasBuilt()
+			throws Exception {
+		cache = create(0.01);
+		cache.rebuildBloomFilter();
+
+		source.add("spock", "officer");
+
+		assertEquals("spock", cache.getCredential("spock").getUsername());
+		assertEquals(1, source.lookups.get());
+	}
+
+	@Test
+	public void cachesUnknownUsersMissingInTheBloomFilter() throws Exception {
+		cache = create(0.01);
+		cache.rebuildBloomFilter();
+
+		assertNull(cache.getCredential("khan"));
+		assertNull(cache.getCredential("khan"));
+
+		// at most one lookup per negative TTL
+		assertEquals(1, source.lookups.get());
+	}
+
+	@Test
+	public void answersNamesMissingInTheBloomFilterWhileTheSourceFails()
+			throws Exception {
+		cache = create(0.01);
+		cache.rebuildBloomFilter();
+		source.failing = true;
+
+		assertNull(cache.getCredential("khan"));
+		try {
+			// contained in the bloom filter, but not cached
+			cache.getCredential("kirk");
+			fail();
+		} catch (final CredentialSourceException e) {
+			// expected
+		}
+	}
+
+	private CachingCredentialSource create(final double bloomFilterFpp) {
+		return new CachingCredentialSource(source, source, 100, 60000, 60000,
+				60000, 0, bloomFilterFpp, 60000);
+	}
+
+}
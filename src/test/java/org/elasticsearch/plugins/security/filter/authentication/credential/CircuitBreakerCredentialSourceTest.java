@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CircuitBreakerCredentialSource.State;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class CircuitBreakerCredentialSourceTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final ScriptedSource source = new ScriptedSource();
+
+	@After
+	public void tearDown() {
+		source.release.countDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() throws Exception {
+		final CircuitBreakerCredentialSource breaker = new CircuitBreakerCredentialSource(
+				source, 2, 60000);
+		source.failure = new CredentialSourceException("unavailable");
+
+		assertFails(breaker);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertFails(breaker);
+		assertEquals(State.OPEN, breaker.getState());
+
+		// rejected without asking the source
+		assertFails(breaker);
+		assertEquals(2, source.lookups.get());
+	}
+
+	@Test
+	public void errorOfTheTrialOpensTheBreakerAgain() throws Exception {
+		final CircuitBreakerCredentialSource breaker = new CircuitBreakerCredentialSource(
+				source, 1, 0);
+		source.failure = new StackOverflowError();
+
+		assertFails(breaker);
+		assertEquals(State.OPEN, breaker.getState());
+		// the trial fails with an error as well
+		assertFails(breaker);
+		assertEquals(State.OPEN, breaker.getState());
+
+		source.failure = null;
+		assertEquals("kirk", breaker.getCredential("kirk").getUsername());
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void lateFailuresDoNotPostponeTheTrial() throws Exception {
+		final CircuitBreakerCredentialSource breaker = new CircuitBreakerCredentialSource(
+				source, 1, 60000);
+		source.blocking = true;
+		final Future<Credential> inFlight = executor
+				.submit(new Callable<Credential>() {
+					@Override
+					public Credential call() throws Exception {
+						return breaker.getCredential("kirk");
+					}
+				});
+		assertTrue(source.started.await(5, TimeUnit.SECONDS));
+
+		source.blocking = false;
+		source.failure = new CredentialSourceException("unavailable");
+		assertFails(breaker);
+		assertEquals(State.OPEN, breaker.getState());
+		final long openedAt = stat(breaker, "last_transition");
+
+		Thread.sleep(20);
+		source.release.countDown();
+		try {
+			inFlight.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (final ExecutionException e) {
+			// expected
+		}
+		assertEquals(openedAt, stat(breaker, "last_transition"));
+		assertEquals(1, stat(breaker, "opened"));
+	}
+
+	private static void assertFails(final CredentialSource source) {
+		try {
+			source.getCredential("kirk");
+			fail();
+		} catch (final CredentialSourceException | Error e) {
+			// expected
+		}
+	}
+
+	private static long stat(final CircuitBreakerCredentialSource source,
+			final String name) throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		source.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		final Map<?, ?> breaker = (Map<?, ?>) XContentHelper
+				.convertToMap(builder.bytes(), false).v2().get("breaker");
+		return ((Number) breaker.get(name)).longValue();
+	}
+
+	/**
+	 * Fails with the given failure, blocking lookups wait until released.
+	 */
+	private static final class ScriptedSource implements CredentialSource {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		private volatile boolean blocking;
+
+		private volatile Throwable failure;
+
+		@Override
+		public Credential getCredential(final String username)
+				throws CredentialSourceException {
+			lookups.incrementAndGet();
+			if (blocking) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					throw new CredentialSourceException("interrupted", e);
+				}
+			}
+
+			final Throwable failure = this.failure;
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw (CredentialSourceException) failure;
+			}
+			return new Credential(username, "secret");
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class CoalescingCredentialSourceTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final BlockingSource source = new BlockingSource();
+
+	@After
+	public void tearDown() {
+		source.release.countDown();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void sharesTheLookupOfTheSameUser() throws Exception {
+		final CoalescingCredentialSource coalescing = new CoalescingCredentialSource(
+				source, 0, 32, 5000);
+
+		final Future<Credential> first = lookup(coalescing, "kirk");
+		assertTrue(source.started.await(5, TimeUnit.SECONDS));
+		final Future<Credential> second = lookup(coalescing, "kirk");
+		awaitCoalesced(coalescing);
+
+		source.release.countDown();
+		assertEquals("kirk", first.get(5, TimeUnit.SECONDS).getUsername());
+		assertEquals("kirk", second.get(5, TimeUnit.SECONDS).getUsername());
+		assertEquals(1, source.batches.get());
+	}
+
+	@Test
+	public void completesWaitersIfTheBatchFailsWithAnError()
+			throws Exception {
+		source.error = new StackOverflowError();
+		final CoalescingCredentialSource coalescing = new CoalescingCredentialSource(
+				source, 0, 32, 60000);
+
+		final Future<Credential> first = lookup(coalescing, "kirk");
+		assertTrue(source.started.await(5, TimeUnit.SECONDS));
+		final Future<Credential> second = lookup(coalescing, "kirk");
+		awaitCoalesced(coalescing);
+
+		source.release.countDown();
+		assertFailure(first, StackOverflowError.class);
+		// the waiting thread gets a failure long before its timeout
+		assertFailure(second, CredentialSourceException.class);
+	}
+
+	@Test
+	public void waitersGiveUpAfterTheTimeout() throws Exception {
+		final CoalescingCredentialSource coalescing = new CoalescingCredentialSource(
+				source, 0, 32, 50);
+
+		lookup(coalescing, "kirk");
+		assertTrue(source.started.await(5, TimeUnit.SECONDS));
+
+		try {
+			coalescing.getCredential("kirk");
+			fail();
+		} catch (final CredentialSourceException e) {
+			// expected
+		}
+	}
+
+	private Future<Credential> lookup(final CredentialSource source,
+			final String username) {
+		return executor.submit(new Callable<Credential>() {
+			@Override
+			public Credential call() throws Exception {
+				return source.getCredential(username);
+			}
+		});
+	}
+
+	private static void awaitCoalesced(final CoalescingCredentialSource source)
+			throws Exception {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (coalesced(source) == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static long coalesced(final CoalescingCredentialSource source)
+			throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		source.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		final Map<?, ?> lookups = (Map<?, ?>) XContentHelper
+				.convertToMap(builder.bytes(), false).v2().get("lookups");
+		return ((Number) lookups.get("coalesced")).longValue();
+	}
+
+	private static void assertFailure(final Future<Credential> future,
+			final Class<? extends Throwable> type) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (final ExecutionException e) {
+			assertEquals(type, e.getCause().getClass());
+		}
+	}
+
+	/**
+	 * Blocks every batch until released.
+	 */
+	private static final class BlockingSource implements
+			BatchCredentialSource {
+
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		private final AtomicInteger batches = new AtomicInteger();
+
+		private volatile Error error;
+
+		@Override
+		public Map<String, Credential> getCredentials(
+				final Collection<String> usernames)
+				throws CredentialSourceException {
+			batches.incrementAndGet();
+			started.countDown();
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				throw new CredentialSourceException("interrupted", e);
+			}
+			if (error != null) {
+				throw error;
+			}
+			final Map<String, Credential> credentials = new HashMap<String, Credential>();
+			for (final String username : usernames) {
+				credentials.put(username, new Credential(username, "secret"));
+			}
+			return credentials;
+		}
+
+		@Override
+		public Credential getCredential(final String username)
+				throws CredentialSourceException {
+			return getCredentials(Collections.singleton(username))
+					.get(username);
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.plugins.security.filter.authentication.util.PasswordVerifier;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class CredentialSnapshotTest {
+
+	private static final String HASH = "pbkdf2_sha256$1000$salt$bm90IGEgcmVhbCBoYXNo";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void looksUpWrittenCredentials() throws Exception {
+		final File file = new File(folder.getRoot(), "users.snapshot");
+		final List<Credential> credentials = new ArrayList<Credential>();
+		for (int i = 0; i < 100; i++) {
+			credentials.add(new Credential("user" + i, HASH, Arrays.asList(
+					"role" + i, "user")));
+		}
+
+		CredentialSnapshot.write(file, credentials, 42);
+		final CredentialSnapshot snapshot = CredentialSnapshot.open(file);
+
+		assertEquals(100, snapshot.size());
+		assertEquals(42, snapshot.getWatermark());
+		final Credential credential = snapshot.get("user7");
+		assertEquals(HASH, credential.getPassword());
+		assertEquals(2, credential.getRoles().size());
+		assertTrue(credential.getRoles().contains("role7"));
+		assertNull(snapshot.get("khan"));
+		assertEquals(100, snapshot.getAll().size());
+	}
+
+	@Test
+	public void neverStoresPlainTextPasswords() throws Exception {
+		final File file = new File(folder.getRoot(), "users.snapshot");
+
+		CredentialSnapshot.write(file, Collections.singletonList(new Credential(
+				"kirk", "enterprise")), 0);
+
+		final byte[] content = Files.readAllBytes(file.toPath());
+		assertFalse(new String(content, Charset.forName("ISO-8859-1"))
+				.contains("enterprise"));
+
+		final String stored = CredentialSnapshot.open(file).get("kirk")
+				.getPassword();
+		assertTrue(new PasswordVerifier(true).verify("enterprise", stored));
+		assertFalse(new PasswordVerifier(true).verify("voyager", stored));
+		// plain text passwords stay subject to allow_plain
+		assertFalse(new PasswordVerifier(false).verify("enterprise", stored));
+		assertTrue(PasswordVerifier.isVerifierOf(stored, "enterprise"));
+		assertFalse(PasswordVerifier.isVerifierOf(stored, "voyager"));
+	}
+
+	@Test
+	public void createsTheFileOwnerOnly() throws Exception {
+		final File file = new File(folder.getRoot(), "users.snapshot");
+		assumeTrue(Files.getFileAttributeView(folder.getRoot().toPath(),
+				PosixFileAttributeView.class) != null);
+
+		CredentialSnapshot.write(file, Collections.singletonList(new Credential(
+				"kirk", HASH)), 0);
+
+		assertEquals(PosixFilePermissions.fromString("rw-------"),
+				Files.getPosixFilePermissions(file.toPath()));
+	}
+
+	@Test
+	public void statsDoNotRevealTheSnapshotPath() throws Exception {
+		final File file = new File(folder.getRoot(), "users.snapshot");
+		final SnapshotCredentialSource source = new SnapshotCredentialSource(
+				null, file, 60000, 60000);
+
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		source.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+
+		assertFalse(builder.string().contains(folder.getRoot().getPath()));
+	}
+
+}
@@ -0,0 +1,57 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.credential;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory users for the tests of the credential sources, counting the
+ * lookups and failing on demand.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+class FakeCredentialSource implements EnumerableCredentialSource {
+
+	final Map<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+
+	final AtomicInteger lookups = new AtomicInteger();
+
+	volatile boolean failing;
+
+	FakeCredentialSource add(final String username, final String... roles) {
+		credentials.put(username, new Credential(username, "secret",
+				Arrays.asList(roles)));
+		return this;
+	}
+
+	@Override
+	public Credential getCredential(final String username)
+			throws CredentialSourceException {
+		lookups.incrementAndGet();
+		if (failing) {
+			throw new CredentialSourceException("unavailable");
+		}
+		return credentials.get(username);
+	}
+
+	@Override
+	public List<String> getUsernames() throws CredentialSourceException {
+		if (failing) {
+			throw new CredentialSourceException("unavailable");
+		}
+		return new ArrayList<String>(credentials.keySet());
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+
+}
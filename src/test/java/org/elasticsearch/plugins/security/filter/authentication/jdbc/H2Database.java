@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.h2.Driver;
+
+/**
+ * In-memory H2 database holding the user tables of the JDBC tests. Names
+ * are case sensitive and the tables live in a schema named
+ * <code>public</code>, as the queries of the {@link JdbcCredentialSource}
+ * expect.
+ *
+ * @author Johannes Hiemer.
+ *
+ */
+final class H2Database {
+
+	private final String url;
+
+	H2Database(final String name) throws SQLException {
+		this.url = "jdbc:h2:mem:" + name
+				+ ";DB_CLOSE_DELAY=-1;DATABASE_TO_UPPER=false";
+		execute("CREATE SCHEMA IF NOT EXISTS \"public\"");
+	}
+
+	/**
+	 * Creates the user table, <code>roles</code> holds comma separated
+	 * roles.
+	 */
+	H2Database withUsers(final String... rows) throws SQLException {
+		execute("CREATE TABLE \"public\".users (username VARCHAR(64) PRIMARY KEY, "
+				+ "password VARCHAR(255), roles VARCHAR(255), modified TIMESTAMP)");
+		for (final String row : rows) {
+			execute("INSERT INTO \"public\".users (username, password, roles) VALUES ("
+					+ row + ")");
+		}
+		return this;
+	}
+
+	/**
+	 * Creates a role table with one row per role of a user.
+	 */
+	H2Database withRoles(final String... rows) throws SQLException {
+		execute("CREATE TABLE \"public\".user_roles (username VARCHAR(64), role VARCHAR(64))");
+		for (final String row : rows) {
+			execute("INSERT INTO \"public\".user_roles (username, role) VALUES ("
+					+ row + ")");
+		}
+		return this;
+	}
+
+	/**
+	 * Returns a pool of connections to the database, like a database server
+	 * it cannot be connected to once the database has been shut down.
+	 */
+	JdbcConnectionPool pool(final int maxSize, final long acquireTimeoutMillis,
+			final long validationIntervalMillis) {
+		return new JdbcConnectionPool(new Driver(), url + ";IFEXISTS=TRUE", "sa", "", 0,
+				maxSize, acquireTimeoutMillis, validationIntervalMillis);
+	}
+
+	void execute(final String... statements) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url, "sa", "");
+				Statement statement = connection.createStatement()) {
+			for (final String sql : statements) {
+				statement.execute(sql);
+			}
+		}
+	}
+
+	/**
+	 * Drops the database, open connections fail from now on and pools cannot
+	 * connect until it is created again.
+	 */
+	void shutdown() throws SQLException {
+		execute("SHUTDOWN");
+	}
+
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool.PooledConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class JdbcConnectionPoolTest {
+
+	private H2Database database;
+
+	private JdbcConnectionPool pool;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new H2Database("pool").withUsers("'kirk', 'secret', null");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (pool != null) {
+			pool.close();
+		}
+		database.shutdown();
+	}
+
+	@Test
+	public void neverHandsOutMoreThanMaxSizeConnections() throws Exception {
+		pool = database.pool(3, 10000, 60000);
+		pool.start();
+
+		final AtomicInteger inUse = new AtomicInteger();
+		final AtomicInteger maxInUse = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(12);
+
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 12; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int queries = 0;
+						for (int j = 0; j < 50; j++) {
+							final PooledConnection connection = pool.acquire();
+							try {
+								final int current = inUse.incrementAndGet();
+								int max;
+								while ((max = maxInUse.get()) < current
+										&& !maxInUse.compareAndSet(max, current)) {
+									// retry
+								}
+								queries += count(connection);
+							} finally {
+								inUse.decrementAndGet();
+								pool.release(connection);
+							}
+						}
+						return queries;
+					}
+				}));
+			}
+
+			for (final Future<Integer> result : results) {
+				assertEquals(50, result.get().intValue());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		assertTrue(maxInUse.get() <= 3);
+	}
+
+	@Test
+	public void timesOutIfAllConnectionsAreInUse() throws Exception {
+		pool = database.pool(2, 50, 60000);
+
+		final PooledConnection first = pool.acquire();
+		final PooledConnection second = pool.acquire();
+		try {
+			pool.acquire();
+			fail();
+		} catch (final SQLTransientConnectionException e) {
+			// expected
+		}
+
+		pool.release(first);
+		assertSame(first, pool.acquire());
+		pool.release(first);
+		pool.release(second);
+	}
+
+	@Test
+	public void reusesHealthyConnections() throws Exception {
+		pool = database.pool(2, 1000, 60000);
+
+		final PooledConnection connection = pool.acquire();
+		pool.release(connection);
+
+		final PooledConnection reused = pool.acquire();
+		assertSame(connection, reused);
+		assertEquals(1, count(reused));
+		pool.release(reused);
+	}
+
+	@Test
+	public void closesBrokenConnections() throws Exception {
+		pool = database.pool(1, 1000, 60000);
+
+		final PooledConnection broken = pool.acquire();
+		broken.markBroken();
+		pool.release(broken);
+
+		assertTrue(broken.getConnection().isClosed());
+
+		// the permit of the broken connection is available again
+		final PooledConnection replacement = pool.acquire();
+		assertNotSame(broken, replacement);
+		assertEquals(1, count(replacement));
+		pool.release(replacement);
+	}
+
+	@Test
+	public void replacesIdleConnectionsWhichAreNoLongerValid()
+			throws Exception {
+		// every idle connection is validated before reuse
+		pool = database.pool(1, 1000, 0);
+
+		final PooledConnection connection = pool.acquire();
+		final Connection underlying = connection.getConnection();
+		pool.release(connection);
+		underlying.close();
+
+		final PooledConnection replacement = pool.acquire();
+		assertNotSame(connection, replacement);
+		assertEquals(1, count(replacement));
+		pool.release(replacement);
+	}
+
+	private static int count(final PooledConnection connection)
+			throws Exception {
+		try (ResultSet resultSet = connection.prepareStatement(
+				"SELECT COUNT(*) FROM \"public\".users").executeQuery()) {
+			resultSet.next();
+			final int count = resultSet.getInt(1);
+			connection.getConnection().commit();
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.elasticsearch.plugins.security.filter.authentication.credential.Credential;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialChanges;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcCredentialSource.RoleMapping;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class JdbcCredentialSourceTest {
+
+	private H2Database database;
+
+	private JdbcCredentialSource source;
+
+	@Before
+	public void setUp() throws Exception {
+		database = new H2Database("credentials").withUsers(
+				"'kirk', 'secret ', 'admin, user'",
+				"'spock', 'logic', 'user'",
+				"'bowna', 'pass', null",
+				"'uhura', 'hailing', ',, '",
+				"'sulu', 'helm', 'pilot'");
+		database.withRoles("'kirk', 'captain'", "'kirk', 'admin'",
+				"'spock', 'officer'");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (source != null) {
+			source.close();
+		}
+		database.shutdown();
+	}
+
+	@Test
+	public void looksUpSingleUsers() throws Exception {
+		source = create(null);
+
+		final Credential credential = source.getCredential("kirk");
+		assertEquals("kirk", credential.getUsername());
+		// stored passwords are trimmed
+		assertEquals("secret", credential.getPassword());
+		assertTrue(credential.getRoles().isEmpty());
+
+		assertNull(source.getCredential("khan"));
+	}
+
+	@Test
+	public void looksUpBatchesWithPaddedInQueries() throws Exception {
+		source = create(null);
+
+		// three names are padded to four parameters, five to eight
+		Map<String, Credential> credentials = source.getCredentials(Arrays
+				.asList("kirk", "spock", "khan"));
+		assertEquals(new HashSet<String>(Arrays.asList("kirk", "spock")),
+				credentials.keySet());
+
+		credentials = source.getCredentials(Arrays.asList("sulu", "kirk",
+				"spock", "bowna", "uhura"));
+		assertEquals(5, credentials.size());
+		assertEquals("helm", credentials.get("sulu").getPassword());
+
+		assertEquals(0, source.getCredentials(Collections.<String> emptyList())
+				.size());
+	}
+
+	@Test
+	public void readsRolesFromAColumn() throws Exception {
+		source = create(RoleMapping.column("roles"));
+
+		final Map<String, Credential> credentials = source.getCredentials(Arrays
+				.asList("kirk", "bowna", "uhura"));
+		assertEquals(new HashSet<String>(Arrays.asList("admin", "user")),
+				credentials.get("kirk").getRoles());
+		assertTrue(credentials.get("bowna").getRoles().isEmpty());
+		assertTrue(credentials.get("uhura").getRoles().isEmpty());
+	}
+
+	@Test
+	public void readsRolesFromAJoinedTable() throws Exception {
+		source = create(RoleMapping.table("user_roles", "username", "role"));
+
+		final Map<String, Credential> credentials = source.getCredentials(Arrays
+				.asList("kirk", "spock", "bowna"));
+		assertEquals(3, credentials.size());
+		assertEquals(new HashSet<String>(Arrays.asList("captain", "admin")),
+				credentials.get("kirk").getRoles());
+		assertEquals(Collections.singleton("officer"), credentials.get("spock")
+				.getRoles());
+		// users without a role row are found through the outer join
+		assertTrue(credentials.get("bowna").getRoles().isEmpty());
+
+		assertEquals(5, source.getUsernames().size());
+	}
+
+	@Test
+	public void replicatesRoleTablesCompletely() throws Exception {
+		source = new JdbcCredentialSource(database.pool(2, 1000, 60000),
+				"users", "username", "password", "modified",
+				RoleMapping.table("user_roles", "username", "role"));
+
+		assertFalse(source.isIncremental());
+		final CredentialChanges changes = source.getChanges(System
+				.currentTimeMillis());
+		assertTrue(changes.isComplete());
+		assertEquals(5, changes.getCredentials().size());
+
+		source.close();
+		source = new JdbcCredentialSource(database.pool(2, 1000, 60000),
+				"users", "username", "password", "modified",
+				RoleMapping.column("roles"));
+		assertTrue(source.isIncremental());
+	}
+
+	@Test
+	public void retriesOnAnotherConnectionIfAConnectionBreaks()
+			throws Exception {
+		final JdbcConnectionPool pool = database.pool(1, 1000, 60000);
+		source = new JdbcCredentialSource(pool, "users", "username",
+				"password");
+
+		// close the idle connection behind the pool's back
+		final JdbcConnectionPool.PooledConnection connection = pool.acquire();
+		connection.getConnection().close();
+		pool.release(connection);
+
+		assertEquals("logic", source.getCredential("spock").getPassword());
+	}
+
+	private JdbcCredentialSource create(final RoleMapping roleMapping) {
+		return new JdbcCredentialSource(database.pool(2, 1000, 60000),
+				"users", "username", "password", null, roleMapping);
+	}
+
+}
@@ -0,0 +1,227 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSourceException;
+import org.elasticsearch.plugins.security.filter.authentication.jdbc.JdbcConnectionPool.PooledConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class ReplicatedConnectionPoolTest {
+
+	private static final String USER = "'kirk', 'secret', 'admin'";
+
+	private H2Database primary;
+
+	private H2Database replicaA;
+
+	private H2Database replicaB;
+
+	private JdbcConnectionPool replicaPoolA;
+
+	private ReplicatedConnectionPool pool;
+
+	private JdbcCredentialSource source;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = new H2Database("replicated_primary").withUsers(USER);
+		replicaA = new H2Database("replicated_a").withUsers(USER);
+		replicaB = new H2Database("replicated_b").withUsers(USER);
+
+		replicaPoolA = replicaA.pool(1, 50, 60000);
+		final Map<String, JdbcConnectionPool> replicas = new LinkedHashMap<String, JdbcConnectionPool>();
+		replicas.put("a", replicaPoolA);
+		replicas.put("b", replicaB.pool(1, 50, 60000));
+		// health checks are run by the tests only
+		pool = new ReplicatedConnectionPool(primary.pool(2, 1000, 60000),
+				replicas, 3600000);
+		pool.start();
+		source = new JdbcCredentialSource(pool, "users", "username",
+				"password");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		source.close();
+		primary.shutdown();
+		replicaA.shutdown();
+		replicaB.shutdown();
+	}
+
+	@Test
+	public void spreadsLookupsAcrossReplicas() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			assertEquals("secret", source.getCredential("kirk").getPassword());
+		}
+
+		assertEquals(5, stat("a", "requests"));
+		assertEquals(5, stat("b", "requests"));
+		assertEquals(0, stat("primary", "requests"));
+	}
+
+	@Test
+	public void fallsBackToThePrimaryUntilAReplicaRecovers()
+			throws Exception {
+		source.getCredential("kirk");
+		source.getCredential("kirk");
+
+		replicaA.shutdown();
+		lookupUntilDown("a");
+		assertEquals(1, stat("a", "failures"));
+
+		// the remaining replica takes all lookups
+		final long requests = stat("b", "requests");
+		source.getCredential("kirk");
+		source.getCredential("kirk");
+		assertEquals(requests + 2, stat("b", "requests"));
+
+		replicaB.shutdown();
+		lookupUntilDown("b");
+
+		// no replica is healthy
+		final long primaryRequests = stat("primary", "requests");
+		assertEquals("secret", source.getCredential("kirk").getPassword());
+		assertEquals(primaryRequests + 1, stat("primary", "requests"));
+		assertTrue(stat(null, "primary_fallbacks") > 0);
+
+		replicaA = new H2Database("replicated_a").withUsers(USER);
+		pool.checkHealth();
+		assertTrue(healthy("a"));
+		assertFalse(healthy("b"));
+
+		final long fallbacks = stat(null, "primary_fallbacks");
+		assertEquals("secret", source.getCredential("kirk").getPassword());
+		assertEquals(fallbacks, stat(null, "primary_fallbacks"));
+	}
+
+	@Test
+	public void skipsBusyReplicasBeforeFallingBack() throws Exception {
+		// the only connection of replica a is in use elsewhere
+		final PooledConnection held = replicaPoolA.acquire();
+		try {
+			for (int i = 0; i < 4; i++) {
+				source.getCredential("kirk");
+			}
+		} finally {
+			replicaPoolA.release(held);
+		}
+
+		assertEquals(4, stat("b", "requests"));
+		assertEquals(0, stat(null, "primary_fallbacks"));
+		assertTrue(healthy("a"));
+	}
+
+	@Test
+	public void marksAReplicaDownOnlyForConnectionFailures() throws Exception {
+		final Map<String, JdbcConnectionPool> replicas = new LinkedHashMap<String, JdbcConnectionPool>();
+		replicas.put("a", replicaA.pool(1, 50, 60000));
+		final ReplicatedConnectionPool single = new ReplicatedConnectionPool(
+				primary.pool(1, 1000, 60000), replicas, 3600000);
+		single.start();
+		try {
+			// statement errors take it down only if they follow each other
+			for (int i = 1; i < ReplicatedConnectionPool.MAX_CONSECUTIVE_FAILURES; i++) {
+				failQuery(single, new SQLException("duplicate key", "23505"));
+			}
+			single.release(single.acquire());
+			for (int i = 1; i < ReplicatedConnectionPool.MAX_CONSECUTIVE_FAILURES; i++) {
+				failQuery(single, new SQLException("syntax error", "42000"));
+			}
+			assertTrue(healthy(single, "a"));
+			failQuery(single, new SQLException("syntax error", "42000"));
+			assertFalse(healthy(single, "a"));
+
+			single.checkHealth();
+			failQuery(single, new SQLException("connection failure", "08006"));
+			assertFalse(healthy(single, "a"));
+
+			single.checkHealth();
+			failQuery(single, new SQLNonTransientConnectionException("closed"));
+			assertFalse(healthy(single, "a"));
+			assertEquals(3, ((Number) member(single, "a").get("failures"))
+					.intValue());
+		} finally {
+			single.close();
+		}
+	}
+
+	/**
+	 * Runs a query on a replica which fails with the given error.
+	 */
+	private static void failQuery(final ReplicatedConnectionPool pool,
+			final SQLException error) throws Exception {
+		assertTrue(healthy(pool, "a"));
+		final PooledConnection connection = pool.acquire();
+		connection.markBroken(error);
+		pool.release(connection);
+	}
+
+	/**
+	 * Looks up until the broken replica has been selected and marked down.
+	 */
+	private void lookupUntilDown(final String replica) throws Exception {
+		for (int i = 0; i < 4 && healthy(replica); i++) {
+			try {
+				source.getCredential("kirk");
+			} catch (final CredentialSourceException e) {
+				// the lookup on the broken replica
+			}
+		}
+		assertFalse(healthy(replica));
+	}
+
+	private boolean healthy(final String member) throws Exception {
+		return healthy(pool, member);
+	}
+
+	private static boolean healthy(final ReplicatedConnectionPool pool,
+			final String member) throws Exception {
+		return (Boolean) member(pool, member).get("healthy");
+	}
+
+	private long stat(final String member, final String name)
+			throws Exception {
+		return ((Number) member(pool, member).get(name)).longValue();
+	}
+
+	/**
+	 * Returns the stats of the primary or a replica, or of the pool if the
+	 * member is null.
+	 */
+	private static Map<?, ?> member(final ReplicatedConnectionPool pool,
+			final String member) throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		pool.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		final Map<?, ?> database = (Map<?, ?>) XContentHelper
+				.convertToMap(builder.bytes(), false).v2().get("database");
+		if (member == null) {
+			return database;
+		}
+		if ("primary".equals(member)) {
+			return (Map<?, ?>) database.get(member);
+		}
+		return (Map<?, ?>) ((Map<?, ?>) database.get("replicas")).get(member);
+	}
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class PasswordVerifierTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * password, salt, iterations, derived key of RFC 6070
+	 */
+	private static final Object[][] RFC_6070 = {
+			{ "password", "salt", 1, "0c60c80f961f0e71f3a9b524af6012062fe037a6" },
+			{ "password", "salt", 2, "ea6c014dc72d6f8ccd1ed92ace1d41f0d8de8957" },
+			{ "password", "salt", 4096,
+					"4b007901b765489abead49d926f721d065a429c1" },
+			{ "passwordPASSWORDpassword",
+					"saltSALTsaltSALTsaltSALTsaltSALTsalt", 4096,
+					"3d2eec4fe41c849b80c8d83662c0e44a8b291a964cf2f07038" },
+			{ "pass\0word", "sa\0lt", 4096, "56fa6aa75548099dcc37d7f03425e0c3" } };
+
+	/**
+	 * "enterprise" as hashed by Django's PBKDF2PasswordHasher
+	 */
+	private static final String DJANGO_SHA256 = "pbkdf2_sha256$20000$seasalt42$UvS9xPMt+oD5tI+VaqYbcASE1d9aRvdLwxsvC0W3RVo=";
+
+	@Test
+	public void derivesTheKeysOfRfc6070() throws Exception {
+		for (final Object[] vector : RFC_6070) {
+			final String expected = (String) vector[3];
+			final byte[] key = PasswordVerifier.pbkdf2("HmacSHA1",
+					((String) vector[0]).getBytes(UTF_8),
+					((String) vector[1]).getBytes(UTF_8), (Integer) vector[2],
+					expected.length() / 2);
+
+			assertEquals(vector[0] + " " + vector[2], expected, hex(key));
+		}
+	}
+
+	@Test
+	public void verifiesDjangoHashes() {
+		final PasswordVerifier verifier = new PasswordVerifier(false);
+
+		assertTrue(verifier.verify("enterprise", DJANGO_SHA256));
+		assertFalse(verifier.verify("Enterprise", DJANGO_SHA256));
+		assertFalse(verifier.verify("enterprise",
+				DJANGO_SHA256.replace("seasalt42", "seasalt43")));
+		assertFalse(verifier.verify("enterprise",
+				DJANGO_SHA256.replace("$20000$", "$19999$")));
+	}
+
+	@Test
+	public void rejectsMalformedHashes() {
+		final PasswordVerifier verifier = new PasswordVerifier(true);
+
+		assertFalse(verifier.verify("enterprise", "pbkdf2_sha256$20000$seasalt42"));
+		assertFalse(verifier.verify("enterprise",
+				"pbkdf2_md4$20000$seasalt42$UvS9xPMt"));
+		assertFalse(verifier.verify("enterprise",
+				DJANGO_SHA256.replace("$20000$", "$0$")));
+		assertFalse(verifier.verify("", DJANGO_SHA256));
+		assertFalse(verifier.verify(null, DJANGO_SHA256));
+	}
+
+	@Test
+	public void acceptsPlainPasswordsOnlyIfAllowed() {
+		assertFalse(new PasswordVerifier(false).verify("secret", "secret"));
+		assertTrue(new PasswordVerifier(true).verify("secret", "secret"));
+		assertFalse(new PasswordVerifier(true).verify("secret", "Secret"));
+	}
+
+	@Test
+	public void verifiersOfPlainPasswordsNeedPlainPasswordsAllowed() {
+		final String verifier = PasswordVerifier.toVerifier("secret");
+
+		assertFalse(verifier.contains("secret"));
+		assertTrue(PasswordVerifier.isVerifierOf(verifier, "secret"));
+		assertFalse(PasswordVerifier.isVerifierOf(verifier, "other"));
+		assertTrue(new PasswordVerifier(true).verify("secret", verifier));
+		assertFalse(new PasswordVerifier(false).verify("secret", verifier));
+
+		// hashes are kept as they are
+		assertEquals(DJANGO_SHA256, PasswordVerifier.toVerifier(DJANGO_SHA256));
+	}
+
+	private static String hex(final byte[] bytes) {
+		final StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (final byte b : bytes) {
+			sb.append(Character.forDigit(b >> 4 & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+}
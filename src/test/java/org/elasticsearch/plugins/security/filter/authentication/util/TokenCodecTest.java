@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class TokenCodecTest {
+
+	private static final long NOW = 1400000000000L;
+
+	@Test
+	public void decodesEncodedTokens() throws Exception {
+		final TokenCodec codec = TokenCodec.getInstance("0123456789abcdef");
+		final String value = codec.encode("kirk", NOW + 1000);
+
+		final TokenCodec.Token token = codec.decode(value, NOW);
+		assertEquals("kirk", token.getUserName());
+		assertEquals(NOW + 1000, token.getExpires());
+
+		// every token has its own nonce
+		assertNotEquals(value, codec.encode("kirk", NOW + 1000));
+	}
+
+	@Test
+	public void rejectsExpiredTokens() throws Exception {
+		final TokenCodec codec = TokenCodec.getInstance("0123456789abcdef");
+
+		assertNull(codec.decode(codec.encode("kirk", NOW), NOW));
+	}
+
+	@Test
+	public void rejectsTamperedTokens() throws Exception {
+		final TokenCodec codec = TokenCodec.getInstance("0123456789abcdef");
+		final String value = codec.encode("kirk", NOW + 1000);
+
+		for (int i = 0; i < value.length(); i++) {
+			final char[] chars = value.toCharArray();
+			chars[i] = chars[i] == 'A' ? 'B' : 'A';
+			final String tampered = new String(chars);
+			final TokenCodec.Token token = codec.decode(tampered, NOW);
+			// the last character may carry unused bits only
+			assertTrue(tampered, token == null || i == value.length() - 1);
+		}
+	}
+
+	@Test
+	public void rejectsTokensOfOtherKeys() throws Exception {
+		final String value = TokenCodec.getInstance("0123456789abcdef")
+				.encode("kirk", NOW + 1000);
+
+		assertNull(TokenCodec.getInstance("fedcba9876543210").decode(value,
+				NOW));
+	}
+
+	@Test
+	public void recognizesTheCurrentVersion() throws Exception {
+		final TokenCodec codec = TokenCodec.getInstance("0123456789abcdef");
+
+		assertTrue(TokenCodec.isVersioned(codec.encode("kirk", NOW + 1000)));
+		// standard base64 with padding, as issued by EncryptionUtil
+		assertFalse(TokenCodec.isVersioned("AQi2uVb+Ok4="));
+		assertFalse(TokenCodec.isVersioned("AgAAAAAAAAAA"));
+		assertFalse(TokenCodec.isVersioned("A"));
+		assertFalse(TokenCodec.isVersioned(""));
+	}
+
+}
@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class TokenUtilTest {
+
+	private static final String KEY = "0123456789abcdef";
+
+	private static final String LEGACY_SEED = "%DU)FöfI8/°";
+
+	@Test
+	public void requiresAKey() {
+		for (final String key : new String[] { null, "", "too short" }) {
+			try {
+				new TokenUtil(key).init();
+				fail(key);
+			} catch (final IllegalStateException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void acceptsIssuedTokens() throws Exception {
+		final TokenUtil tokenUtil = create(KEY);
+
+		assertEquals("kirk",
+				tokenUtil.getUserName(request(tokenUtil.createAuthToken("kirk"))));
+		assertNull(create("fedcba9876543210").getToken(
+				request(tokenUtil.createAuthToken("kirk"))));
+	}
+
+	@Test
+	public void acceptsLegacyTokensIssuedBeforeStart() throws Exception {
+		final String legacy = legacyToken("kirk",
+				System.currentTimeMillis() - 60000);
+		final TokenUtil tokenUtil = create(KEY);
+
+		assertEquals("kirk", tokenUtil.getUserName(request(legacy)));
+	}
+
+	@Test
+	public void rejectsForgedLegacyTokens() throws Exception {
+		final String expired = legacyToken("kirk",
+				System.currentTimeMillis() - 21 * 60000);
+		final TokenUtil tokenUtil = create(KEY);
+		final long now = System.currentTimeMillis();
+
+		assertNull(tokenUtil.getToken(request(expired)));
+		assertNull(tokenUtil.getToken(request(legacyToken("kirk", now))));
+		assertNull(tokenUtil.getToken(request(legacyToken("kirk",
+				now + 365L * 24 * 3600000))));
+	}
+
+	@Test
+	public void neverCachesOrRenewsLegacyTokens() throws Exception {
+		final String legacy = legacyToken("kirk",
+				System.currentTimeMillis() - 60000);
+		final TokenUtil tokenUtil = new TokenUtil(KEY, 100, 1);
+		tokenUtil.init();
+
+		final TokenCodec.Token token = tokenUtil.getToken(request(legacy));
+		assertTrue(token.isLegacy());
+		assertEquals(legacy, tokenUtil.renewToken(legacy, token));
+
+		tokenUtil.getToken(request(legacy));
+		assertEquals(0, ((Number) stats(tokenUtil.getVerifiedTokenCache())
+				.get("size")).intValue());
+		assertEquals(2, ((Number) stats(tokenUtil.getVerifiedTokenCache())
+				.get("decrypts")).intValue());
+	}
+
+	@Test
+	public void neverReadsInvalidTokensAsLegacyTokens() throws Exception {
+		final TokenUtil tokenUtil = create(KEY);
+		final TokenCodec codec = TokenCodec.getInstance(KEY);
+
+		final String expired = codec.encode("kirk",
+				System.currentTimeMillis() - 1);
+		assertNull(tokenUtil.getToken(request(expired)));
+
+		final String forged = TokenCodec.getInstance(LEGACY_SEED).encode(
+				"kirk", System.currentTimeMillis() + 60000);
+		assertNull(tokenUtil.getToken(request(forged)));
+	}
+
+	private static String legacyToken(final String userName,
+			final long issued) throws Exception {
+		return new EncryptionUtil(true).encrypt(userName + "|" + issued,
+				LEGACY_SEED);
+	}
+
+	private static Map<String, Object> stats(final ToXContent stats)
+			throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		stats.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		return XContentHelper.convertToMap(builder.bytes(), false).v2();
+	}
+
+	private static TokenUtil create(final String key) {
+		final TokenUtil tokenUtil = new TokenUtil(key);
+		tokenUtil.init();
+		return tokenUtil;
+	}
+
+	private static HttpServletRequest request(final String token) {
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				TokenUtilTest.class.getClassLoader(),
+				new Class<?>[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(final Object proxy,
+							final Method method, final Object[] args) {
+						if ("getHeader".equals(method.getName())
+								&& "X-Auth-Token".equals(args[0])) {
+							return token;
+						}
+						return null;
+					}
+				});
+	}
+
+}
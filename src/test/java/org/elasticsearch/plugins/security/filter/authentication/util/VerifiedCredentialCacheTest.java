@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.filter.authentication.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class VerifiedCredentialCacheTest {
+
+	private static final String HASH = "pbkdf2_sha256$20000$seasalt42$UvS9xPMt+oD5tI+VaqYbcASE1d9aRvdLwxsvC0W3RVo=";
+
+	@Test
+	public void remembersValidPasswords() throws Exception {
+		final VerifiedCredentialCache cache = new VerifiedCredentialCache(10,
+				60000);
+
+		assertFalse(cache.isVerified("kirk", "enterprise", HASH));
+		cache.verified("kirk", "enterprise", HASH, true);
+		assertTrue(cache.isVerified("kirk", "enterprise", HASH));
+
+		cache.verified("spock", "logic", HASH, false);
+		assertFalse(cache.isVerified("spock", "logic", HASH));
+
+		final Map<String, Object> stats = stats(cache);
+		assertEquals(1, ((Number) stats.get("size")).intValue());
+		assertEquals(1, ((Number) stats.get("hits")).intValue());
+		assertEquals(2, ((Number) stats.get("misses")).intValue());
+		assertEquals(2, ((Number) stats.get("verifications")).intValue());
+		assertEquals(1, ((Number) stats.get("rejects")).intValue());
+	}
+
+	@Test
+	public void missesIfThePasswordOrTheHashChanged() {
+		final VerifiedCredentialCache cache = new VerifiedCredentialCache(10,
+				60000);
+		cache.verified("kirk", "enterprise", HASH, true);
+
+		assertFalse(cache.isVerified("kirk", "Enterprise", HASH));
+		assertFalse(cache.isVerified("kirk", "enterprise",
+				HASH.replace("seasalt42", "seasalt43")));
+		assertFalse(cache.isVerified("kirk", "enterprise", null));
+		assertFalse(cache.isVerified("spock", "enterprise", HASH));
+		assertTrue(cache.isVerified("kirk", "enterprise", HASH));
+	}
+
+	@Test
+	public void forgetsPasswordsAfterTheTimeToLive() throws Exception {
+		final VerifiedCredentialCache cache = new VerifiedCredentialCache(10,
+				50);
+		cache.verified("kirk", "enterprise", HASH, true);
+
+		Thread.sleep(100);
+
+		assertFalse(cache.isVerified("kirk", "enterprise", HASH));
+	}
+
+	@Test
+	public void staysWithinItsSize() throws Exception {
+		final VerifiedCredentialCache cache = new VerifiedCredentialCache(2,
+				60000);
+		for (int i = 0; i < 20; i++) {
+			cache.verified("user" + i, "enterprise", HASH, true);
+		}
+
+		assertTrue(((Number) stats(cache).get("size")).intValue() <= 2);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> stats(final ToXContent stats)
+			throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		stats.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		return (Map<String, Object>) XContentHelper
+				.convertToMap(builder.bytes(), false).v2()
+				.get("verified_credentials");
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.http.realm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.realm.GenericPrincipal;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CachingCredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.Credential;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSource;
+import org.elasticsearch.plugins.security.filter.authentication.credential.CredentialSourceException;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class CustomJdbcRealmTest {
+
+	@Test
+	public void readsThroughTheCredentialSource() {
+		final Users users = new Users().add("kirk", "admin");
+		final CustomJdbcRealm realm = new CustomJdbcRealm();
+		realm.setCredentialSource(users);
+
+		assertArrayEquals(new String[] { "admin" },
+				realm.getGenericPrincipal("kirk").getRoles());
+
+		// no principal is kept by the realm
+		users.add("kirk", "user");
+		assertArrayEquals(new String[] { "user" },
+				realm.getGenericPrincipal("kirk").getRoles());
+		users.credentials.remove("kirk");
+		assertNull(realm.getGenericPrincipal("kirk"));
+		assertEquals(3, users.lookups.get());
+	}
+
+	@Test
+	public void deletedUserIsGoneOnceTheCacheExpires() {
+		final Users users = new Users().add("kirk", "admin");
+		final CachingCredentialSource source = new CachingCredentialSource(
+				users, null, 100, 0, 0, 0, 0, 0, 0);
+		final CustomJdbcRealm realm = new CustomJdbcRealm();
+		realm.setCredentialSource(source);
+		try {
+			assertNotNull(realm.getGenericPrincipal("kirk"));
+			users.credentials.remove("kirk");
+			assertNull(realm.getGenericPrincipal("kirk"));
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test
+	public void cachedPrincipalComesFromTheCredentialCache() {
+		final Users users = new Users().add("kirk", "admin");
+		final CachingCredentialSource source = new CachingCredentialSource(
+				users, null, 100, 60000, 60000, 60000, 0, 0, 0);
+		final CustomJdbcRealm realm = new CustomJdbcRealm();
+		realm.setCredentialSource(source);
+		try {
+			assertNull(realm.getCachedPrincipal("kirk"));
+			assertEquals(0, users.lookups.get());
+
+			assertNotNull(realm.getGenericPrincipal("kirk"));
+			assertEquals("kirk", realm.getCachedPrincipal("kirk").getName());
+			assertEquals(1, users.lookups.get());
+
+			// unknown users are cached as such, but never answered from the
+			// cache
+			assertNull(realm.getGenericPrincipal("spock"));
+			assertNull(realm.getCachedPrincipal("spock"));
+			assertEquals(2, users.lookups.get());
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test
+	public void authenticatesByPassword() {
+		final CustomJdbcRealm realm = new CustomJdbcRealm();
+		realm.setCredentialSource(new Users().add("kirk", "admin"));
+
+		final GenericPrincipal principal = (GenericPrincipal) realm
+				.authenticate("kirk", "secret");
+		assertEquals("kirk", principal.getName());
+		assertNull(realm.authenticate("kirk", "wrong"));
+		assertNull(realm.authenticate("spock", "secret"));
+	}
+
+	private static final class Users implements CredentialSource {
+
+		private final Map<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		private Users add(final String username, final String... roles) {
+			credentials.put(username, new Credential(username, "secret",
+					Arrays.asList(roles)));
+			return this;
+		}
+
+		@Override
+		public Credential getCredential(final String username)
+				throws CredentialSourceException {
+			lookups.incrementAndGet();
+			return credentials.get(username);
+		}
+
+		@Override
+		public void close() {
+			// nothing to release
+		}
+	}
+
+}
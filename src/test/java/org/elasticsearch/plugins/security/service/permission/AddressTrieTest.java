@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+
+import org.elasticsearch.common.net.InetAddresses;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class AddressTrieTest {
+
+	@Test
+	public void recognizesNetworks() {
+		assertTrue(AddressTrie.isNetwork("10.0.0.0/8"));
+		assertTrue(AddressTrie.isNetwork("10.0.0.1-10.0.0.99"));
+		assertTrue(AddressTrie.isNetwork("2001:db8::/32"));
+		assertTrue(AddressTrie.isNetwork("2001:db8::1"));
+
+		assertFalse(AddressTrie.isNetwork("192.168.*.*"));
+		assertFalse(AddressTrie.isNetwork("10.0.0.1"));
+		assertFalse(AddressTrie.isNetwork("*.example.com"));
+		assertFalse(AddressTrie.isNetwork("db-1.example.com"));
+	}
+
+	@Test
+	public void rejectsInvalidEntriesWithoutLookup() {
+		// none of these may be passed to the name service
+		for (final String host : new String[] { "zz::g", "db.example.com:9300",
+				"foo:bar/8", "db.example.com/24", "2001:db8::*",
+				"2001:db8::1-db.example.com" }) {
+			try {
+				AddressTrie.isNetwork(host);
+				fail(host);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void rejectsInvalidPrefixLengths() {
+		final AddressTrie trie = new AddressTrie(1);
+		for (final String network : new String[] { "10.0.0.0/33",
+				"2001:db8::/129", "10.0.0.0/x", "10.0.0.1-2001:db8::1" }) {
+			try {
+				trie.insert(network, 0);
+				fail(network);
+			} catch (final IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void collectsMatchingNetworks() {
+		final AddressTrie trie = new AddressTrie(4);
+		trie.insert("10.0.0.0/8", 0);
+		trie.insert("10.1.0.0/16", 1);
+		trie.insert("192.168.0.10-192.168.0.20", 2);
+		trie.insert("2001:db8::/32", 3);
+
+		assertEquals(bits(0, 1), collect(trie, "10.1.2.3"));
+		assertEquals(bits(0), collect(trie, "10.2.0.1"));
+		assertEquals(bits(), collect(trie, "11.0.0.1"));
+		assertEquals(bits(2), collect(trie, "192.168.0.10"));
+		assertEquals(bits(2), collect(trie, "192.168.0.20"));
+		assertEquals(bits(), collect(trie, "192.168.0.21"));
+		assertEquals(bits(3), collect(trie, "2001:db8:0:0:0:0:0:1"));
+		assertEquals(bits(), collect(trie, "2001:db9::1"));
+	}
+
+	@Test
+	public void matchesIpv6AddressesRegardlessOfNotation() {
+		final AddressTrie trie = new AddressTrie(1);
+		trie.insert("2001:db8::1", 0);
+
+		assertEquals(bits(0), collect(trie, "2001:0db8:0:0:0:0:0:1"));
+		assertEquals(bits(), collect(trie, "2001:db8::2"));
+	}
+
+	private static BitSet collect(final AddressTrie trie, final String address) {
+		final BitSet into = new BitSet();
+		trie.collect(InetAddresses.forString(address).getAddress(), into);
+		return into;
+	}
+
+	private static BitSet bits(final int... positions) {
+		final BitSet bits = new BitSet();
+		for (final int pos : positions) {
+			bits.set(pos);
+		}
+		return bits;
+	}
+
+}
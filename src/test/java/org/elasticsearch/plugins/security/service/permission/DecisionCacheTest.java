@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.elasticsearch.common.net.InetAddresses;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class DecisionCacheTest {
+
+	private static final InetAddress ADDRESS = InetAddresses
+			.forString("10.0.0.1");
+
+	private static final List<String> TYPES = Collections
+			.singletonList("twitter");
+
+	@Test
+	public void returnsDecisionsOfTheSameVersionOnly() {
+		final DecisionCache<String> cache = new DecisionCache<String>(10, 1);
+		final DecisionCache.Key key = key("db.example.com", "logs");
+
+		cache.put(key, 1, "ALL");
+
+		assertEquals("ALL", cache.get(key, 1));
+		assertNull(cache.get(key, 2));
+	}
+
+	@Test
+	public void normalizesIndicesAndRoles() {
+		final DecisionCache<String> cache = new DecisionCache<String>(10, 1);
+
+		cache.put(DecisionCache.Key.of("kirk",
+				Arrays.asList("admin", "user"), ADDRESS, null,
+				Arrays.asList("a", "b", "a"), TYPES), 1, "ALL");
+
+		assertEquals("ALL", cache.get(DecisionCache.Key.of("kirk",
+				Arrays.asList("user", "admin"), ADDRESS, null,
+				Arrays.asList("b", "a"), TYPES), 1));
+	}
+
+	@Test
+	public void separatesDecisionsByHostName() {
+		final DecisionCache<String> cache = new DecisionCache<String>(10, 1);
+
+		cache.put(key("db.example.com", "logs"), 1, "ALL");
+
+		// the address resolves to another name or not at all any more
+		assertNull(cache.get(key("db.example.org", "logs"), 1));
+		assertNull(cache.get(key("10.0.0.1", "logs"), 1));
+		assertNull(cache.get(key(null, "logs"), 1));
+		assertEquals("ALL", cache.get(key("db.example.com", "logs"), 1));
+	}
+
+	private static DecisionCache.Key key(final String hostName,
+			final String... indices) {
+		return DecisionCache.Key.of("kirk", Collections.singleton("admin"),
+				ADDRESS, hostName, Arrays.asList(indices), TYPES);
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.service.permission;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class WildcardMatcherTest {
+
+	/**
+	 * rule value, request value, expected outcome of the regex based
+	 * comparison this matcher replaces
+	 */
+	private static final Object[][] PINNED = {
+			{ "*", "logs", true },
+			{ "*", "", true },
+			{ "logs", "logs", true },
+			{ "logs", "log", false },
+			{ "log*", "logs", true },
+			{ "log*", "log", true },
+			{ "log*", "blog", false },
+			{ "*logs", "weblogs", true },
+			{ "*logs", "logs", true },
+			{ "*logs", "logs1", false },
+			{ "web*logs", "weblogs", true },
+			{ "web*logs", "web-access-logs", true },
+			{ "web*logs", "web-logs-1", false },
+			{ "l*g*s", "lagoons", true },
+			{ "l*g*s", "logs", true },
+			{ "l*g*s", "lags", true },
+			{ "l*g*s", "lsg", false },
+			{ "a*a", "a", false },
+			{ "a*a", "aa", true },
+			{ "**", "x", true },
+			{ "", "", true },
+			{ "", "x", false },
+			// the dot was the only character escaped before
+			{ "logs.2015", "logs.2015", true },
+			{ "logs.2015", "logsx2015", false },
+			{ "logs.*", "logs.2015", true },
+			{ "logs.*", "logsx2015", false },
+			// request values containing * match in both directions
+			{ "logs", "lo*", true },
+			{ "logs", "*gs", true },
+			{ "logs", "x*", false },
+			{ "lo*", "log*", true },
+			{ "log*", "lo*", true },
+			{ "log*", "web*", false } };
+
+	@Test
+	public void matchesLikeTheRegexComparison() {
+		for (final Object[] row : PINNED) {
+			final String rule = (String) row[0];
+			final String request = (String) row[1];
+			final String message = rule + " / " + request;
+
+			assertEquals(message, row[2], regexMatch(request, rule));
+			assertEquals(message, row[2], match(rule, request));
+		}
+	}
+
+	@Test
+	public void takesRegexMetacharactersLiterally() {
+		// the regex translation read these as operators, or failed on them
+		assertTrue(match("log?", "log?"));
+		assertFalse(match("log?", "logs"));
+		assertFalse(match("log?", "lo"));
+		assertTrue(match("a+b", "a+b"));
+		assertFalse(match("a+b", "aab"));
+		assertTrue(match("idx[1]", "idx[1]"));
+		assertFalse(match("idx[1]", "idx1"));
+		assertTrue(match("idx[*", "idx[2015"));
+		assertTrue(match("(a|b)*", "(a|b)-1"));
+		assertFalse(match("(a|b)*", "a"));
+	}
+
+	@Test
+	public void reportsWhetherItIsAPattern() {
+		assertTrue(new WildcardMatcher("log*").isWildcard());
+		assertFalse(new WildcardMatcher("logs").isWildcard());
+		assertFalse(new WildcardMatcher("").isWildcard());
+		assertEquals("log*", new WildcardMatcher("log*").getPattern());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsNull() {
+		new WildcardMatcher(null);
+	}
+
+	/**
+	 * Compares as {@link PatternIndex} does, the compiled rule value against
+	 * the request value and, if the request value contains *, the other way
+	 * round.
+	 */
+	private static boolean match(final String rule, final String request) {
+		final boolean compiled = new WildcardMatcher(rule).matches(request);
+		final boolean walked = WildcardMatcher.matches(rule, request);
+		assertEquals(rule + " / " + request, compiled, walked);
+
+		return compiled || request.indexOf('*') != -1
+				&& WildcardMatcher.matches(request, rule);
+	}
+
+	/**
+	 * The comparison of rule and request values before the matchers were
+	 * introduced.
+	 */
+	private static boolean regexMatch(final String a, final String b) {
+		if (Pattern.matches(a.replace(".", "\\.").replace("*", ".*"), b)) {
+			return true;
+		}
+		return Pattern.matches(b.replace(".", "\\.").replace("*", ".*"), a);
+	}
+
+}
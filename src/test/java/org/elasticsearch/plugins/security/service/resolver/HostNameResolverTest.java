@@ -0,0 +1,195 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.service.resolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.base.Ticker;
+import org.elasticsearch.common.net.InetAddresses;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.plugins.security.service.resolver.HostNameResolver.HostName;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class HostNameResolverTest {
+
+	private static final InetAddress KNOWN = InetAddresses
+			.forString("10.0.0.1");
+
+	private static final InetAddress UNKNOWN = InetAddresses
+			.forString("10.0.0.2");
+
+	private final FakeResolver resolver = new FakeResolver();
+
+	private final FakeTicker ticker = new FakeTicker();
+
+	private HostNameResolver hostNameResolver;
+
+	@After
+	public void close() {
+		resolver.release();
+		if (hostNameResolver != null) {
+			hostNameResolver.close();
+		}
+	}
+
+	@Test
+	public void cachesResolvedNamesForThePositiveTtl() throws Exception {
+		hostNameResolver = create(ImmutableSettings.settingsBuilder().build());
+		resolver.names.put(KNOWN, "db.example.com");
+
+		assertCurrent("db.example.com", hostNameResolver.resolve(KNOWN));
+		ticker.advance(4, TimeUnit.MINUTES);
+		assertCurrent("db.example.com", hostNameResolver.resolve(KNOWN));
+		assertEquals(1, resolver.calls.get());
+
+		// the expired name is served while it is refreshed
+		resolver.names.put(KNOWN, "web.example.com");
+		ticker.advance(2, TimeUnit.MINUTES);
+		final HostName expired = hostNameResolver.resolve(KNOWN);
+		assertEquals("db.example.com", expired.getName());
+		assertFalse(expired.isCurrent());
+
+		assertCurrent("web.example.com", awaitCurrent(KNOWN));
+		assertEquals(2, resolver.calls.get());
+	}
+
+	@Test
+	public void cachesFailedLookupsForTheNegativeTtl() throws Exception {
+		hostNameResolver = create(ImmutableSettings.settingsBuilder().build());
+
+		assertCurrent("10.0.0.2", hostNameResolver.resolve(UNKNOWN));
+		ticker.advance(20, TimeUnit.SECONDS);
+		assertCurrent("10.0.0.2", hostNameResolver.resolve(UNKNOWN));
+		assertEquals(1, resolver.calls.get());
+
+		resolver.names.put(UNKNOWN, "new.example.com");
+		ticker.advance(20, TimeUnit.SECONDS);
+		assertFalse(hostNameResolver.resolve(UNKNOWN).isCurrent());
+
+		assertCurrent("new.example.com", awaitCurrent(UNKNOWN));
+	}
+
+	@Test
+	public void returnsTheAddressIfTheLookupTimesOut() throws Exception {
+		hostNameResolver = create(ImmutableSettings.settingsBuilder()
+				.put("security.dns.reverse.timeout", "50ms").build());
+		resolver.names.put(KNOWN, "db.example.com");
+		resolver.block();
+
+		final HostName timedOut = hostNameResolver.resolve(KNOWN);
+		assertEquals("10.0.0.1", timedOut.getName());
+		assertFalse(timedOut.isCurrent());
+
+		resolver.release();
+		assertCurrent("db.example.com", awaitCurrent(KNOWN));
+	}
+
+	@Test
+	public void rejectsLookupsBeyondTheQueueSize() throws Exception {
+		hostNameResolver = create(ImmutableSettings.settingsBuilder()
+				.put("security.dns.reverse.timeout", "10ms")
+				.put("security.dns.reverse.threads", 1)
+				.put("security.dns.reverse.queue_size", 1).build());
+		resolver.block();
+
+		// one lookup running, one queued
+		hostNameResolver.resolve(KNOWN);
+		hostNameResolver.resolve(UNKNOWN);
+
+		final InetAddress rejected = InetAddresses.forString("10.0.0.3");
+		final HostName hostName = hostNameResolver.resolve(rejected);
+		assertEquals("10.0.0.3", hostName.getName());
+		assertFalse(hostName.isCurrent());
+	}
+
+	private HostNameResolver create(final Settings settings) {
+		return new HostNameResolver(settings, resolver, ticker);
+	}
+
+	/**
+	 * Waits for a background lookup to replace the cached name.
+	 */
+	private HostName awaitCurrent(final InetAddress address)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		HostName hostName;
+		while (!(hostName = hostNameResolver.resolve(address)).isCurrent()
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		return hostName;
+	}
+
+	private static void assertCurrent(final String name,
+			final HostName hostName) {
+		assertEquals(name, hostName.getName());
+		assertTrue(hostName.isCurrent());
+	}
+
+	private static final class FakeResolver implements ReverseResolver {
+
+		private final Map<InetAddress, String> names = new ConcurrentHashMap<InetAddress, String>();
+
+		private final AtomicInteger calls = new AtomicInteger();
+
+		private volatile CountDownLatch blocked = new CountDownLatch(0);
+
+		@Override
+		public String resolve(final InetAddress address)
+				throws UnknownHostException {
+			calls.incrementAndGet();
+			try {
+				blocked.await();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			final String name = names.get(address);
+			if (name == null) {
+				throw new UnknownHostException(address.getHostAddress());
+			}
+			return name;
+		}
+
+		private void block() {
+			blocked = new CountDownLatch(1);
+		}
+
+		private void release() {
+			blocked.countDown();
+		}
+	}
+
+	private static final class FakeTicker extends Ticker {
+
+		private final AtomicLong nanos = new AtomicLong();
+
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+
+		private void advance(final long duration, final TimeUnit unit) {
+			nanos.addAndGet(unit.toNanos(duration));
+		}
+	}
+
+}
@@ -0,0 +1,206 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class EndpointClassifierTest {
+
+	private static final int READ = 0;
+
+	private static final int WRITE = EndpointClassifier.WRITE_REQUEST;
+
+	private static final int ADMIN = EndpointClassifier.ADMIN_REQUEST;
+
+	/**
+	 * method, path, classification in strict and in lax mode, without the
+	 * name flags
+	 */
+	private static final Object[][] ENDPOINTS = {
+			{ Method.GET, "/idx/_search", READ, READ },
+			{ Method.POST, "/idx/_search", READ, READ },
+			{ Method.POST, "/idx/_search_shards", READ, READ },
+			{ Method.GET, "/_nodes", READ, READ },
+			{ Method.GET, "/_nodes/stats", READ, READ },
+			{ Method.GET, "/idx/_warmer", ADMIN, ADMIN },
+			{ Method.GET, "/idx/_warmers", ADMIN, ADMIN },
+			{ Method.GET, "/idx/_warmers/w1", ADMIN, ADMIN },
+			{ Method.GET, "/idx/_warmer/w1", READ, READ },
+			{ Method.GET, "/idx/_mapping", WRITE, READ },
+			{ Method.GET, "/idx/_mappings", WRITE, READ },
+			{ Method.GET, "/idx/_mapping/type", READ, READ },
+			{ Method.GET, "/idx/_aliases", WRITE, READ },
+			{ Method.GET, "/idx/_percolator", WRITE, READ },
+			{ Method.POST, "/idx/_percolator/x", WRITE, WRITE },
+			{ Method.GET, "/_cluster", ADMIN, ADMIN },
+			{ Method.GET, "/_cluster/health", READ, READ },
+			{ Method.POST, "/_cluster/reroute", WRITE, WRITE },
+			{ Method.GET, "/idx/_stats", ADMIN, ADMIN },
+			{ Method.GET, "/idx/_status", ADMIN, ADMIN },
+			{ Method.POST, "/idx/_refresh", ADMIN | WRITE, ADMIN | WRITE },
+			{ Method.GET, "/idx/type/1", READ, READ },
+			{ Method.PUT, "/idx/type/1", WRITE, WRITE },
+			{ Method.DELETE, "/idx", WRITE, WRITE },
+			{ Method.POST, "/_bulk", WRITE, WRITE },
+			{ Method.GET, "/idx/type/1/_update", WRITE, WRITE },
+			{ Method.GET, "/logs/_counters", READ, READ },
+			{ Method.GET, "/_search/type/_count", READ, READ } };
+
+	private static final Method[] METHODS = { Method.GET, Method.POST,
+			Method.PUT, Method.DELETE, Method.HEAD };
+
+	@Test
+	public void classifiesEndpoints() {
+		for (final Object[] row : ENDPOINTS) {
+			final Method method = (Method) row[0];
+			final String path = (String) row[1];
+
+			assertEquals("strict " + method + " " + path, row[2],
+					endpoint(method, path, true));
+			assertEquals("lax " + method + " " + path, row[3],
+					endpoint(method, path, false));
+		}
+	}
+
+	@Test
+	public void classifiesEveryCommandLikeTheSubstringMatching() {
+		int compared = 0;
+		for (final boolean strict : new boolean[] { true, false }) {
+			for (final String command : commands(strict)) {
+				for (final String path : new String[] { "/" + command,
+						"/idx/" + command, "/idx,other/" + command,
+						"/idx/type/" + command, "/idx/" + command + "s",
+						"/idx/" + command + "s/sub", "/idx/" + command + "/sub",
+						"/idx/" + command + "_suffix",
+						"/" + command + "/type/" + other(command),
+						"/" + command + "/type/1", "/idx/type/" + command + "/x" }) {
+					for (final Method method : METHODS) {
+						assertEquals((strict ? "strict " : "lax ") + method
+								+ " " + path, substringMatching(method, path,
+								strict), EndpointClassifier.getInstance(strict)
+								.classify(method, path));
+						compared++;
+					}
+				}
+			}
+		}
+		assertTrue(compared > 500);
+	}
+
+	@Test
+	public void trailingSlashDoesNotHideTheCommand() {
+		// the substring matching took these for plain reads
+		assertEquals(ADMIN, endpoint(Method.GET, "/idx/_warmer/", true));
+		assertEquals(ADMIN, endpoint(Method.GET, "/_cluster/", false));
+		assertEquals(WRITE, endpoint(Method.GET, "/idx/_mapping/", true));
+		assertEquals(READ, endpoint(Method.POST, "/idx/_search/", true));
+	}
+
+	@Test
+	public void commandIsTheEndpointEvenIfItIsAlsoAName() {
+		// the substring matching ignored a command which also occurs as name
+		assertEquals(READ, endpoint(Method.POST, "/_search/type/_search", true));
+		assertEquals(ADMIN, endpoint(Method.GET, "/_stats/type/_stats", false));
+	}
+
+	@Test
+	public void flagsNamesEqualToCommands() {
+		final int classification = EndpointClassifier.getInstance(true)
+				.classify(Method.GET, "/_search/_bulk/_count");
+
+		assertEquals(EndpointClassifier.READ_COMMAND_AS_NAME
+				| EndpointClassifier.WRITE_COMMAND_AS_NAME, classification);
+		assertEquals(EndpointClassifier.ADMIN_COMMAND_AS_NAME,
+				EndpointClassifier.getInstance(false).classify(Method.GET,
+						"/_stats/type/_search"));
+	}
+
+	private static int endpoint(final Method method, final String path,
+			final boolean strict) {
+		return EndpointClassifier.getInstance(strict).classify(method, path)
+				& (ADMIN | WRITE);
+	}
+
+	/**
+	 * Returns an endpoint different from the given command.
+	 */
+	private static String other(final String command) {
+		return "_search".equals(command) ? "_count" : "_search";
+	}
+
+	private static String[] commands(final boolean strict) {
+		final String[] read = strict ? SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT
+				: SecurityUtil.BUILT_IN_READ_COMMANDS_LAX;
+		final String[] write = strict ? SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT
+				: SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX;
+		final String[] admin = SecurityUtil.BUILT_IN_ADMIN_COMMANDS;
+
+		final String[] commands = new String[read.length + write.length
+				+ admin.length];
+		System.arraycopy(read, 0, commands, 0, read.length);
+		System.arraycopy(write, 0, commands, read.length, write.length);
+		System.arraycopy(admin, 0, commands, read.length + write.length,
+				admin.length);
+		return commands;
+	}
+
+	/**
+	 * The classification before the trie, every command was searched as
+	 * substring of the path.
+	 */
+	private static int substringMatching(final Method method,
+			final String path, final boolean strict) {
+		final String[] read = strict ? SecurityUtil.BUILT_IN_READ_COMMANDS_STRICT
+				: SecurityUtil.BUILT_IN_READ_COMMANDS_LAX;
+		final String[] write = strict ? SecurityUtil.BUILT_IN_WRITE_COMMANDS_STRICT
+				: SecurityUtil.BUILT_IN_WRITE_COMMANDS_LAX;
+
+		int result = 0;
+		if (asCommand(path, SecurityUtil.BUILT_IN_ADMIN_COMMANDS)) {
+			result |= ADMIN;
+		}
+		if (method == Method.DELETE || method == Method.PUT
+				|| method == Method.POST && !asCommand(path, read)
+				|| asCommand(path, write)) {
+			result |= WRITE;
+		}
+		if (asName(path, SecurityUtil.BUILT_IN_ADMIN_COMMANDS)) {
+			result |= EndpointClassifier.ADMIN_COMMAND_AS_NAME;
+		}
+		if (asName(path, read)) {
+			result |= EndpointClassifier.READ_COMMAND_AS_NAME;
+		}
+		if (asName(path, write)) {
+			result |= EndpointClassifier.WRITE_COMMAND_AS_NAME;
+		}
+		return result;
+	}
+
+	private static boolean asCommand(final String path, final String[] items) {
+		for (final String item : items) {
+			if (path.contains("/" + item) && !path.contains(item + "/")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean asName(final String path, final String[] items) {
+		for (final String item : items) {
+			if (path.contains("/" + item + "/")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
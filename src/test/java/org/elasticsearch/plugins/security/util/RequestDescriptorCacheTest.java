@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class RequestDescriptorCacheTest {
+
+	@Test
+	public void returnsTheCachedDescriptorOnAHit() throws Exception {
+		final RequestDescriptorCache cache = new RequestDescriptorCache(10,
+				false);
+
+		final RequestDescriptor first = cache.get(new PathRequest(
+				Method.GET, "/logs/_search"));
+		final RequestDescriptor second = cache.get(new PathRequest(
+				Method.GET, "/logs/_search"));
+
+		assertSame(first, second);
+		assertEquals(Collections.singletonList("logs"), second.getIndices());
+
+		final Map<String, Object> stats = stats(cache);
+		assertEquals(1, ((Number) stats.get("hits")).intValue());
+		assertEquals(1, ((Number) stats.get("misses")).intValue());
+		assertEquals(0.5d, ((Number) stats.get("hit_rate")).doubleValue(), 0d);
+	}
+
+	@Test
+	public void keepsMethodsApart() throws Exception {
+		final RequestDescriptorCache cache = new RequestDescriptorCache(10,
+				false);
+
+		final RequestDescriptor get = cache.get(new PathRequest(Method.GET,
+				"/logs/type/1"));
+		final RequestDescriptor put = cache.get(new PathRequest(Method.PUT,
+				"/logs/type/1"));
+
+		assertNotSame(get, put);
+		assertTrue(get.isReadRequest());
+		assertTrue(put.isWriteRequest());
+		assertEquals(2, ((Number) stats(cache).get("size")).intValue());
+	}
+
+	@Test
+	public void keysByTheRawPath() throws Exception {
+		final RequestDescriptorCache cache = new RequestDescriptorCache(10,
+				false);
+
+		final RequestDescriptor encoded = cache.get(new PathRequest(
+				Method.GET, "/a%2Cb/_search"));
+		assertEquals("a,b", encoded.getPath().substring(1, 4));
+		assertEquals(2, encoded.getIndices().size());
+		assertNotSame(encoded, cache.get(new PathRequest(Method.GET,
+				"/a,b/_search")));
+	}
+
+	@Test
+	public void staysWithinItsSize() throws Exception {
+		final RequestDescriptorCache cache = new RequestDescriptorCache(2,
+				false);
+
+		for (int i = 0; i < 20; i++) {
+			cache.get(new PathRequest(Method.GET, "/logs-" + i + "/_search"));
+		}
+
+		final Map<String, Object> stats = stats(cache);
+		assertTrue(((Number) stats.get("size")).intValue() <= 2);
+		assertEquals(2, ((Number) stats.get("max_size")).intValue());
+		assertEquals(20, ((Number) stats.get("misses")).intValue());
+	}
+
+	@Test
+	public void parsesEveryRequestIfDisabled() throws Exception {
+		final RequestDescriptorCache cache = new RequestDescriptorCache(0,
+				false);
+
+		assertNotSame(cache.get(new PathRequest(Method.GET, "/logs/_search")),
+				cache.get(new PathRequest(Method.GET, "/logs/_search")));
+		assertEquals(0, ((Number) stats(cache).get("size")).intValue());
+	}
+
+	private static Map<String, Object> stats(final RequestDescriptorCache cache)
+			throws Exception {
+		final XContentBuilder builder = XContentFactory.jsonBuilder()
+				.startObject();
+		cache.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject();
+		return XContentHelper.convertToMap(builder.bytes(), false).v2();
+	}
+
+	/**
+	 * Request without content, headers and parameters.
+	 */
+	private static final class PathRequest extends RestRequest {
+
+		private final Method method;
+
+		private final String rawPath;
+
+		private PathRequest(final Method method, final String rawPath) {
+			this.method = method;
+			this.rawPath = rawPath;
+		}
+
+		@Override
+		public Method method() {
+			return method;
+		}
+
+		@Override
+		public String uri() {
+			return rawPath;
+		}
+
+		@Override
+		public String rawPath() {
+			return rawPath;
+		}
+
+		@Override
+		public boolean hasContent() {
+			return false;
+		}
+
+		@Override
+		public boolean contentUnsafe() {
+			return false;
+		}
+
+		@Override
+		public BytesReference content() {
+			return BytesArray.EMPTY;
+		}
+
+		@Override
+		public String header(final String name) {
+			return null;
+		}
+
+		@Override
+		public Iterable<Map.Entry<String, String>> headers() {
+			return Collections.<String, String> emptyMap().entrySet();
+		}
+
+		@Override
+		public boolean hasParam(final String key) {
+			return false;
+		}
+
+		@Override
+		public String param(final String key) {
+			return null;
+		}
+
+		@Override
+		public String param(final String key, final String defaultValue) {
+			return defaultValue;
+		}
+
+		@Override
+		public Map<String, String> params() {
+			return Collections.emptyMap();
+		}
+	}
+
+}
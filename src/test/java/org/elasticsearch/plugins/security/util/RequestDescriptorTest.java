@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.elasticsearch.plugins.security.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.elasticsearch.rest.RestRequest.Method;
+import org.junit.Test;
+
+/**
+ * @author Johannes Hiemer.
+ *
+ */
+public class RequestDescriptorTest {
+
+	@Test
+	public void parsesTheRoot() {
+		final RequestDescriptor descriptor = parse("/");
+
+		assertTrue(descriptor.getIndices().isEmpty());
+		assertTrue(descriptor.getTypes().isEmpty());
+		assertNull(descriptor.getId());
+		assertNull(descriptor.getEndpoint());
+		assertTrue(descriptor.isReadRequest());
+	}
+
+	@Test
+	public void parsesASingleSegment() {
+		final RequestDescriptor descriptor = parse("/idx");
+
+		// indices are only taken from a segment followed by another one
+		assertTrue(descriptor.getIndices().isEmpty());
+		assertTrue(descriptor.getTypes().isEmpty());
+		assertEquals("idx", descriptor.getId());
+		assertNull(descriptor.getEndpoint());
+	}
+
+	@Test
+	public void parsesDocumentPaths() {
+		final RequestDescriptor descriptor = parse("/idx/type/id");
+
+		assertEquals(Collections.singletonList("idx"), descriptor.getIndices());
+		assertEquals(Collections.singletonList("type"), descriptor.getTypes());
+		assertEquals("id", descriptor.getId());
+		assertNull(descriptor.getEndpoint());
+		assertTrue(descriptor.isReadRequest());
+	}
+
+	@Test
+	public void splitsIndexLists() {
+		final RequestDescriptor descriptor = parse("/a,b/_search");
+
+		assertEquals(Arrays.asList("a", "b"), descriptor.getIndices());
+		assertTrue(descriptor.getTypes().isEmpty());
+		assertEquals("_search", descriptor.getEndpoint());
+
+		assertEquals(Arrays.asList("a", "b"), parse("/a,b/t1,t2/_search")
+				.getIndices());
+		assertEquals(Arrays.asList("t1", "t2"), parse("/a,b/t1,t2/_search")
+				.getTypes());
+	}
+
+	@Test
+	public void parsesTrailingSlashes() {
+		RequestDescriptor descriptor = parse("/idx/");
+		assertEquals(Collections.singletonList("idx"), descriptor.getIndices());
+		assertTrue(descriptor.getTypes().isEmpty());
+		assertEquals("", descriptor.getId());
+
+		descriptor = parse("/idx/type/");
+		assertEquals(Collections.singletonList("idx"), descriptor.getIndices());
+		assertEquals(Collections.singletonList("type"), descriptor.getTypes());
+
+		descriptor = parse("/idx/_search/");
+		assertEquals("_search", descriptor.getEndpoint());
+		assertTrue(descriptor.isReadRequest());
+	}
+
+	@Test
+	public void takesAllAsIndexNotAsEndpoint() {
+		RequestDescriptor descriptor = parse("/_all/_search");
+		assertEquals(Collections.singletonList("_all"), descriptor.getIndices());
+		assertEquals("_search", descriptor.getEndpoint());
+
+		descriptor = parse("/_all/type/1");
+		assertEquals(Collections.singletonList("_all"), descriptor.getIndices());
+		assertEquals(Collections.singletonList("type"), descriptor.getTypes());
+		assertNull(descriptor.getEndpoint());
+
+		assertEquals("_al", parse("/_al/_search").getEndpoint());
+		assertEquals("_alles", parse("/_alles").getEndpoint());
+	}
+
+	@Test
+	public void flagsCommandsUsedAsNames() {
+		final RequestDescriptor descriptor = RequestDescriptor.parse(
+				Method.GET, "/_stats/_search/_count", true);
+
+		assertTrue(descriptor.isAdminCommandAsName());
+		assertTrue(descriptor.isReadCommandAsName());
+		assertFalse(descriptor.isWriteCommandAsName());
+		assertTrue(descriptor.isReadRequest());
+
+		assertFalse(parse("/idx/_search").isReadCommandAsName());
+	}
+
+	@Test
+	public void classifiesByMethodAndMode() {
+		assertTrue(RequestDescriptor.parse(Method.PUT, "/idx/type/1", false)
+				.isWriteRequest());
+		assertTrue(RequestDescriptor.parse(Method.GET, "/idx/_mapping", true)
+				.isWriteRequest());
+		assertTrue(RequestDescriptor.parse(Method.GET, "/idx/_mapping", false)
+				.isReadRequest());
+		assertTrue(RequestDescriptor.parse(Method.GET, "/_cluster", false)
+				.isAdminRequest());
+	}
+
+	private static RequestDescriptor parse(final String path) {
+		return RequestDescriptor.parse(Method.GET, path, false);
+	}
+
+}